@@ -0,0 +1,331 @@
+package uk.ac.ebi.ddi.downloas.ena;
+
+import uk.ac.ebi.ddi.downloas.utils.StringDictionary;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+
+/**
+ * A thread-safe, memory-compact map between non-project ENA accessions and their project accessions.
+ * Accessions consisting of 1-4 upper-case letters, an optional '_' and 1-11 digits - i.e. nearly all run, experiment,
+ * analysis, assembly and sequence accessions, e.g. ERR1234567, GCA_000001735 or AFTI01 - are packed into a long
+ * (c.f. encode()), and stored in open-addressing hash tables of primitive longs; project accessions are interned
+ * into a StringDictionary, so that each of them is stored only once and referred to by its int id.
+ * Accessions of any other shape are stored in a ConcurrentHashMap.
+ * N.B. The hash tables are split into segments, each guarded by its own StampedLock - lookups are lock-free
+ * (optimistic) unless they overlap with an update of the same segment.
+ */
+public class ENAAccessionCache {
+
+    // The key of accessions that cannot be packed into a long - also marks the empty slots of the hash tables
+    static final long NO_KEY = 0;
+
+    private static final int MAX_LETTERS = 4;
+    private static final int LETTER_BITS = 5;
+    private static final int MAX_DIGITS = 11;
+    private static final int DIGIT_COUNT_BITS = 4;
+    private static final int NUMBER_BITS = 37; // 10^11 - 1 < 2^37
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int INITIAL_SEGMENT_CAPACITY = 1024;
+    private static final double MAX_LOAD_FACTOR = 0.7;
+
+    private final StringDictionary projectAccessions = new StringDictionary();
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+    private final Map<String, Integer> otherAccessionToProject = new ConcurrentHashMap<>();
+
+    public ENAAccessionCache() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @param accession
+     * @return The project accession mapped to accession; null if there is none
+     */
+    public String get(String accession) {
+        long key = encode(accession);
+        int projectId;
+        if (key == NO_KEY) {
+            Integer id = otherAccessionToProject.get(accession);
+            projectId = id == null ? -1 : id;
+        } else {
+            long hash = mix(key);
+            projectId = getSegment(hash).get(key, hash);
+        }
+        return projectId < 0 ? null : projectAccessions.get(projectId);
+    }
+
+    public boolean containsKey(String accession) {
+        return get(accession) != null;
+    }
+
+    public void put(String accession, String projectAccession) {
+        put(accession, projectAccession, false);
+    }
+
+    public void putIfAbsent(String accession, String projectAccession) {
+        put(accession, projectAccession, true);
+    }
+
+    private void put(String accession, String projectAccession, boolean onlyIfAbsent) {
+        int projectId = projectAccessions.intern(projectAccession);
+        long key = encode(accession);
+        if (key == NO_KEY) {
+            if (onlyIfAbsent) {
+                otherAccessionToProject.putIfAbsent(accession, projectId);
+            } else {
+                otherAccessionToProject.put(accession, projectId);
+            }
+        } else {
+            long hash = mix(key);
+            getSegment(hash).put(key, hash, projectId, onlyIfAbsent);
+        }
+    }
+
+    /**
+     * @return The number of accessions mapped
+     */
+    public int size() {
+        int size = otherAccessionToProject.size();
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /**
+     * Grow the hash tables so that they can hold expectedSize accessions in all without being resized - e.g. before
+     * a known number of mappings is loaded, so that the tables are not copied (and held twice) as they fill up
+     *
+     * @param expectedSize
+     */
+    public void ensureCapacity(int expectedSize) {
+        long needed = (long) (expectedSize / (double) segments.length / MAX_LOAD_FACTOR) + 1;
+        // The smallest power of 2 no less than needed
+        int segmentCapacity = Integer.highestOneBit((int) Math.min(1 << 29, needed) * 2 - 1);
+        for (Segment segment : segments) {
+            segment.ensureCapacity(segmentCapacity);
+        }
+    }
+
+    /**
+     * Pass each mapping to consumer. N.B. Mappings added or updated while this method runs may or may not be passed
+     *
+     * @param consumer
+     */
+    public void forEach(BiConsumer<String, String> consumer) {
+        for (Segment segment : segments) {
+            segment.forEach((key, projectId) -> consumer.accept(decode(key), projectAccessions.get(projectId)));
+        }
+        otherAccessionToProject.forEach(
+                (accession, projectId) -> consumer.accept(accession, projectAccessions.get(projectId)));
+    }
+
+    /**
+     * Pack accession into a long - from the most significant bit: 4 x 5 bits for letters (A=1 ... Z=26, left-aligned
+     * and padded with 0s), 1 bit for '_', 4 bits for the number of digits and 37 bits for the number they make up
+     *
+     * @param accession
+     * @return The packed accession; NO_KEY if accession cannot be packed
+     */
+    static long encode(String accession) {
+        int length = accession.length();
+        int i = 0;
+        long key = 0;
+        while (i < length && i < MAX_LETTERS && accession.charAt(i) >= 'A' && accession.charAt(i) <= 'Z') {
+            key = key << LETTER_BITS | (accession.charAt(i) - 'A' + 1);
+            i++;
+        }
+        if (i == 0 || (i < length && accession.charAt(i) >= 'A' && accession.charAt(i) <= 'Z')) {
+            return NO_KEY;
+        }
+        key <<= LETTER_BITS * (MAX_LETTERS - i);
+        int underscore = 0;
+        if (i < length && accession.charAt(i) == '_') {
+            underscore = 1;
+            i++;
+        }
+        int digits = length - i;
+        if (digits < 1 || digits > MAX_DIGITS) {
+            return NO_KEY;
+        }
+        long number = 0;
+        for (; i < length; i++) {
+            char c = accession.charAt(i);
+            if (c < '0' || c > '9') {
+                return NO_KEY;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return ((key << 1 | underscore) << DIGIT_COUNT_BITS | digits) << NUMBER_BITS | number;
+    }
+
+    /**
+     * @param key A key returned by encode()
+     * @return The accession packed into key
+     */
+    static String decode(long key) {
+        long number = key & ((1L << NUMBER_BITS) - 1);
+        int digits = (int) (key >>> NUMBER_BITS) & ((1 << DIGIT_COUNT_BITS) - 1);
+        boolean underscore = ((key >>> (NUMBER_BITS + DIGIT_COUNT_BITS)) & 1) == 1;
+        StringBuilder accession = new StringBuilder(MAX_LETTERS + 1 + digits);
+        for (int i = MAX_LETTERS - 1; i >= 0; i--) {
+            int letter = (int) (key >>> (NUMBER_BITS + DIGIT_COUNT_BITS + 1 + i * LETTER_BITS))
+                    & ((1 << LETTER_BITS) - 1);
+            if (letter == 0) {
+                break;
+            }
+            accession.append((char) ('A' + letter - 1));
+        }
+        if (underscore) {
+            accession.append('_');
+        }
+        String numberStr = Long.toString(number);
+        for (int i = numberStr.length(); i < digits; i++) {
+            accession.append('0');
+        }
+        return accession.append(numberStr).toString();
+    }
+
+    private Segment getSegment(long hash) {
+        return segments[(int) (hash >>> (Long.SIZE - SEGMENT_BITS))];
+    }
+
+    /**
+     * C.f. the finaliser of MurmurHash3
+     */
+    private static long mix(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private interface EntryConsumer {
+        void accept(long key, int projectId);
+    }
+
+    /**
+     * An open-addressing (linear probing) hash table; its length is a power of 2
+     */
+    private static final class Table {
+        private final long[] keys;
+        private final int[] projectIds;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            projectIds = new int[capacity];
+        }
+
+        /**
+         * @return The slot containing key, or the empty slot at which key would be inserted
+         */
+        int find(long key, long hash) {
+            int mask = keys.length - 1;
+            int slot = (int) hash & mask;
+            while (keys[slot] != NO_KEY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+
+    private static final class Segment {
+        private final StampedLock lock = new StampedLock();
+        private volatile Table table = new Table(INITIAL_SEGMENT_CAPACITY);
+        private volatile int size;
+
+        /**
+         * @return The project id mapped to key; -1 if there is none
+         */
+        int get(long key, long hash) {
+            long stamp = lock.tryOptimisticRead();
+            int projectId = get(table, key, hash);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    projectId = get(table, key, hash);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return projectId;
+        }
+
+        private static int get(Table table, long key, long hash) {
+            int slot = table.find(key, hash);
+            return table.keys[slot] == key ? table.projectIds[slot] : -1;
+        }
+
+        void put(long key, long hash, int projectId, boolean onlyIfAbsent) {
+            long stamp = lock.writeLock();
+            try {
+                Table current = table;
+                int slot = current.find(key, hash);
+                if (current.keys[slot] == key) {
+                    if (!onlyIfAbsent) {
+                        current.projectIds[slot] = projectId;
+                    }
+                    return;
+                }
+                current.keys[slot] = key;
+                current.projectIds[slot] = projectId;
+                size++;
+                if (size > current.keys.length * MAX_LOAD_FACTOR) {
+                    resize(current);
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void ensureCapacity(int capacity) {
+            long stamp = lock.writeLock();
+            try {
+                if (table.keys.length < capacity) {
+                    resize(table, capacity);
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void resize(Table current) {
+            resize(current, current.keys.length * 2);
+        }
+
+        private void resize(Table current, int capacity) {
+            Table resized = new Table(capacity);
+            for (int slot = 0; slot < current.keys.length; slot++) {
+                long key = current.keys[slot];
+                if (key != NO_KEY) {
+                    int newSlot = resized.find(key, mix(key));
+                    resized.keys[newSlot] = key;
+                    resized.projectIds[newSlot] = current.projectIds[slot];
+                }
+            }
+            table = resized;
+        }
+
+        void forEach(EntryConsumer consumer) {
+            long stamp = lock.readLock();
+            try {
+                Table current = table;
+                for (int slot = 0; slot < current.keys.length; slot++) {
+                    if (current.keys[slot] != NO_KEY) {
+                        consumer.accept(current.keys[slot], current.projectIds[slot]);
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package uk.ac.ebi.ddi.downloas.ena;
+
+/**
+ * Determines the type of an ENA accession - with the same results as trying the regex of each of
+ * ENAWsConfigProd.AccessionTypes in turn (c.f. ENAWsConfigProd.ACCESSION_TYPES_PATTERNS), and as
+ * ElasticSearchWsConfigProd.ENA_PRJ_ACCESSION_REGEX for project accessions - but in a single pass over the accession.
+ * The accession types have distinct lengths and prefixes, so that the length of the accession and its first three
+ * characters select the only type it could be; the remaining characters are then checked to be digits.
+ * N.B. Any change to the regexes in ElasticSearchWsConfigProd must be reflected here (c.f. ENAAccessionClassifierTest)
+ */
+public final class ENAAccessionClassifier {
+
+    // [EDS]R[PRXZA] followed by 6 or 7 digits
+    private static final int SRA_MIN_LENGTH = 9;
+    private static final int SRA_MAX_LENGTH = 10;
+    // GCA_ followed by 9 digits
+    private static final String ASSEMBLY_PREFIX = "GCA_";
+    private static final int ASSEMBLY_LENGTH = 13;
+    // 4 upper-case letters followed by 2 digits
+    private static final int SEQUENCE_LETTERS = 4;
+    private static final int SEQUENCE_LENGTH = 6;
+    // PRJ followed by at least one word character
+    private static final String PROJECT_PREFIX = "PRJ";
+
+    private ENAAccessionClassifier() {
+    }
+
+    /**
+     * @param enaAccession
+     * @return The type of enaAccession; null if it is not of any of ENAWsConfigProd.AccessionTypes
+     */
+    public static ENAWsConfigProd.AccessionTypes getAccessionType(String enaAccession) {
+        int length = enaAccession.length();
+        if (length == SRA_MIN_LENGTH || length == SRA_MAX_LENGTH) {
+            char db = enaAccession.charAt(0);
+            if ((db != 'E' && db != 'D' && db != 'S') || enaAccession.charAt(1) != 'R'
+                    || !isDigits(enaAccession, 3, length)) {
+                return null;
+            }
+            switch (enaAccession.charAt(2)) {
+                case 'P':
+                case 'R':
+                case 'X':
+                    return ENAWsConfigProd.AccessionTypes.study_experiment_run;
+                case 'Z':
+                    return ENAWsConfigProd.AccessionTypes.analysis;
+                case 'A':
+                    return ENAWsConfigProd.AccessionTypes.submission;
+                default:
+                    return null;
+            }
+        } else if (length == ASSEMBLY_LENGTH) {
+            return enaAccession.startsWith(ASSEMBLY_PREFIX) && isDigits(enaAccession, ASSEMBLY_PREFIX.length(), length)
+                    ? ENAWsConfigProd.AccessionTypes.assembly : null;
+        } else if (length == SEQUENCE_LENGTH) {
+            for (int i = 0; i < SEQUENCE_LETTERS; i++) {
+                char c = enaAccession.charAt(i);
+                if (c < 'A' || c > 'Z') {
+                    return null;
+                }
+            }
+            return isDigits(enaAccession, SEQUENCE_LETTERS, length) ? ENAWsConfigProd.AccessionTypes.sequence : null;
+        }
+        return null;
+    }
+
+    /**
+     * @param enaAccession
+     * @return True if enaAccession is an ENA project accession
+     */
+    public static boolean isProjectAccession(String enaAccession) {
+        int length = enaAccession.length();
+        if (length <= PROJECT_PREFIX.length() || !enaAccession.startsWith(PROJECT_PREFIX)) {
+            return false;
+        }
+        for (int i = PROJECT_PREFIX.length(); i < length; i++) {
+            char c = enaAccession.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return True if all characters of s between from (inclusive) and to (exclusive) are ASCII digits
+     */
+    private static boolean isDigits(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,162 @@
+package uk.ac.ebi.ddi.downloas.ena;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves ENA accessions to their project accessions asynchronously, so that the callers never wait for ENA.
+ * Accessions not cached by ENAWsClient are queued, de-duplicated against the lookups already in flight, and looked up
+ * in batches (c.f. ENAWsClient.getProjectAccessions()) of up to ENAWsConfigProd.MAX_LOOKUP_BATCH_SIZE accessions -
+ * each batch is sent once it is full, or once its first accession has waited for ENAWsConfigProd.LOOKUP_BATCH_DELAY
+ * ms, whichever comes first. Once the resolver is closed, the lookups not yet answered - and any requested since -
+ * are completed exceptionally, so that no caller waits for them forever.
+ */
+public class ENAAccessionResolver implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ENAAccessionResolver.class);
+    // Returned by ENAWsClient.getProjectAccessionOrDefault() for accessions not cached - N.B. no project accession
+    // is empty
+    private static final String UNCACHED = "";
+
+    private final ENAWsClient enaWsClient;
+
+    // Lookups in flight - each accession is looked up only once at a time, however many callers are waiting for it
+    private final Map<String, CompletableFuture<String>> pendingLookups = new ConcurrentHashMap<>();
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService lookupExecutor = Executors.newFixedThreadPool(ENAWsConfigProd.MAX_PARALLEL_LOOKUPS,
+            runnable -> newDaemonThread(runnable, "ena-lookup"));
+    private final Thread batcher = newDaemonThread(this::batchLookups, "ena-lookup-batcher");
+    private volatile boolean closed;
+
+    public ENAAccessionResolver(ENAWsClient enaWsClient) {
+        this.enaWsClient = enaWsClient;
+        batcher.start();
+    }
+
+    /**
+     * @param enaAccession
+     * @return A future of the ENA project accession corresponding to enaAccession (null if there is none);
+     * it is completed exceptionally if the lookup of enaAccession fails, or if the resolver is closed before
+     * it is answered
+     */
+    public CompletableFuture<String> resolve(String enaAccession) {
+        String projectAccession = enaWsClient.getProjectAccessionOrDefault(enaAccession, UNCACHED);
+        if (!UNCACHED.equals(projectAccession)) {
+            return CompletableFuture.completedFuture(projectAccession);
+        }
+        CompletableFuture<String> future = pendingLookups.computeIfAbsent(enaAccession, accession -> {
+            queue.add(accession);
+            return new CompletableFuture<>();
+        });
+        // N.B. The lookup is queued before closed is read, so either it is failed here, or by close()
+        if (closed) {
+            failPendingLookups();
+        }
+        return future;
+    }
+
+    /**
+     * Take the queued accessions in batches, and look each batch up in lookupExecutor
+     */
+    private void batchLookups() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                List<String> batch = new ArrayList<>();
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ENAWsConfigProd.LOOKUP_BATCH_DELAY);
+                while (batch.size() < ENAWsConfigProd.MAX_LOOKUP_BATCH_SIZE) {
+                    queue.drainTo(batch, ENAWsConfigProd.MAX_LOOKUP_BATCH_SIZE - batch.size());
+                    long timeout = deadline - System.nanoTime();
+                    if (batch.size() == ENAWsConfigProd.MAX_LOOKUP_BATCH_SIZE || timeout <= 0) {
+                        break;
+                    }
+                    String accession = queue.poll(timeout, TimeUnit.NANOSECONDS);
+                    if (accession == null) {
+                        break;
+                    }
+                    batch.add(accession);
+                }
+                try {
+                    lookupExecutor.execute(() -> lookup(batch));
+                } catch (RejectedExecutionException e) {
+                    // Closed in the meantime
+                    fail(batch, e);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void lookup(List<String> batch) {
+        try {
+            Map<String, String> enaAccessionToProject = enaWsClient.getProjectAccessions(batch);
+            for (String accession : batch) {
+                CompletableFuture<String> future = pendingLookups.remove(accession);
+                if (future != null) {
+                    future.complete(enaAccessionToProject.get(accession));
+                }
+            }
+        } catch (Throwable e) {
+            LOGGER.error("Failed to look up {} ENA accessions: {}", batch.size(), e.toString());
+            fail(batch, e);
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+        }
+    }
+
+    /**
+     * Complete the pending lookups of accessions exceptionally
+     *
+     * @param accessions
+     * @param cause
+     */
+    private void fail(List<String> accessions, Throwable cause) {
+        for (String accession : accessions) {
+            CompletableFuture<String> future = pendingLookups.remove(accession);
+            if (future != null) {
+                future.completeExceptionally(cause);
+            }
+        }
+    }
+
+    /**
+     * Complete all the pending lookups exceptionally, once the resolver is closed
+     */
+    private void failPendingLookups() {
+        queue.clear();
+        fail(new ArrayList<>(pendingLookups.keySet()), new IllegalStateException("ENAAccessionResolver is closed"));
+    }
+
+    /**
+     * Stop looking up accessions, and complete the lookups not yet answered exceptionally - N.B. the answers of
+     * the lookups already sent to ENA are discarded
+     */
+    @Override
+    public void close() {
+        closed = true;
+        batcher.interrupt();
+        lookupExecutor.shutdown();
+        failPendingLookups();
+    }
+
+    private static Thread newDaemonThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
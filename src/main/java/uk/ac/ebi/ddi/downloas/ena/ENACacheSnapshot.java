@@ -0,0 +1,156 @@
+package uk.ac.ebi.ddi.downloas.ena;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.IntConsumer;
+
+/**
+ * A binary file containing a snapshot of the mappings between non-project ENA accessions and their project
+ * accessions, as cached by ENAWsClient. Layout:
+ * header - MAGIC (int), FORMAT_VERSION (int), the time at which the mappings were retrieved from ENA (long, epoch ms),
+ * the number of distinct project accessions (int) and the number of mappings (int);
+ * project accessions - each (modified UTF-8) once;
+ * mappings - each a non-project accession (modified UTF-8) followed by the index of its project accession (int).
+ */
+public final class ENACacheSnapshot {
+
+    static final int MAGIC = 0x454E4153; // ENAS
+    static final int FORMAT_VERSION = 1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private ENACacheSnapshot() {
+    }
+
+    /**
+     * A source of mappings, which may be iterated more than once - e.g. ENAAccessionCache::forEach
+     */
+    interface MappingSource {
+        void forEach(BiConsumer<String, String> consumer);
+    }
+
+    /**
+     * Pass all the mappings in file to consumer
+     *
+     * @param file
+     * @param consumer
+     * @return The time (epoch ms) at which the mappings in file were retrieved from ENA
+     * @throws IOException If file cannot be read, is truncated or is not a snapshot of FORMAT_VERSION
+     */
+    static long read(Path file, ENAWsClient.MappingConsumer consumer) throws IOException {
+        return read(file, count -> { }, consumer);
+    }
+
+    /**
+     * Pass all the mappings in file to consumer, one at a time as they are read
+     *
+     * @param file
+     * @param countConsumer Passed the number of mappings in file before any of them are passed to consumer - e.g.
+     *                      so that the store of the mappings can be sized for them upfront
+     * @param consumer
+     * @return The time (epoch ms) at which the mappings in file were retrieved from ENA
+     * @throws IOException If file cannot be read, is truncated or is not a snapshot of FORMAT_VERSION
+     */
+    static long read(Path file, IntConsumer countConsumer, ENAWsClient.MappingConsumer consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not an ENA cache snapshot");
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException(file + " is of unsupported version: " + version);
+            }
+            long timestamp = in.readLong();
+            String[] projectAccessions = new String[in.readInt()];
+            int mappingCount = in.readInt();
+            for (int i = 0; i < projectAccessions.length; i++) {
+                projectAccessions[i] = in.readUTF();
+            }
+            countConsumer.accept(mappingCount);
+            for (int i = 0; i < mappingCount; i++) {
+                String accession = in.readUTF();
+                consumer.accept(accession, projectAccessions[in.readInt()]);
+            }
+            return timestamp;
+        } catch (ArrayIndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException(file + " is corrupt", e);
+        }
+    }
+
+    /**
+     * Write mappings to file - c.f. write(Path, long, int, MappingSource)
+     *
+     * @param file
+     * @param timestamp The time (epoch ms) at which mappings were retrieved from ENA
+     * @param mappings  N.B. must not be modified while it is being written
+     * @throws IOException
+     */
+    static void write(Path file, long timestamp, Map<String, String> mappings) throws IOException {
+        write(file, timestamp, mappings.size(), mappings::forEach);
+    }
+
+    /**
+     * Write the mappings of mappings to file as they are iterated, without collecting them in memory - only
+     * the distinct project accessions are. The mappings are written via a temporary file, so that an existing
+     * snapshot is only replaced once the new one is complete
+     *
+     * @param file
+     * @param timestamp The time (epoch ms) at which mappings were retrieved from ENA
+     * @param count     The number of mappings in mappings
+     * @param mappings  Iterated twice - N.B. must not be modified while it is being written
+     * @throws IOException If mappings does not contain count mappings
+     */
+    static void write(Path file, long timestamp, int count, MappingSource mappings) throws IOException {
+        Map<String, Integer> projectAccessionToIndex = new HashMap<>();
+        mappings.forEach((accession, projectAccession) ->
+                projectAccessionToIndex.putIfAbsent(projectAccession, projectAccessionToIndex.size()));
+        String[] projectAccessions = new String[projectAccessionToIndex.size()];
+        projectAccessionToIndex.forEach((projectAccession, index) -> projectAccessions[index] = projectAccession);
+
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmpFile = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmpFile), BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(timestamp);
+                out.writeInt(projectAccessions.length);
+                out.writeInt(count);
+                for (String projectAccession : projectAccessions) {
+                    out.writeUTF(projectAccession);
+                }
+                int[] written = {0};
+                mappings.forEach((accession, projectAccession) -> {
+                    try {
+                        out.writeUTF(accession);
+                        out.writeInt(projectAccessionToIndex.get(projectAccession));
+                        written[0]++;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                if (written[0] != count) {
+                    throw new IOException(written[0] + " mappings written to " + file + " rather than " + count);
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+}
@@ -1,16 +1,44 @@
 package uk.ac.ebi.ddi.downloas.ena;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpMethod;
 import org.springframework.web.util.UriComponentsBuilder;
-import uk.ac.ebi.ddi.downloas.logs.ElasticSearchWsConfigProd;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 
 /**
@@ -24,14 +52,29 @@ public class ENAWsClient extends WsClient {
     private static final Logger LOGGER = LoggerFactory.getLogger(ENAWsClient.class);
     private ENAWsConfigProd config;
 
-    // A cache of all the mapping between non-project ENA accessions and their corresponding project accessions
-    private static final Map<String, String> ENA_ACCESSION_TO_PROJECT = new ConcurrentHashMap<>();
+    // A cache of all the mapping between non-project ENA accessions and their corresponding project accessions,
+    // bulk-loaded from ENA (c.f. populateCache())
+    private static final ENAAccessionCache ENA_ACCESSION_TO_PROJECT = new ENAAccessionCache();
 
-    private Pattern enaPattern = Pattern.compile(ElasticSearchWsConfigProd.ENA_PRJ_ACCESSION_REGEX);
+    // Whether ENA_ACCESSION_TO_PROJECT has been populated - guarded by ENAWsClient.class
+    private static boolean cachePopulated;
 
-    // Because concurrentHasMap not allowed to put null as value, this will be used instead
+    // A bounded cache of the accessions looked up on demand - both those resolved and those ENA could not resolve
+    // (i.e. mapped to NULL_VALUE) - which are evicted once they expire, or to make space for others
+    private final Cache<String, String> onDemandAccessionToProject;
+
+    // Because ENA_ACCESSION_TO_PROJECT cannot store null as value, this will be used instead
     private static final String NULL_VALUE = "NULL";
 
+    // The field of ENA search results containing project accessions
+    private static final String PROJECT_FIELD = "study_accession";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    // Format of the dates in ENA first_public/last_updated queries
+    private static final DateTimeFormatter SNAPSHOT_DATE_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneOffset.UTC);
+
     /**
      * Default constructor for Ws clients
      *
@@ -40,43 +83,394 @@ public class ENAWsClient extends WsClient {
     public ENAWsClient(ENAWsConfigProd config) {
         super(config);
         this.config = config;
+        onDemandAccessionToProject = CacheBuilder.newBuilder()
+                .maximumSize(config.getOnDemandCacheSize())
+                .expireAfterWrite(config.getOnDemandCacheTtl(), TimeUnit.HOURS)
+                .recordStats()
+                .build();
     }
 
     /**
-     * Populate ENA_ACCESSION_TO_PROJECT cache if it has not yet been populated
+     * @return Hit, miss and eviction counts of the cache of accessions looked up on demand
+     */
+    public CacheStats getOnDemandCacheStats() {
+        return onDemandAccessionToProject.stats();
+    }
+
+    /**
+     * Log the sizes of both tiers of the cache, and the statistics of the on-demand tier
+     */
+    public void logCacheStats() {
+        LOGGER.info("ENA_ACCESSION_TO_PROJECT: {} bulk-loaded mappings; {} on-demand mappings - {}",
+                ENA_ACCESSION_TO_PROJECT.size(), onDemandAccessionToProject.size(), getOnDemandCacheStats());
+    }
+
+    /**
+     * Populate ENA_ACCESSION_TO_PROJECT cache if it has not yet been populated - by any ENAWsClient of this process;
+     * the accessions made public in ENA since are then looked up on demand.
+     * If config.getCacheSnapshotFile() is set, the cache is loaded from that snapshot and then refreshed
+     * with only the accessions made public or updated in ENA since the snapshot was taken; the refreshed cache
+     * is then saved back to the snapshot. If the snapshot is missing, unreadable or of an old format - or if it
+     * cannot be refreshed - all the mappings are retrieved from ENA instead.
      */
     public void populateCache() {
-        long startTime = System.currentTimeMillis();
-        Map<ENAWsConfigProd.AccessionTypes, String> accType2Url = new HashMap<>();
-        for (ENAWsConfigProd.AccessionTypes accType : ENAWsConfigProd.AccessionTypes.values()) {
-            if (accType != ENAWsConfigProd.AccessionTypes.submission) {
-                // N.B. that because https://www.ebi.ac.uk/ena/portal/api/returnFields?result=read_study does not contain
-                // submission_accession as one of its return fields, we are unable to populate the cache with
-                // submission accession to project mappings
-                UriComponentsBuilder builder = UriComponentsBuilder.newInstance()
-                        .scheme(config.getProtocol())
-                        .host(config.getHostName())
-                        .path("/search")
-                        .queryParam("result", ENAWsConfigProd.getReturnObjectType(accType))
-                        .queryParam("fields", ENAWsConfigProd.getAccessionField(accType) + ",study_accession")
-                        .queryParam("limit", "0")
-                        .queryParam("format", "json");
-                accType2Url.put(accType, builder.build().toString());
+        synchronized (ENAWsClient.class) {
+            if (cachePopulated) {
+                return;
+            }
+            long startTime = System.currentTimeMillis();
+            Path snapshotFile = config.getCacheSnapshotFile();
+            if (snapshotFile == null) {
+                retrieveMappings(null);
+            } else {
+                if (!refreshFromSnapshot(snapshotFile)) {
+                    retrieveMappings(null);
+                }
+                saveSnapshot(snapshotFile, startTime);
+            }
+            cachePopulated = true;
+            long estimatedTime = (System.currentTimeMillis() - startTime) / 1000; // secs
+            LOGGER.info("ENA_ACCESSION_TO_PROJECT cache initialised in: " + estimatedTime + " secs");
+        }
+    }
+
+    /**
+     * Have the next populateCache() call populate ENA_ACCESSION_TO_PROJECT again - e.g. from another ENA portal
+     */
+    static void invalidateCache() {
+        synchronized (ENAWsClient.class) {
+            cachePopulated = false;
+        }
+    }
+
+    /**
+     * Load snapshotFile into ENA_ACCESSION_TO_PROJECT, and add the mappings of the accessions made public or updated
+     * in ENA since snapshotFile was taken
+     *
+     * @param snapshotFile
+     * @return False if snapshotFile could not be loaded or refreshed
+     */
+    private boolean refreshFromSnapshot(Path snapshotFile) {
+        if (!Files.isRegularFile(snapshotFile)) {
+            LOGGER.info("No ENA cache snapshot found in {} - rebuilding it", snapshotFile);
+            return false;
+        }
+        long snapshotTime;
+        try {
+            long startTime = System.currentTimeMillis();
+            snapshotTime = ENACacheSnapshot.read(snapshotFile, ENA_ACCESSION_TO_PROJECT::ensureCapacity,
+                    ENA_ACCESSION_TO_PROJECT::put);
+            LOGGER.info("Loaded {} ENA_ACCESSION_TO_PROJECT mappings from {} in {} ms", ENA_ACCESSION_TO_PROJECT.size(),
+                    snapshotFile, System.currentTimeMillis() - startTime);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to load ENA cache snapshot - rebuilding it: {}", e.getMessage());
+            return false;
+        }
+        // N.B. first_public and last_updated are dates - hence the overlap with the period covered by the snapshot
+        String since = SNAPSHOT_DATE_FORMATTER.format(Instant.ofEpochMilli(snapshotTime)
+                .minus(ENAWsConfigProd.SNAPSHOT_REFRESH_OVERLAP_DAYS, ChronoUnit.DAYS));
+        try {
+            retrieveMappings(String.format("first_public>=%s OR last_updated>=%s", since, since));
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to refresh ENA cache snapshot since {} - rebuilding it: {}", since, e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Save all the mappings in ENA_ACCESSION_TO_PROJECT to snapshotFile, straight from the cache. N.B. Accessions
+     * known to have no project accession - which may yet be assigned one - are only cached on demand, so they are
+     * not saved
+     *
+     * @param snapshotFile
+     * @param snapshotTime The time at which the retrieval of the mappings from ENA started
+     */
+    private static void saveSnapshot(Path snapshotFile, long snapshotTime) {
+        int count = ENA_ACCESSION_TO_PROJECT.size();
+        try {
+            ENACacheSnapshot.write(snapshotFile, snapshotTime, count, ENA_ACCESSION_TO_PROJECT::forEach);
+            LOGGER.info("Saved {} ENA_ACCESSION_TO_PROJECT mappings to {}", count, snapshotFile);
+        } catch (IOException e) {
+            LOGGER.error("Failed to save ENA cache snapshot to {}", snapshotFile, e);
+        }
+    }
+
+    /**
+     * Retrieve from ENA the mappings of all the accessions matching query, and add them to ENA_ACCESSION_TO_PROJECT.
+     * N.B. The mappings are parsed - and inserted into the cache - as they are streamed from ENA, rather than
+     * after the whole response has been read into memory
+     *
+     * @param query If null, all mappings are retrieved
+     */
+    private void retrieveMappings(String query) {
+        // N.B. that because https://www.ebi.ac.uk/ena/portal/api/returnFields?result=read_study does not contain
+        // submission_accession as one of its return fields, we are unable to populate the cache with
+        // submission accession to project mappings
+        List<ENAWsConfigProd.AccessionTypes> accTypes = Arrays.stream(ENAWsConfigProd.AccessionTypes.values())
+                .filter(accType -> accType != ENAWsConfigProd.AccessionTypes.submission)
+                .collect(Collectors.toList());
+        int parallelism = config.getCacheParallelism();
+        if (parallelism <= 1) {
+            for (ENAWsConfigProd.AccessionTypes accType : accTypes) {
+                long startTime = System.currentTimeMillis();
+                long count = retrieveMappings(accType, query, 0, 0);
+                LOGGER.info("Cached {} {} mappings in {} ms", count, accType, System.currentTimeMillis() - startTime);
+            }
+            return;
+        }
+
+        // Retrieve all types - each split into pages of up to config.getCachePageSize() results - at the same time
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        Map<ENAWsConfigProd.AccessionTypes, PopulationStats> accTypeToStats =
+                new EnumMap<>(ENAWsConfigProd.AccessionTypes.class);
+        Map<ENAWsConfigProd.AccessionTypes, Long> accTypeToPagedTotal =
+                new EnumMap<>(ENAWsConfigProd.AccessionTypes.class);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (ENAWsConfigProd.AccessionTypes accType : accTypes) {
+                PopulationStats stats = new PopulationStats();
+                accTypeToStats.put(accType, stats);
+                long total = getCount(accType, query);
+                if (total <= config.getCachePageSize()) {
+                    futures.add(executor.submit(() -> stats.pageDone(retrieveMappings(accType, query, 0, 0))));
+                    continue;
+                }
+                accTypeToPagedTotal.put(accType, total);
+                int pageSize = config.getCachePageSize();
+                for (long offset = 0; offset < total; offset += pageSize) {
+                    long pageOffset = offset;
+                    futures.add(executor.submit(
+                            () -> stats.pageDone(retrieveMappings(accType, query, pageOffset, pageSize))));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while populating ENA_ACCESSION_TO_PROJECT", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        accTypeToStats.forEach((accType, stats) -> LOGGER.info("Cached {} {} mappings ({} pages) in {} ms",
+                stats.rows.get(), accType, stats.pages.get(), stats.lastPageDone.get() - stats.startTime));
+
+        // The pages are sorted by accession, but ENA keeps changing while they are retrieved: results inserted or
+        // deleted before an offset shift the later pages, skipping or repeating mappings. In that case the pages
+        // no longer add up to the count, and the whole of accType is retrieved again in a single page
+        accTypeToPagedTotal.forEach((accType, total) -> {
+            long rows = accTypeToStats.get(accType).rows.get();
+            if (rows == total && getCount(accType, query) == total) {
+                return;
+            }
+            LOGGER.warn("Retrieved {} {} mappings in pages, out of {} counted - retrieving them in a single page",
+                    rows, accType, total);
+            long startTime = System.currentTimeMillis();
+            long count = retrieveMappings(accType, query, 0, 0);
+            LOGGER.info("Cached {} {} mappings in {} ms", count, accType, System.currentTimeMillis() - startTime);
+        });
+    }
+
+    /**
+     * @param accType
+     * @param query   If null, all mappings of accType are counted
+     * @return The number of ENA search results of accType matching query; -1 if they could not be counted
+     */
+    private long getCount(ENAWsConfigProd.AccessionTypes accType, String query) {
+        UriComponentsBuilder builder = UriComponentsBuilder.newInstance()
+                .scheme(config.getProtocol())
+                .host(config.getHostName())
+                .path("/count")
+                .queryParam("result", ENAWsConfigProd.getReturnObjectType(accType));
+        if (query != null) {
+            builder.queryParam("query", query);
+        }
+        URI uri = builder.build().toUri();
+        try {
+            String count = getRetryTemplate().execute(ctx -> restTemplate.getForObject(uri, String.class));
+            return Long.parseLong(count.trim());
+        } catch (RuntimeException e) {
+            // The results of accType will be retrieved in a single page
+            LOGGER.warn("Failed to count {} mappings: {}", accType, e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Retrieve from ENA one page of the mappings of accType matching query, and add them to ENA_ACCESSION_TO_PROJECT
+     *
+     * @param accType
+     * @param query   If null, all mappings of accType are retrieved
+     * @param offset
+     * @param limit   The maximum number of mappings to retrieve; 0 if all of them are to be retrieved
+     * @return The number of mappings retrieved
+     */
+    private long retrieveMappings(ENAWsConfigProd.AccessionTypes accType, String query, long offset, int limit) {
+        UriComponentsBuilder builder = UriComponentsBuilder.newInstance()
+                .scheme(config.getProtocol())
+                .host(config.getHostName())
+                .path("/search")
+                .queryParam("result", ENAWsConfigProd.getReturnObjectType(accType))
+                .queryParam("fields", ENAWsConfigProd.getAccessionField(accType) + "," + PROJECT_FIELD)
+                .queryParam("limit", limit)
+                .queryParam("format", config.getCacheResponseFormat());
+        if (limit > 0) {
+            // Without an explicit order, the results may be returned in a different order for each page
+            builder.queryParam("offset", offset)
+                    .queryParam("sortFields", ENAWsConfigProd.getAccessionField(accType));
+        }
+        if (query != null) {
+            builder.queryParam("query", query);
+        }
+        URI uri = builder.build().toUri();
+        LOGGER.info("Fetching {}", uri);
+        String postfix = accType == ENAWsConfigProd.AccessionTypes.sequence
+                ? ENAWsConfigProd.getLookupPostfix(accType) : null;
+        MappingConsumer consumer = (accession, projectAccession) -> ENA_ACCESSION_TO_PROJECT.put(
+                postfix != null ? accession.replace(postfix, "") : accession, projectAccession);
+        return restTemplate.execute(uri, HttpMethod.GET, null, response -> {
+            if (config.getCacheResponseFormat() == ENAWsConfigProd.ResponseFormat.tsv) {
+                return readTsvMappings(response.getBody(), ENAWsConfigProd.getAccessionField(accType), consumer);
+            }
+            return readJsonMappings(response.getBody(), ENAWsConfigProd.getAccessionField(accType), consumer);
+        });
+    }
+
+    /**
+     * The progress of the retrieval of the mappings of one accession type
+     */
+    private static final class PopulationStats {
+        private final long startTime = System.currentTimeMillis();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong pages = new AtomicLong();
+        private final AtomicLong lastPageDone = new AtomicLong(startTime);
+
+        void pageDone(long pageRows) {
+            rows.addAndGet(pageRows);
+            pages.incrementAndGet();
+            lastPageDone.accumulateAndGet(System.currentTimeMillis(), Math::max);
+        }
+    }
+
+    interface MappingConsumer {
+        void accept(String accession, String projectAccession);
+    }
+
+    /**
+     * Parse a JSON array of ENA search results one object at a time, passing each mapping between accessionField
+     * and PROJECT_FIELD values to consumer
+     *
+     * @param inputStream
+     * @param accessionField
+     * @param consumer
+     * @return The number of mappings passed to consumer
+     * @throws IOException
+     */
+    static long readJsonMappings(InputStream inputStream, String accessionField, MappingConsumer consumer)
+            throws IOException {
+        long count = 0;
+        try (JsonParser parser = JSON_FACTORY.createParser(inputStream)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                // e.g. an empty response
+                return count;
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                String accession = null;
+                String projectAccession = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    if (field.equals(accessionField)) {
+                        accession = parser.getValueAsString();
+                    } else if (field.equals(PROJECT_FIELD)) {
+                        projectAccession = parser.getValueAsString();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                if (accession != null && !accession.isEmpty() && projectAccession != null
+                        && !projectAccession.isEmpty()) {
+                    consumer.accept(accession, projectAccession);
+                    count++;
+                }
             }
         }
+        return count;
+    }
 
-        for (ENAWsConfigProd.AccessionTypes accType : accType2Url.keySet()) {
-            String url = accType2Url.get(accType);
-            LOGGER.info("Fetching {}", url);
-            for (ENAProjectAccessionMapping pAcc : restTemplate.getForObject(url, ENAProjectAccessionMapping[].class)) {
-                String accessionInCache = accType == ENAWsConfigProd.AccessionTypes.sequence
-                        ? pAcc.getAccession(accType).replace(ENAWsConfigProd.getLookupPostfix(accType), "")
-                        : pAcc.getAccession(accType);
-                ENA_ACCESSION_TO_PROJECT.put(accessionInCache, pAcc.getProjectAccession());
+    /**
+     * Parse tab-separated ENA search results (with a header line) one line at a time, passing each mapping between
+     * accessionField and PROJECT_FIELD values to consumer
+     *
+     * @param inputStream
+     * @param accessionField
+     * @param consumer
+     * @return The number of mappings passed to consumer
+     * @throws IOException
+     */
+    static long readTsvMappings(InputStream inputStream, String accessionField, MappingConsumer consumer)
+            throws IOException {
+        long count = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            String header = reader.readLine();
+            if (header == null) {
+                return count;
+            }
+            List<String> fields = Arrays.asList(header.split("\t"));
+            int accessionColumn = fields.indexOf(accessionField);
+            int projectColumn = fields.indexOf(PROJECT_FIELD);
+            if (accessionColumn < 0 || projectColumn < 0) {
+                throw new IOException("Unexpected ENA search results header: " + header);
             }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] values = line.split("\t");
+                if (values.length > accessionColumn && values.length > projectColumn
+                        && !values[accessionColumn].isEmpty() && !values[projectColumn].isEmpty()) {
+                    consumer.accept(values[accessionColumn], values[projectColumn]);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param enaAccession
+     * @return True if the project accession corresponding to enaAccession can be retrieved without querying ENA
+     */
+    public boolean isCached(String enaAccession) {
+        return enaAccession == null || enaAccession.isEmpty() || ENA_ACCESSION_TO_PROJECT.containsKey(enaAccession)
+                || onDemandAccessionToProject.asMap().containsKey(enaAccession)
+                || ENAAccessionClassifier.isProjectAccession(enaAccession)
+                || ENAAccessionClassifier.getAccessionType(enaAccession) == null;
+    }
+
+    /**
+     * @param enaAccession
+     * @param defaultValue
+     * @return ENA project accession corresponding to enaAccession (null if there is none) if it can be retrieved
+     * without querying ENA; otherwise defaultValue. N.B. Unlike isCached() followed by getProjectAccession(), this
+     * reads the cache once - so an accession evicted from the on-demand cache in between cannot turn into a query
+     */
+    public String getProjectAccessionOrDefault(String enaAccession, String defaultValue) {
+        if (enaAccession == null || enaAccession.isEmpty()) {
+            return null;
+        }
+        String cachedProjectAccession = getCachedProjectAccession(enaAccession);
+        if (cachedProjectAccession != null) {
+            return NULL_VALUE.equals(cachedProjectAccession) ? null : cachedProjectAccession;
         }
-        long estimatedTime = (System.currentTimeMillis() - startTime) / 1000; // secs
-        LOGGER.info("ENA_ACCESSION_TO_PROJECT cache initialised in: " + estimatedTime + " secs");
+        if (ENAAccessionClassifier.isProjectAccession(enaAccession)) {
+            return enaAccession;
+        }
+        return ENAAccessionClassifier.getAccessionType(enaAccession) == null ? null : defaultValue;
     }
 
     /**
@@ -84,31 +478,20 @@ public class ENAWsClient extends WsClient {
      * @return ENA project accession corresponding to enaAccession
      */
     public String getProjectAccession(String enaAccession) {
-        if (enaAccession == null || enaAccession.length() > 0) {
+        if (enaAccession == null || enaAccession.isEmpty()) {
             return null;
         }
 
-        if (ENA_ACCESSION_TO_PROJECT.containsKey(enaAccession)) {
-            if (ENA_ACCESSION_TO_PROJECT.get(enaAccession).equals(NULL_VALUE)) {
-                return null;
-            }
-            return ENA_ACCESSION_TO_PROJECT.get(enaAccession);
-        } else {
-            Matcher mPRJ = enaPattern.matcher(enaAccession);
-            if (mPRJ.matches()) {
-                ENA_ACCESSION_TO_PROJECT.put(enaAccession, enaAccession);
-                return enaAccession;
-            }
+        String cachedProjectAccession = getCachedProjectAccession(enaAccession);
+        if (cachedProjectAccession != null) {
+            return NULL_VALUE.equals(cachedProjectAccession) ? null : cachedProjectAccession;
         }
-        // Find ENAWsConfigProd.AccessionTypes value corresponding to enaAccession
-        ENAWsConfigProd.AccessionTypes accTypeFound = null;
-        for (ENAWsConfigProd.AccessionTypes accType : ENAWsConfigProd.AccessionTypes.values()) {
-            Matcher matcher = ENAWsConfigProd.getRegexPattern(accType).matcher(enaAccession);
-            if (matcher.matches()) {
-                accTypeFound = accType;
-                break;
-            }
+        if (ENAAccessionClassifier.isProjectAccession(enaAccession)) {
+            // N.B. project accessions map to themselves - there is no need to cache them
+            return enaAccession;
         }
+        // Find ENAWsConfigProd.AccessionTypes value corresponding to enaAccession
+        ENAWsConfigProd.AccessionTypes accTypeFound = ENAAccessionClassifier.getAccessionType(enaAccession);
         // Retrieve project accession corresponding to enaAccession of type accTypeFound
         if (accTypeFound != null) {
             UriComponentsBuilder builder = UriComponentsBuilder.newInstance()
@@ -122,7 +505,7 @@ public class ENAWsClient extends WsClient {
                                     accTypeFound == ENAWsConfigProd.AccessionTypes.sequence
                                             ? enaAccession + ENAWsConfigProd.getLookupPostfix(accTypeFound)
                                             : enaAccession))
-                    .queryParam("fields", "study_accession")
+                    .queryParam("fields", PROJECT_FIELD)
                     .queryParam("limit", "1")
                     .queryParam("format", "json");
 
@@ -132,13 +515,122 @@ public class ENAWsClient extends WsClient {
                     ctx -> restTemplate.getForObject(uri, ENAProjectAccessionMapping[].class));
             if (results != null && results.length > 0) {
                 projectAccession = results[0].getProjectAccession();
-                ENA_ACCESSION_TO_PROJECT.put(enaAccession, projectAccession);
-            } else {
-                ENA_ACCESSION_TO_PROJECT.put(enaAccession, NULL_VALUE);
             }
+            onDemandAccessionToProject.put(enaAccession, projectAccession != null ? projectAccession : NULL_VALUE);
             return projectAccession;
         }
 
         return null;
     }
+
+    /**
+     * Retrieve the project accessions corresponding to all enaAccessions, querying ENA for those not cached yet
+     * in batches of up to ENAWsConfigProd.MAX_LOOKUP_BATCH_SIZE accessions of the same type - c.f.
+     * getProjectAccession() for the retrieval of a single accession.
+     * N.B. Submission accessions are still retrieved one by one - because read_study does not return
+     * submission_accession, the results of a batch could not be mapped back to the submission accessions queried.
+     *
+     * @param enaAccessions
+     * @return A map between each of enaAccessions and its corresponding ENA project accession; enaAccessions without
+     * a project accession are not included
+     */
+    public Map<String, String> getProjectAccessions(Collection<String> enaAccessions) {
+        Map<ENAWsConfigProd.AccessionTypes, Set<String>> accTypeToUncached =
+                new EnumMap<>(ENAWsConfigProd.AccessionTypes.class);
+        // N.B. The results retrieved are collected here too, as they may have been evicted from the on-demand
+        // cache by the time they are returned
+        Map<String, String> retrieved = new HashMap<>();
+        for (String enaAccession : enaAccessions) {
+            if (isCached(enaAccession)) {
+                continue;
+            }
+            accTypeToUncached.computeIfAbsent(ENAAccessionClassifier.getAccessionType(enaAccession),
+                    k -> new LinkedHashSet<>())
+                    .add(enaAccession);
+        }
+        for (Map.Entry<ENAWsConfigProd.AccessionTypes, Set<String>> entry : accTypeToUncached.entrySet()) {
+            ENAWsConfigProd.AccessionTypes accType = entry.getKey();
+            if (accType == ENAWsConfigProd.AccessionTypes.submission) {
+                entry.getValue().forEach(this::getProjectAccession);
+                continue;
+            }
+            List<String> batch = new ArrayList<>();
+            for (String enaAccession : entry.getValue()) {
+                batch.add(enaAccession);
+                if (batch.size() == ENAWsConfigProd.MAX_LOOKUP_BATCH_SIZE) {
+                    retrieved.putAll(retrieveProjectAccessions(accType, batch));
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                retrieved.putAll(retrieveProjectAccessions(accType, batch));
+            }
+        }
+        Map<String, String> enaAccessionToProject = new HashMap<>();
+        for (String enaAccession : enaAccessions) {
+            String projectAccession = retrieved.containsKey(enaAccession)
+                    ? retrieved.get(enaAccession) : getProjectAccession(enaAccession);
+            if (projectAccession != null) {
+                enaAccessionToProject.put(enaAccession, projectAccession);
+            }
+        }
+        return enaAccessionToProject;
+    }
+
+    /**
+     * Retrieve from ENA - in a single query - and cache the project accessions corresponding to enaAccessions
+     *
+     * @param accType The type of all enaAccessions
+     * @param enaAccessions
+     * @return A map between each of enaAccessions and its corresponding ENA project accession - null for
+     * enaAccessions without a project accession
+     */
+    private Map<String, String> retrieveProjectAccessions(ENAWsConfigProd.AccessionTypes accType,
+                                                          List<String> enaAccessions) {
+        Map<String, String> enaAccessionToProject = new HashMap<>();
+        String accessionField = ENAWsConfigProd.getAccessionField(accType);
+        String postfix = accType == ENAWsConfigProd.AccessionTypes.sequence
+                ? ENAWsConfigProd.getLookupPostfix(accType) : "";
+        String query = enaAccessions.stream()
+                .map(enaAccession -> String.format("%s=%s%s", accessionField, enaAccession, postfix))
+                .collect(Collectors.joining(" OR ", "(", ")"));
+        UriComponentsBuilder builder = UriComponentsBuilder.newInstance()
+                .scheme(config.getProtocol())
+                .host(config.getHostName())
+                .path("/search")
+                .queryParam("result", ENAWsConfigProd.getReturnObjectType(accType))
+                .queryParam("query", query)
+                .queryParam("fields", accessionField + "," + PROJECT_FIELD)
+                .queryParam("limit", "0")
+                .queryParam("format", "json");
+
+        URI uri = builder.build().toUri();
+        ENAProjectAccessionMapping[] results = getRetryTemplate().execute(
+                ctx -> restTemplate.getForObject(uri, ENAProjectAccessionMapping[].class));
+        if (results != null) {
+            for (ENAProjectAccessionMapping pAcc : results) {
+                String accession = pAcc.getAccession(accType);
+                if (accession != null && pAcc.getProjectAccession() != null) {
+                    enaAccessionToProject.put(postfix.isEmpty() ? accession : accession.replace(postfix, ""),
+                            pAcc.getProjectAccession());
+                }
+            }
+        }
+        for (String enaAccession : enaAccessions) {
+            String projectAccession = enaAccessionToProject.get(enaAccession);
+            onDemandAccessionToProject.put(enaAccession, projectAccession != null ? projectAccession : NULL_VALUE);
+            enaAccessionToProject.putIfAbsent(enaAccession, null);
+        }
+        return enaAccessionToProject;
+    }
+
+    /**
+     * @param enaAccession
+     * @return The ENA project accession corresponding to enaAccession in either tier of the cache - NULL_VALUE if
+     * ENA could not resolve enaAccession; null if enaAccession is not cached
+     */
+    private String getCachedProjectAccession(String enaAccession) {
+        String projectAccession = ENA_ACCESSION_TO_PROJECT.get(enaAccession);
+        return projectAccession != null ? projectAccession : onDemandAccessionToProject.getIfPresent(enaAccession);
+    }
 }
@@ -2,6 +2,7 @@ package uk.ac.ebi.ddi.downloas.ena;
 
 import uk.ac.ebi.ddi.downloas.logs.ElasticSearchWsConfigProd;
 
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -16,6 +17,36 @@ public class ENAWsConfigProd {
 
     private String hostName;
     private String protocol;
+    // The format in which the mappings used to populate ENAWsClient's cache are retrieved
+    private ResponseFormat cacheResponseFormat = ResponseFormat.tsv;
+    // If not null, the file in which ENAWsClient's cache is persisted between runs - c.f. ENACacheSnapshot
+    private Path cacheSnapshotFile;
+    // The number of ENA queries run at the same time when populating ENAWsClient's cache; 1 means one type
+    // of accessions at a time, each retrieved in a single query
+    private int cacheParallelism = DEFAULT_CACHE_PARALLELISM;
+    // The maximum number of results retrieved in a single query when populating ENAWsClient's cache in parallel
+    private int cachePageSize = DEFAULT_CACHE_PAGE_SIZE;
+    // The maximum number of accessions held in ENAWsClient's cache of on-demand lookups
+    private long onDemandCacheSize = DEFAULT_ON_DEMAND_CACHE_SIZE;
+    // The time (in hours) after which an accession looked up on demand is evicted from ENAWsClient's cache
+    private long onDemandCacheTtl = DEFAULT_ON_DEMAND_CACHE_TTL;
+
+    public static final int DEFAULT_CACHE_PARALLELISM = 4;
+    public static final int DEFAULT_CACHE_PAGE_SIZE = 5000000;
+    public static final long DEFAULT_ON_DEMAND_CACHE_SIZE = 500000;
+    public static final long DEFAULT_ON_DEMAND_CACHE_TTL = 24;
+
+    // The number of days before the time of the cache snapshot, from which accessions are retrieved when refreshing it
+    public static final int SNAPSHOT_REFRESH_OVERLAP_DAYS = 1;
+
+    // The maximum number of accessions of the same type looked up in a single ENA query
+    public static final int MAX_LOOKUP_BATCH_SIZE = 100;
+    // The maximum time (in ms) an accession waits for others to be looked up in the same batch
+    public static final long LOOKUP_BATCH_DELAY = 200;
+    // The maximum number of ENA queries run at the same time by each ENAAccessionResolver
+    public static final int MAX_PARALLEL_LOOKUPS = 4;
+    // The maximum time (in ms) the downloads parked by a scroll job wait for their accessions to be resolved
+    public static final long MAX_RESOLUTION_WAIT = 600000; // ms = 10 mins
 
     public ENAWsConfigProd(String protocol, String hostName) {
         this.hostName = hostName;
@@ -42,6 +73,59 @@ public class ENAWsConfigProd {
         return protocol;
     }
 
+    public ResponseFormat getCacheResponseFormat() {
+        return cacheResponseFormat;
+    }
+
+    public void setCacheResponseFormat(ResponseFormat cacheResponseFormat) {
+        this.cacheResponseFormat = cacheResponseFormat;
+    }
+
+    public Path getCacheSnapshotFile() {
+        return cacheSnapshotFile;
+    }
+
+    public void setCacheSnapshotFile(Path cacheSnapshotFile) {
+        this.cacheSnapshotFile = cacheSnapshotFile;
+    }
+
+    public int getCacheParallelism() {
+        return cacheParallelism;
+    }
+
+    public void setCacheParallelism(int cacheParallelism) {
+        this.cacheParallelism = cacheParallelism;
+    }
+
+    public int getCachePageSize() {
+        return cachePageSize;
+    }
+
+    public void setCachePageSize(int cachePageSize) {
+        this.cachePageSize = cachePageSize;
+    }
+
+    public long getOnDemandCacheSize() {
+        return onDemandCacheSize;
+    }
+
+    public void setOnDemandCacheSize(long onDemandCacheSize) {
+        this.onDemandCacheSize = onDemandCacheSize;
+    }
+
+    public long getOnDemandCacheTtl() {
+        return onDemandCacheTtl;
+    }
+
+    public void setOnDemandCacheTtl(long onDemandCacheTtl) {
+        this.onDemandCacheTtl = onDemandCacheTtl;
+    }
+
+    // Formats of ENA portal API search results
+    public enum ResponseFormat {
+        json, tsv
+    }
+
     // Config for different types of ENA accessions
     public enum AccessionTypes {
         study_experiment_run, analysis, submission, assembly, sequence
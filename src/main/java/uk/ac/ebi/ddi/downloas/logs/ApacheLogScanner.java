@@ -0,0 +1,227 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Scans Apache access log files for the lines containing a marker, e.g. download/MODEL. Each file is read through
+ * a FileChannel into a large direct buffer, and searched for the marker as bytes (Boyer-Moore-Horspool, so that most
+ * bytes are skipped without being read) - only the lines containing it are decoded (as UTF-8) into Strings; all the
+ * other lines are skipped without being decoded or even split into lines.
+ * N.B. Not thread-safe - the buffers are reused from one file to the next.
+ */
+public class ApacheLogScanner {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 22;
+
+    private static final byte NEW_LINE = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+
+    private final byte[] marker;
+    // The distance by which the search for marker can be shifted, by the byte aligned with the end of marker
+    private final int[] shifts = new int[256];
+    private ByteBuffer buffer;
+    // A view of buffer, used to copy out the lines containing marker without disturbing buffer's position
+    private ByteBuffer view;
+    private byte[] lineBytes = new byte[1024];
+
+    /**
+     * @param marker     The text the lines passed on must contain
+     * @param bufferSize The initial size of the read buffer; it is grown to fit lines longer than that
+     */
+    public ApacheLogScanner(String marker, int bufferSize) {
+        this.marker = marker.getBytes(StandardCharsets.UTF_8);
+        Arrays.fill(shifts, this.marker.length);
+        for (int i = 0; i < this.marker.length - 1; i++) {
+            shifts[this.marker[i] & 0xff] = this.marker.length - 1 - i;
+        }
+        setBuffer(ByteBuffer.allocateDirect(bufferSize));
+    }
+
+    public ApacheLogScanner(String marker) {
+        this(marker, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Pass each line of file containing marker to lineConsumer, in the order in which they appear in file
+     *
+     * @param file
+     * @param lineConsumer Receives each line without its line terminator
+     * @throws IOException
+     */
+    public void scan(Path file, Consumer<String> lineConsumer) throws IOException {
+        scan(file, 0, Long.MAX_VALUE, false, lineConsumer);
+    }
+
+    /**
+     * Pass each line of file that starts between from (inclusive) and to (exclusive), and contains marker, to
+     * lineConsumer - so that scanning consecutive byte ranges of file passes on each line exactly once.
+     * N.B. The last line passed on may end after to
+     *
+     * @param file
+     * @param from              A byte offset in file
+     * @param to                A byte offset in file, greater than from
+     * @param completeLinesOnly If true, a last line of file without a line terminator - e.g. one still being
+     *                          written - is not scanned
+     * @param lineConsumer      Receives each line without its line terminator
+     * @return The byte offset in file following the last line scanned
+     * @throws IOException
+     */
+    public long scan(Path file, long from, long to, boolean completeLinesOnly, Consumer<String> lineConsumer)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            // The byte offset in file of the start of buffer. Unless from is 0, the scan starts from the byte
+            // preceding from - if that is a line terminator, the line starting at from is the first one passed on
+            long offset = from > 0 ? from - 1 : 0;
+            channel.position(offset);
+            boolean skipFirstLine = from > 0;
+            boolean done = false;
+            while (!done) {
+                boolean eof = channel.read(buffer) < 0;
+                int limit = buffer.position();
+                int start = 0;
+                if (skipFirstLine) {
+                    // Skip the rest of the line starting before from, which belongs to the preceding byte range
+                    start = indexOf(NEW_LINE, 0, limit) + 1;
+                    if (start == 0) {
+                        if (eof) {
+                            return completeLinesOnly ? offset : offset + limit;
+                        }
+                        offset += limit;
+                        buffer.clear();
+                        continue;
+                    }
+                    if (offset + start >= to) {
+                        return offset + start;
+                    }
+                    skipFirstLine = false;
+                }
+                // Only complete lines are scanned; the incomplete last line is carried over to the next read
+                int end = eof && !completeLinesOnly ? limit : lastIndexOf(NEW_LINE, start, limit) + 1;
+                done = eof;
+                if (to - offset <= limit) {
+                    // The last line to be scanned is the one containing the byte preceding to
+                    int lastNewLine = indexOf(NEW_LINE, Math.max(start, (int) (to - offset) - 1), limit);
+                    if (lastNewLine >= 0) {
+                        end = lastNewLine + 1;
+                        done = true;
+                    }
+                }
+                if (end == 0 && !done && limit == buffer.capacity()) {
+                    // A line longer than the buffer
+                    grow();
+                    continue;
+                }
+                scanLines(start, end, lineConsumer);
+                buffer.limit(limit);
+                buffer.position(end);
+                buffer.compact();
+                offset += end;
+            }
+            return offset;
+        }
+    }
+
+    /**
+     * Pass each line containing marker between start and end of buffer to lineConsumer
+     */
+    private void scanLines(int start, int end, Consumer<String> lineConsumer) {
+        int from = start;
+        while (from < end) {
+            int markerIndex = indexOfMarker(from, end);
+            if (markerIndex < 0) {
+                break;
+            }
+            int lineStart = lastIndexOf(NEW_LINE, from, markerIndex) + 1;
+            int lineEnd = indexOf(NEW_LINE, markerIndex + marker.length, end);
+            int next = lineEnd + 1;
+            if (lineEnd < 0) {
+                lineEnd = end;
+                next = end;
+            }
+            if (lineEnd > lineStart && buffer.get(lineEnd - 1) == CARRIAGE_RETURN) {
+                lineEnd--;
+            }
+            lineConsumer.accept(decode(lineStart, lineEnd));
+            from = next;
+        }
+    }
+
+    private String decode(int start, int end) {
+        int length = end - start;
+        if (lineBytes.length < length) {
+            lineBytes = new byte[Math.max(length, lineBytes.length * 2)];
+        }
+        view.limit(end);
+        view.position(start);
+        view.get(lineBytes, 0, length);
+        return new String(lineBytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The index of the first occurrence of marker in buffer between from and end; -1 if there is none
+     */
+    private int indexOfMarker(int from, int end) {
+        int lastIndex = marker.length - 1;
+        byte lastByte = marker[lastIndex];
+        int i = from + lastIndex;
+        while (i < end) {
+            byte b = buffer.get(i);
+            if (b == lastByte) {
+                int start = i - lastIndex;
+                int j = 0;
+                while (j < lastIndex && buffer.get(start + j) == marker[j]) {
+                    j++;
+                }
+                if (j == lastIndex) {
+                    return start;
+                }
+            }
+            i += shifts[b & 0xff];
+        }
+        return -1;
+    }
+
+    /**
+     * @return The index of the first b in buffer between from and end; -1 if there is none
+     */
+    private int indexOf(byte b, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The index of the last b in buffer between from and end; from - 1 if there is none
+     */
+    private int lastIndexOf(byte b, int from, int end) {
+        for (int i = end - 1; i >= from; i--) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return from - 1;
+    }
+
+    private void grow() {
+        ByteBuffer grown = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+        buffer.flip();
+        grown.put(buffer);
+        setBuffer(grown);
+    }
+
+    private void setBuffer(ByteBuffer buffer) {
+        this.buffer = buffer;
+        view = buffer.duplicate();
+    }
+}
@@ -1,18 +1,37 @@
 package uk.ac.ebi.ddi.downloas.logs;
 
 
-import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ddi.downloas.utils.DateUtils;
 
 import java.io.*;
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Calendar;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -25,17 +44,25 @@ import java.util.regex.Pattern;
 public class ApacheLogsFileClient {
     private static final Logger LOGGER = LoggerFactory.getLogger(ApacheLogsFileClient.class);
     private ApacheLogsFileConfigProd config;
+    private final IPAddressAnonymiser anonymiser =
+            new IPAddressAnonymiser(ApacheLogsFileConfigProd.ANONYMISED_IP_ADDRESS_CACHE_SIZE);
 
-    // Hashmap for storing results aggregated by period (yyyy/mm)
-    private static final Map<ApacheLogsFileConfigProd.DB, Map<String, Map<String, Map<String, Multiset<String>>>>>
-            DB_TO_ACCESSION_TO_PERIOD_TO_ANONYMISED_IP_ADDRESS_TO_FILE_NAME =
-            new HashMap<ApacheLogsFileConfigProd.DB, Map<String, Map<String, Map<String, Multiset<String>>>>>() {
-                {
-                    for (ApacheLogsFileConfigProd.DB db : ApacheLogsFileConfigProd.DB.values()) {
-                        put(db, new HashMap<>());
-                    }
-                }
-            };
+    // The aggregated results - by DB, accession, period (c.f. PeriodGranularity), anonymised IP address and file name
+    private static final DownloadsStore<ApacheLogsFileConfigProd.DB> DB_DATA =
+            new ConcurrentDownloadsStore<>(ApacheLogsFileConfigProd.DB.class);
+    // A map between the path of each log file ingested into DB_DATA so far and its checkpoint - maintained only if
+    // log files are ingested incrementally (c.f. ApacheLogsFileConfigProd.getIngestionStateFile())
+    private static final Map<String, ApacheLogsIngestionState.Checkpoint> CHECKPOINTS = new HashMap<>();
+    private static boolean ingestionStateLoaded;
+    // The paths of the log files ingested into DB_DATA so far - maintained only if log files are not ingested
+    // incrementally
+    private static final Set<String> INGESTED_LOG_FILES = new HashSet<>();
+    // The months whose downloads have all been added to DB_DATA - and saved to the snapshot file
+    // (c.f. ApacheLogsFileConfigProd.getSnapshotFile()) - once a snapshot has been loaded
+    private static Set<String> snapshotMonths;
+
+    private static final Pattern LOG_FILE_NAME_PATTERN = Pattern.compile(ApacheLogsFileConfigProd.LOGFILENAME_PREFIX
+            + ApacheLogsFileConfigProd.LOGFILENAME_DATE_REGEX + ApacheLogsFileConfigProd.LOGFILENAME_POSTFIX);
 
     /**
      * Constructor
@@ -50,26 +77,16 @@ public class ApacheLogsFileClient {
      * @param db
      * @param accession
      * @return For a given database, dataset accession and a year (represented by yearLocalDate),
-     * return a Map between each Period (yyyy/mm) and a map of anonymised IP addresses pointing Multisets
-     * of their corresponding file names/download counts
+     * return a Map between each Period (yyyy/mm by default - c.f. PeriodGranularity) and a map of anonymised
+     * IP addresses pointing Multisets of their corresponding file names/download counts
      */
     public Map<String, Map<String, Multiset<String>>> getDataDownloads(ApacheLogsFileConfigProd.DB db,
                                                                        String accession) {
-        Map<String, Map<String, Multiset<String>>> anonymisedIPAddressToFileNames = null;
         retrieveAllDataFromApacheLogs();
-        if (DB_TO_ACCESSION_TO_PERIOD_TO_ANONYMISED_IP_ADDRESS_TO_FILE_NAME.containsKey(db)) {
-            Map<String, Map<String, Map<String, Multiset<String>>>> accessionToPeriodToAnonymisedIPAddressToFileName =
-                    DB_TO_ACCESSION_TO_PERIOD_TO_ANONYMISED_IP_ADDRESS_TO_FILE_NAME.get(db);
-            if (accessionToPeriodToAnonymisedIPAddressToFileName.containsKey(accession)) {
-                anonymisedIPAddressToFileNames =
-                        DB_TO_ACCESSION_TO_PERIOD_TO_ANONYMISED_IP_ADDRESS_TO_FILE_NAME.get(db).get(accession);
-            } else {
-                LOGGER.warn("No accession: '" + accession + "' could be found in the data retrieved for db: '"
-                        + db.toString() + "'from Apache access LOGGER files");
-            }
-        } else {
-            LOGGER.warn("No db: '" + db.toString()
-                    + "' could be found in the data retrieved from Apache access LOGGER files");
+        Map<String, Map<String, Multiset<String>>> anonymisedIPAddressToFileNames = DB_DATA.get(db, accession);
+        if (anonymisedIPAddressToFileNames == null) {
+            LOGGER.warn("No accession: '" + accession + "' could be found in the data retrieved for db: '"
+                    + db.toString() + "'from Apache access LOGGER files");
         }
         return anonymisedIPAddressToFileNames;
     }
@@ -77,149 +94,714 @@ public class ApacheLogsFileClient {
     /**
      * @return False if for at least one DB no data downloads are present; otherwise return True
      */
-    private boolean resultsReady() {
-        boolean resultsReady = true;
-        for (ApacheLogsFileConfigProd.DB db :
-                DB_TO_ACCESSION_TO_PERIOD_TO_ANONYMISED_IP_ADDRESS_TO_FILE_NAME.keySet()) {
-            resultsReady = !DB_TO_ACCESSION_TO_PERIOD_TO_ANONYMISED_IP_ADDRESS_TO_FILE_NAME.get(db).isEmpty();
-            if (!resultsReady) {
-                break;
+    private static boolean resultsReady() {
+        for (ApacheLogsFileConfigProd.DB db : ApacheLogsFileConfigProd.DB.values()) {
+            if (DB_DATA.isEmpty(db)) {
+                return false;
             }
         }
-        return resultsReady;
+        return true;
     }
 
     /**
      * Function to retrieve all relevant data download entries for the current year from Apache access LOGGER files,
-     * and aggregate them in the static dbToAccessionToPeriodToFileName data structure
+     * and aggregate them in the static DB_DATA data structure
      */
     private void retrieveAllDataFromApacheLogs() {
-        if (!resultsReady()) {
-            for (ApacheLogsFileConfigProd.DB db : ApacheLogsFileConfigProd.DB.values()) {
-                String pattern = ApacheLogsFileConfigProd.DB_2_REGEX.get(db).get(ApacheLogsFileConfigProd.FIELD.Regex);
-                Pattern r = Pattern.compile(pattern);
-                int currentYear = Calendar.getInstance().getWeekYear();
-                File path = new File(ApacheLogsFileConfigProd.DB_2_REGEX.get(db)
-                        .get(ApacheLogsFileConfigProd.FIELD.LogsDir));
-
-                FilenameFilter filter = new FilenameFilter() {
-                    public boolean accept(File directory, String fileName) {
-                        return fileName.matches(ApacheLogsFileConfigProd.LOGFILENAME_PREFIX
-                                + currentYear + ApacheLogsFileConfigProd.LOGFILENAME_POSTFIX);
+        synchronized (DB_DATA) {
+            if (config.getIngestionStateFile() != null) {
+                if (!ingestionStateLoaded) {
+                    refresh();
+                }
+            } else if (!resultsReady()) {
+                LocalDate today = LocalDate.now();
+                initialiseData(today.withDayOfYear(1), today);
+            }
+        }
+    }
+
+    /**
+     * Retrieve all data download entries from the log files - of all DBs - started between from and to
+     * (c.f. getLogFileDate()), and add them to the aggregated results. Log files ingested by previous calls
+     * are not ingested again, so that several years can be backfilled - or overlapping time ranges requested -
+     * without double-counting any downloads; if log files are ingested incrementally, only the tails added since
+     * they were last ingested are. Otherwise, if a snapshot file is configured, the downloads of the complete months
+     * in it are loaded instead of ingesting their log files again, and those of the months completed since are saved
+     * to it.
+     *
+     * @param from
+     * @param to
+     */
+    public void initialiseData(Date from, Date to) {
+        initialiseData(DateUtils.toLocalDate(from), DateUtils.toLocalDate(to));
+    }
+
+    private void initialiseData(LocalDate from, LocalDate to) {
+        synchronized (DB_DATA) {
+            Map<ApacheLogsFileConfigProd.DB, List<File>> dbToFiles = getLogFiles(from, to);
+            if (config.getIngestionStateFile() != null) {
+                refresh(dbToFiles);
+                return;
+            }
+            Path snapshotFile = DownloadsSnapshot.supports(config.getPeriodGranularity())
+                    ? config.getSnapshotFile() : null;
+            Set<String> months = snapshotFile != null ? loadSnapshot(snapshotFile) : Collections.emptySet();
+            int fileCount = 0;
+            for (List<File> files : dbToFiles.values()) {
+                files.removeIf(file -> months.contains(getLogFileMonth(file))
+                        || INGESTED_LOG_FILES.contains(file.getAbsolutePath()));
+                fileCount += files.size();
+            }
+            LOGGER.info("Ingesting {} Apache log files started between {} and {}", fileCount, from, to);
+            Set<File> failedFiles = new HashSet<>();
+            // N.B. Entries of the months in the snapshot may still be found at the start or end of the log files
+            // of adjacent months
+            DownloadsSnapshot.addAll(DB_DATA, retrieveDataFromApacheLogs(dbToFiles, failedFiles), months);
+            // N.B. None of the entries of the log files that failed to be ingested have been aggregated, so they are
+            // ingested again by the next call
+            for (List<File> files : dbToFiles.values()) {
+                for (File file : files) {
+                    if (!failedFiles.contains(file)) {
+                        INGESTED_LOG_FILES.add(file.getAbsolutePath());
                     }
-                };
-                File[] files = path.listFiles(filter);
-                for (int i = 0; i < files.length; i++) {
-                    if (files[i].isFile()) { //this line weeds out other directories/folders
-                        String period = getYearMonth(files[i].getName());
-                        try {
-                            BufferedReader reader = new BufferedReader(new FileReader(files[i]));
-                            String line;
-                            while ((line = reader.readLine()) != null) {
-                                Matcher m = r.matcher(line);
-                                while (m.find()) {
-                                    String anonymisedIPAddress = getMd5(line.split("\\s+")[0]);
-                                    String[] downloadPathArr = m.group(0).split("/");
-                                    String[] downloadEntryArr =
-                                            downloadPathArr[downloadPathArr.length - 1].split("\\?filename=");
-                                    String accession = downloadEntryArr[0].split("\\.")[0];
-                                    String fileName = downloadEntryArr[1].split("\\&")[0];
-                                    addToResults(db, accession, period, anonymisedIPAddress, fileName);
-                                }
-                            }
-                        } catch (IOException ex) {
-                            LOGGER.error("Exception occurred, db:  {}", db, ex);
-                        }
+                }
+            }
+            if (snapshotFile != null) {
+                ZoneId zone = ZoneId.systemDefault();
+                Set<String> completeMonths = DownloadsSnapshot.getCompleteMonths(from.atStartOfDay(zone).toInstant(),
+                        to.plusDays(1).atStartOfDay(zone).toInstant().minusMillis(1), Instant.now(), zone);
+                if (months.addAll(completeMonths)) {
+                    saveSnapshot(snapshotFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Load the downloads in snapshotFile into DB_DATA, unless a snapshot has already been loaded
+     *
+     * @param snapshotFile
+     * @return The months whose downloads have all been added to DB_DATA - from snapshotFile or since
+     */
+    private Set<String> loadSnapshot(Path snapshotFile) {
+        if (snapshotMonths == null) {
+            snapshotMonths = new TreeSet<>();
+            if (Files.isRegularFile(snapshotFile)) {
+                long startTime = System.currentTimeMillis();
+                // N.B. The snapshot is only added to DB_DATA once all of it has been read
+                DownloadsStore<ApacheLogsFileConfigProd.DB> snapshot =
+                        new ConcurrentDownloadsStore<>(ApacheLogsFileConfigProd.DB.class);
+                try {
+                    snapshotMonths.addAll(DownloadsSnapshot.read(snapshotFile, ApacheLogsFileConfigProd.DB.class,
+                            config.getPeriodGranularity(), snapshot));
+                    DB_DATA.addAll(snapshot);
+                    LOGGER.info("Loaded the downloads of {} months from {} in {} ms", snapshotMonths.size(),
+                            snapshotFile, System.currentTimeMillis() - startTime);
+                } catch (IOException e) {
+                    snapshotMonths.clear();
+                    LOGGER.warn("Failed to load downloads snapshot - rebuilding it: {}", e.getMessage());
+                }
+            } else {
+                LOGGER.info("No downloads snapshot found in {} - rebuilding it", snapshotFile);
+            }
+        }
+        return snapshotMonths;
+    }
+
+    /**
+     * Save the downloads of the months in snapshotMonths to snapshotFile
+     *
+     * @param snapshotFile
+     */
+    private void saveSnapshot(Path snapshotFile) {
+        try {
+            int rows = DownloadsSnapshot.write(snapshotFile, config.getPeriodGranularity(), DB_DATA, snapshotMonths);
+            LOGGER.info("Saved {} downloads of {} months to {}", rows, snapshotMonths.size(), snapshotFile);
+        } catch (IOException e) {
+            LOGGER.error("Failed to save downloads snapshot to {}", snapshotFile, e);
+        }
+    }
+
+    /**
+     * @param file A log file
+     * @return The month (yyyy/mm) file was started in
+     */
+    static String getLogFileMonth(File file) {
+        return DownloadsSnapshot.getMonth(YearMonth.from(getLogFileDate(file.getName())));
+    }
+
+    /**
+     * Ingest the log files - or the tails of log files - added since they were last ingested, as recorded in
+     * config.getIngestionStateFile(), into the aggregated results; then record the new checkpoints, together with
+     * the aggregated results, in config.getIngestionStateFile()
+     *
+     * @throws IllegalStateException If log files are not ingested incrementally, i.e. no ingestion state file
+     *                               is configured
+     */
+    public void refresh() {
+        LocalDate today = LocalDate.now();
+        synchronized (DB_DATA) {
+            loadIngestionState();
+            refresh(getLogFiles(getRefreshStart(CHECKPOINTS, today), today));
+        }
+    }
+
+    /**
+     * The latest log file checkpointed in each directory may still have been written to since, even if it was
+     * started last year - e.g. on the first refresh of January, that of 31 December
+     *
+     * @param checkpoints A map between the path of each log file ingested so far and its checkpoint
+     * @param today
+     * @return The date from which the log files are to be refreshed: the earliest start date of the latest log file
+     * checkpointed in each directory, unless the start of the year of today is earlier
+     */
+    static LocalDate getRefreshStart(Map<String, ApacheLogsIngestionState.Checkpoint> checkpoints, LocalDate today) {
+        Map<String, LocalDate> dirToLatestDate = new HashMap<>();
+        for (String path : checkpoints.keySet()) {
+            File file = new File(path);
+            LocalDate date = getLogFileDate(file.getName());
+            if (date != null) {
+                dirToLatestDate.merge(String.valueOf(file.getParent()), date,
+                        (date1, date2) -> date1.isAfter(date2) ? date1 : date2);
+            }
+        }
+        LocalDate from = today.withDayOfYear(1);
+        for (LocalDate date : dirToLatestDate.values()) {
+            if (date.isBefore(from)) {
+                from = date;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Load the checkpoints and downloads in config.getIngestionStateFile() into CHECKPOINTS and DB_DATA, unless
+     * they have already been loaded
+     *
+     * @throws IllegalStateException If no ingestion state file is configured, or it cannot be loaded
+     */
+    private void loadIngestionState() {
+        Path stateFile = config.getIngestionStateFile();
+        if (stateFile == null) {
+            throw new IllegalStateException("No ingestion state file is configured");
+        }
+        synchronized (DB_DATA) {
+            if (!ingestionStateLoaded) {
+                if (Files.exists(stateFile)) {
+                    try {
+                        ApacheLogsIngestionState.read(stateFile, CHECKPOINTS, DB_DATA);
+                        LOGGER.info("Loaded the ingestion state of {} Apache log files from {}",
+                                CHECKPOINTS.size(), stateFile);
+                    } catch (IOException ex) {
+                        // N.B. Some downloads may have been loaded already - ingesting all log files again
+                        // would double-count them
+                        throw new IllegalStateException("Failed to load ingestion state from " + stateFile, ex);
                     }
                 }
+                ingestionStateLoaded = true;
+            }
+        }
+    }
+
+    /**
+     * @param dbToFiles The log files to be refreshed, of each DB
+     */
+    private void refresh(Map<ApacheLogsFileConfigProd.DB, List<File>> dbToFiles) {
+        Path stateFile = config.getIngestionStateFile();
+        synchronized (DB_DATA) {
+            loadIngestionState();
+            int ingested = refresh(dbToFiles, CHECKPOINTS, DB_DATA);
+            LOGGER.info("Ingested new entries from {} Apache log files", ingested);
+            try {
+                ApacheLogsIngestionState.write(stateFile, CHECKPOINTS, DB_DATA);
+            } catch (IOException ex) {
+                LOGGER.error("Exception occurred while saving the ingestion state to {}", stateFile, ex);
+            }
+        }
+    }
+
+    /**
+     * Ingest the log files in dbToFiles - or their tails - added since the checkpoints in checkpoints into downloads,
+     * and update checkpoints accordingly. Only complete lines are ingested, so that the last line of a log file still
+     * being written is ingested by the next refresh.
+     * N.B. A log file that has been replaced or truncated since its checkpoint is not ingested again, as its
+     * previous contribution cannot be told apart from the other downloads - and would be double-counted; it is
+     * reported, and keeps its checkpoint. A log file that fails to be ingested keeps its checkpoint, none of its
+     * new entries being added to downloads, so that the next refresh ingests them
+     *
+     * @param dbToFiles   The log files of each DB
+     * @param checkpoints A map between the path of each log file ingested so far and its checkpoint
+     * @param downloads
+     * @return The number of log files from which new entries were ingested
+     */
+    int refresh(Map<ApacheLogsFileConfigProd.DB, List<File>> dbToFiles,
+                Map<String, ApacheLogsIngestionState.Checkpoint> checkpoints,
+                DownloadsStore<ApacheLogsFileConfigProd.DB> downloads) {
+        List<LogChunk> chunks = new ArrayList<>();
+        Map<File, BasicFileAttributes> fileToAttributes = new HashMap<>();
+        for (Map.Entry<ApacheLogsFileConfigProd.DB, List<File>> entry : dbToFiles.entrySet()) {
+            ApacheLogsFileConfigProd.DB db = entry.getKey();
+            Pattern r = getRegex(db);
+            for (File file : entry.getValue()) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                } catch (IOException ex) {
+                    LOGGER.error("Exception occurred, db:  {}", db, ex);
+                    continue;
+                }
+                String fileKey = getFileKey(attributes);
+                ApacheLogsIngestionState.Checkpoint checkpoint = checkpoints.get(file.getAbsolutePath());
+                long from = 0;
+                if (checkpoint != null) {
+                    if (checkpoint.isUnchanged(fileKey, attributes.size(), attributes.lastModifiedTime().toMillis())) {
+                        continue;
+                    } else if (checkpoint.isContinuedBy(fileKey, attributes.size())) {
+                        from = checkpoint.getOffset();
+                    } else {
+                        LOGGER.error("{} has been replaced or truncated since it was last ingested - skipping it, "
+                                + "as its downloads up to offset {} have already been counted; remove the "
+                                + "ingestion state to ingest all log files again", file, checkpoint.getOffset());
+                        continue;
+                    }
+                }
+                // N.B. Each file is processed as a single chunk, so that it is checkpointed only if all of it
+                // has been processed successfully
+                chunks.add(new LogChunk(db, r, file, getLogFileMonth(file), from, Long.MAX_VALUE));
+                fileToAttributes.put(file, attributes);
+            }
+        }
+        Map<File, Long> fileToOffset = new HashMap<>();
+        downloads.addAll(processChunksInParallel(chunks, fileToOffset, new HashSet<>()));
+        fileToOffset.forEach((file, offset) -> {
+            BasicFileAttributes attributes = fileToAttributes.get(file);
+            checkpoints.put(file.getAbsolutePath(), new ApacheLogsIngestionState.Checkpoint(getFileKey(attributes),
+                    attributes.size(), offset, attributes.lastModifiedTime().toMillis()));
+        });
+        return fileToOffset.size();
+    }
+
+    /**
+     * @param from
+     * @param to
+     * @return The log files of each DB started between from and to
+     */
+    private static Map<ApacheLogsFileConfigProd.DB, List<File>> getLogFiles(LocalDate from, LocalDate to) {
+        Map<ApacheLogsFileConfigProd.DB, List<File>> dbToFiles = new EnumMap<>(ApacheLogsFileConfigProd.DB.class);
+        for (ApacheLogsFileConfigProd.DB db : ApacheLogsFileConfigProd.DB.values()) {
+            File path = new File(ApacheLogsFileConfigProd.DB_2_REGEX.get(db)
+                    .get(ApacheLogsFileConfigProd.FIELD.LogsDir));
+            dbToFiles.put(db, getLogFiles(path, from, to));
+        }
+        return dbToFiles;
+    }
+
+    /**
+     * @param dir
+     * @param from
+     * @param to
+     * @return The log files in dir started between from and to
+     */
+    static List<File> getLogFiles(File dir, LocalDate from, LocalDate to) {
+        File[] files = dir.listFiles((directory, fileName) -> {
+            LocalDate date = getLogFileDate(fileName);
+            return date != null && !date.isBefore(from) && !date.isAfter(to);
+        });
+        List<File> logFiles = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile()) { //this line weeds out other directories/folders
+                    logFiles.add(file);
+                }
             }
+        }
+        return logFiles;
+    }
 
+    /**
+     * @param fileName The name of an Apache access log file, e.g. access_2018-10-01.log
+     * @return The date the log file was started on - the first day of its month if fileName contains no day;
+     * null if fileName is not the name of a log file
+     */
+    static LocalDate getLogFileDate(String fileName) {
+        Matcher m = LOG_FILE_NAME_PATTERN.matcher(fileName);
+        if (!m.matches()) {
+            return null;
+        }
+        try {
+            return LocalDate.of(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)),
+                    m.group(3) == null ? 1 : Integer.parseInt(m.group(3)));
+        } catch (DateTimeException ex) {
+            LOGGER.warn("Invalid date in log file name: {}", fileName);
+            return null;
         }
     }
 
+    /**
+     * @param attributes
+     * @return The identity (e.g. device and inode) of the file with attributes; empty if it has none
+     */
+    private static String getFileKey(BasicFileAttributes attributes) {
+        return attributes.fileKey() == null ? "" : attributes.fileKey().toString();
+    }
+
+    private static Pattern getRegex(ApacheLogsFileConfigProd.DB db) {
+        return Pattern.compile(ApacheLogsFileConfigProd.DB_2_REGEX.get(db).get(ApacheLogsFileConfigProd.FIELD.Regex));
+    }
 
     /**
-     * @param apacheAccessLogFileName
-     * @return Date String in format: yyyy/mm retrieved from source
+     * Retrieve all relevant data download entries from the log files in dbToFiles. The log files - or, when
+     * scanned via ApacheLogScanner, the byte ranges of config.getSplitSize() bytes they are split into - are
+     * processed by config.getParallelism() workers, each of which aggregates the entries it parses into its own
+     * partial results; the partial results are merged once all workers have finished.
+     *
+     * @param dbToFiles   The log files of each DB
+     * @param failedFiles The log files that failed to be ingested are added here - none of their entries are
+     *                    included in the results
+     * @return The aggregated data download entries
      */
-    private static String getYearMonth(String apacheAccessLogFileName) {
-        String[] dateArr = apacheAccessLogFileName.replace("access_", "").split("-");
-        return dateArr[0] + "/" + dateArr[1];
+    DownloadsStore<ApacheLogsFileConfigProd.DB> retrieveDataFromApacheLogs(
+            Map<ApacheLogsFileConfigProd.DB, List<File>> dbToFiles, Set<File> failedFiles) {
+        return processChunksInParallel(getChunks(dbToFiles), null, failedFiles);
     }
 
     /**
-     * Add argument values to the aggregated results in dbToAccessionToDateToFileName
+     * Process chunks on config.getParallelism() workers, each of which aggregates the entries it parses into its
+     * own partial results, and merge the partial results once all workers have finished. Chunks that fail to be
+     * processed do not hold up the others; the files they belong to are reported in failedFiles, and none of the
+     * entries of those files are included in the results
      *
-     * @param db
-     * @param accession
-     * @param period
-     * @param fileName
-     */
-
-    private static void addToResults(ApacheLogsFileConfigProd.DB db, String accession, String period,
-                                     String anonymisedIPAddress, String fileName) {
-        if (!DB_TO_ACCESSION_TO_PERIOD_TO_ANONYMISED_IP_ADDRESS_TO_FILE_NAME.get(db).containsKey(accession)) {
-            // We haven't seen this accession before
-            Map<String, Map<String, Multiset<String>>> periodToAnonymisedIPAddressToFileNames = new HashMap<>();
-            Map<String, Multiset<String>> anonymisedIPAddressToFileNames = new HashMap<>();
-            // N.B. We use Multiset to maintain counts per individual download file
-            anonymisedIPAddressToFileNames.put(anonymisedIPAddress, HashMultiset.<String>create());
-            anonymisedIPAddressToFileNames.get(anonymisedIPAddress).add(fileName);
-            periodToAnonymisedIPAddressToFileNames.put(period, anonymisedIPAddressToFileNames);
-            DB_TO_ACCESSION_TO_PERIOD_TO_ANONYMISED_IP_ADDRESS_TO_FILE_NAME.get(db)
-                    .put(accession, periodToAnonymisedIPAddressToFileNames);
+     * @param chunkList
+     * @param fileToOffset If not null, chunks are processed incrementally, and the byte offset following the last
+     *                     line processed of each file is recorded here - c.f. processChunks()
+     * @param failedFiles  The files of the chunks that failed to be processed are added here
+     * @return The aggregated data download entries
+     * @throws IllegalStateException If a worker could not complete, or the current thread is interrupted - in which
+     *                               case it is not known which files have been processed
+     */
+    private DownloadsStore<ApacheLogsFileConfigProd.DB> processChunksInParallel(List<LogChunk> chunkList,
+                                                                                Map<File, Long> fileToOffset,
+                                                                                Set<File> failedFiles) {
+        Map<File, Integer> fileToChunkCount = new HashMap<>();
+        for (LogChunk chunk : chunkList) {
+            fileToChunkCount.merge(chunk.file, 1, Integer::sum);
+        }
+        Queue<LogChunk> chunks = new ConcurrentLinkedQueue<>(chunkList);
+        int workers = Math.max(1, Math.min(config.getParallelism(), chunks.size()));
+        ChunkResults results;
+        if (workers == 1) {
+            results = processChunks(chunks, fileToOffset != null, fileToChunkCount);
         } else {
-            // We've seen this accession before
-            if (!DB_TO_ACCESSION_TO_PERIOD_TO_ANONYMISED_IP_ADDRESS_TO_FILE_NAME.get(db)
-                    .get(accession).containsKey(period)) {
-                // We haven't seen this period for this accession before
-                Map<String, Multiset<String>> anonymisedIPAddressToFileNames = new HashMap<>();
-                anonymisedIPAddressToFileNames.put(anonymisedIPAddress, HashMultiset.<String>create());
-                DB_TO_ACCESSION_TO_PERIOD_TO_ANONYMISED_IP_ADDRESS_TO_FILE_NAME.get(db).get(accession)
-                        .put(period, anonymisedIPAddressToFileNames);
+            results = new ChunkResults();
+            ExecutorService executor = Executors.newFixedThreadPool(workers);
+            Throwable failure = null;
+            try {
+                List<Future<ChunkResults>> partials = new ArrayList<>();
+                for (int i = 0; i < workers; i++) {
+                    partials.add(executor.submit(() -> processChunks(chunks, fileToOffset != null, fileToChunkCount)));
+                }
+                // N.B. Every worker is waited for, so that the partial results of all those that completed are merged
+                for (Future<ChunkResults> partial : partials) {
+                    try {
+                        results.addAll(partial.get());
+                    } catch (ExecutionException e) {
+                        LOGGER.error("Apache log files worker failed", e.getCause());
+                        failure = e.getCause();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for Apache log files to be processed", e);
+            } finally {
+                executor.shutdownNow();
+            }
+            if (failure != null) {
+                throw new IllegalStateException("Failed to process Apache log files", failure);
+            }
+        }
+        // The chunks of files split into several chunks are only added once all of them have been processed
+        results.splitFileChunks.forEach((file, fileChunks) -> {
+            if (!results.failedFiles.contains(file)) {
+                fileChunks.forEach(results.downloads::addAll);
+            }
+        });
+        if (!results.failedFiles.isEmpty()) {
+            LOGGER.error("Failed to ingest {} Apache log files: {}", results.failedFiles.size(), results.failedFiles);
+        }
+        failedFiles.addAll(results.failedFiles);
+        if (fileToOffset != null) {
+            fileToOffset.putAll(results.fileToOffset);
+        }
+        return results.downloads;
+    }
+
+    /**
+     * @param dbToFiles
+     * @return The units of work into which the log files in dbToFiles are split
+     */
+    private List<LogChunk> getChunks(Map<ApacheLogsFileConfigProd.DB, List<File>> dbToFiles) {
+        List<LogChunk> chunks = new ArrayList<>();
+        for (Map.Entry<ApacheLogsFileConfigProd.DB, List<File>> entry : dbToFiles.entrySet()) {
+            ApacheLogsFileConfigProd.DB db = entry.getKey();
+            Pattern r = getRegex(db);
+            for (File file : entry.getValue()) {
+                String fileYearMonth = getLogFileMonth(file);
+                long size = file.length();
+                if (config.getIngestionEngine() == ApacheLogsFileConfigProd.IngestionEngine.nio
+                        && size > config.getSplitSize()) {
+                    for (long from = 0; from < size; from += config.getSplitSize()) {
+                        // N.B. The last byte range extends to the end of file, should file have grown since
+                        long to = from + config.getSplitSize() < size ? from + config.getSplitSize() : Long.MAX_VALUE;
+                        chunks.add(new LogChunk(db, r, file, fileYearMonth, from, to));
+                    }
+                } else {
+                    chunks.add(new LogChunk(db, r, file, fileYearMonth, 0, Long.MAX_VALUE));
+                }
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * The results of the chunks processed by a worker - or, once merged, by all workers
+     */
+    private static final class ChunkResults {
+        private final DownloadsStore<ApacheLogsFileConfigProd.DB> downloads =
+                new ConcurrentDownloadsStore<>(ApacheLogsFileConfigProd.DB.class);
+        // The byte offset following the last line processed of each file - if processed incrementally
+        private final Map<File, Long> fileToOffset = new HashMap<>();
+        // The downloads of each chunk of the files split into several chunks - N.B. not included in downloads
+        private final Map<File, List<DownloadsStore<ApacheLogsFileConfigProd.DB>>> splitFileChunks = new HashMap<>();
+        private final Set<File> failedFiles = new HashSet<>();
+
+        void addAll(ChunkResults other) {
+            downloads.addAll(other.downloads);
+            fileToOffset.putAll(other.fileToOffset);
+            other.splitFileChunks.forEach((file, fileChunks) ->
+                    splitFileChunks.computeIfAbsent(file, k -> new ArrayList<>()).addAll(fileChunks));
+            failedFiles.addAll(other.failedFiles);
+        }
+    }
+
+    /**
+     * Process chunks until there are none left. The entries of each chunk are aggregated separately, and only added
+     * to the results once the whole chunk has been processed successfully; a chunk that fails to be processed is
+     * logged, and its file reported as failed.
+     *
+     * @param chunks           N.B. shared by all workers
+     * @param incremental      If true, only the complete lines of each chunk are processed (via ApacheLogScanner),
+     *                         and the byte offset following the last of them is recorded against the chunk's file
+     * @param fileToChunkCount The number of chunks of each file
+     * @return The results of the chunks processed
+     */
+    private ChunkResults processChunks(Queue<LogChunk> chunks, boolean incremental,
+                                       Map<File, Integer> fileToChunkCount) {
+        ChunkResults results = new ChunkResults();
+        Map<ApacheLogsFileConfigProd.DB, ApacheLogScanner> scanners = new EnumMap<>(ApacheLogsFileConfigProd.DB.class);
+        LogChunk chunk;
+        while ((chunk = chunks.poll()) != null) {
+            LogChunk c = chunk;
+            DownloadsStore<ApacheLogsFileConfigProd.DB> chunkDownloads =
+                    new ConcurrentDownloadsStore<>(ApacheLogsFileConfigProd.DB.class);
+            long offset = 0;
+            try {
+                if (incremental || config.getIngestionEngine() == ApacheLogsFileConfigProd.IngestionEngine.nio) {
+                    offset = getScanner(scanners, c.db).scan(c.file.toPath(), c.from, c.to, incremental,
+                            line -> processLine(chunkDownloads, c.db, c.regex, line, c.fileYearMonth));
+                } else {
+                    try (BufferedReader reader = new BufferedReader(new FileReader(c.file))) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            processLine(chunkDownloads, c.db, c.regex, line, c.fileYearMonth);
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.error("Exception occurred, db: {}, file: {}", c.db, c.file, ex);
+                results.failedFiles.add(c.file);
+                continue;
+            }
+            if (fileToChunkCount.get(c.file) > 1) {
+                results.splitFileChunks.computeIfAbsent(c.file, k -> new ArrayList<>()).add(chunkDownloads);
             } else {
-                // We have seen this period for this accession before
-                if (!DB_TO_ACCESSION_TO_PERIOD_TO_ANONYMISED_IP_ADDRESS_TO_FILE_NAME.get(db).get(accession)
-                        .get(period).containsKey(anonymisedIPAddress)) {
-                    // We haven't seen this anonymisedIPAddress for that accession and period before
-                    Map<String, Multiset<String>> anonymisedIPAddressToFileNames = new HashMap<>();
-                    anonymisedIPAddressToFileNames.put(anonymisedIPAddress, HashMultiset.<String>create());
-                    DB_TO_ACCESSION_TO_PERIOD_TO_ANONYMISED_IP_ADDRESS_TO_FILE_NAME.get(db)
-                            .get(accession).put(period, anonymisedIPAddressToFileNames);
+                results.downloads.addAll(chunkDownloads);
+                if (incremental) {
+                    results.fileToOffset.put(c.file, offset);
                 }
             }
-            DB_TO_ACCESSION_TO_PERIOD_TO_ANONYMISED_IP_ADDRESS_TO_FILE_NAME.get(db).get(accession)
-                    .get(period).get(anonymisedIPAddress).add(fileName);
         }
+        return results;
+    }
+
+    private static ApacheLogScanner getScanner(Map<ApacheLogsFileConfigProd.DB, ApacheLogScanner> scanners,
+                                               ApacheLogsFileConfigProd.DB db) {
+        return scanners.computeIfAbsent(db, k -> new ApacheLogScanner(
+                ApacheLogsFileConfigProd.DB_2_REGEX.get(k).get(ApacheLogsFileConfigProd.FIELD.Marker)));
     }
 
     /**
-     * From: https://www.geeksforgeeks.org/md5-hash-in-java/
+     * Add the data downloads in line to downloads
      *
-     * @param input
-     * @return MD5 hash value nputof i
+     * @param downloads
+     * @param db
+     * @param r             The regex (c.f. ApacheLogsFileConfigProd.FIELD.Regex) of db
+     * @param line          An Apache access log entry
+     * @param fileYearMonth The period (yyyy/mm) retrieved from the name of the log file containing line
      */
-    public static String getMd5(String input) {
-        try {
+    private void processLine(DownloadsStore<ApacheLogsFileConfigProd.DB> downloads, ApacheLogsFileConfigProd.DB db,
+                             Pattern r, String line, String fileYearMonth) {
+        Matcher m = r.matcher(line);
+        String period = null;
+        while (m.find()) {
+            if (period == null) {
+                period = getPeriod(line, fileYearMonth, config.getPeriodGranularity());
+            }
+            String anonymisedIPAddress = anonymiser.anonymise(getIPAddress(line));
+            String[] downloadPathArr = m.group(0).split("/");
+            String[] downloadEntryArr = downloadPathArr[downloadPathArr.length - 1].split("\\?filename=");
+            if (downloadEntryArr.length < 2) {
+                // No file name
+                continue;
+            }
+            String accession = downloadEntryArr[0].split("\\.")[0];
+            String fileName = downloadEntryArr[1].split("\\&")[0];
+            downloads.add(db, accession, period, anonymisedIPAddress, fileName, 1);
+        }
+    }
 
-            // Static getInstance method is called with hashing MD5
-            MessageDigest md = MessageDigest.getInstance("MD5");
+    /**
+     * A unit of work: the lines of a log file starting between two byte offsets (c.f. ApacheLogScanner)
+     */
+    private static final class LogChunk {
+        private final ApacheLogsFileConfigProd.DB db;
+        private final Pattern regex;
+        private final File file;
+        private final String fileYearMonth;
+        private final long from;
+        private final long to;
 
-            // digest() method is called to calculate message digest
-            //  of an input digest() return array of byte
-            byte[] messageDigest = md.digest(input.getBytes());
+        LogChunk(ApacheLogsFileConfigProd.DB db, Pattern regex, File file, String fileYearMonth, long from, long to) {
+            this.db = db;
+            this.regex = regex;
+            this.file = file;
+            this.fileYearMonth = fileYearMonth;
+            this.from = from;
+            this.to = to;
+        }
+    }
 
-            // Convert byte array into signum representation
-            BigInteger no = new BigInteger(1, messageDigest);
+    /**
+     * @param line          An Apache access log entry, containing a timestamp such as [10/Oct/2018:13:55:36 +0100]
+     * @param fileYearMonth The period (yyyy/mm) retrieved from the name of the log file containing line - used
+     *                      if no timestamp can be found in line
+     * @param granularity
+     * @return The period of line, in the same format as the periods aggregated from ElasticSearch - i.e. of the
+     * timestamp converted to UTC, according to its offset (if any)
+     */
+    static String getPeriod(String line, String fileYearMonth, PeriodGranularity granularity) {
+        int start = line.indexOf('[');
+        if (start >= 0 && line.length() >= start + 21 && line.charAt(start + 3) == '/' && line.charAt(start + 7) == '/'
+                && line.charAt(start + 12) == ':') {
+            int month = getMonth(line.substring(start + 4, start + 7));
+            if (month > 0) {
+                try {
+                    LocalDateTime dateTime = LocalDateTime.of(
+                            Integer.parseInt(line.substring(start + 8, start + 12)), month,
+                            Integer.parseInt(line.substring(start + 1, start + 3)),
+                            Integer.parseInt(line.substring(start + 13, start + 15)),
+                            Integer.parseInt(line.substring(start + 16, start + 18)),
+                            Integer.parseInt(line.substring(start + 19, start + 21)));
+                    int offsetMinutes = getOffsetMinutes(line, start + 21);
+                    if (offsetMinutes != 0) {
+                        dateTime = dateTime.minusMinutes(offsetMinutes);
+                    }
+                    return granularity.getPeriod(dateTime.getYear(), dateTime.getMonthValue(),
+                            dateTime.getDayOfMonth(), dateTime.getHour(), dateTime.getMinute(), dateTime.getSecond());
+                } catch (NumberFormatException | DateTimeException ex) {
+                    LOGGER.debug("No timestamp found in: {}", line);
+                }
+            }
+        }
+        String[] yearMonth = fileYearMonth.split("/");
+        return granularity.getPeriod(Integer.parseInt(yearMonth[0]), Integer.parseInt(yearMonth[1]), 1, 0, 0, 0);
+    }
+
+    /**
+     * @param line
+     * @param pos  The position in line following the time of a timestamp, e.g. of " +0100]"
+     * @return The offset from UTC (in minutes) at pos, e.g. 60 for " +0100"; 0 if there is none
+     */
+    private static int getOffsetMinutes(String line, int pos) {
+        if (line.length() < pos + 6 || line.charAt(pos) != ' '
+                || (line.charAt(pos + 1) != '+' && line.charAt(pos + 1) != '-')) {
+            return 0;
+        }
+        int minutes = Integer.parseInt(line.substring(pos + 2, pos + 4)) * 60
+                + Integer.parseInt(line.substring(pos + 4, pos + 6));
+        return line.charAt(pos + 1) == '-' ? -minutes : minutes;
+    }
+
+    /**
+     * @param abbreviation The abbreviated name of a month in Apache logs, e.g. Oct
+     * @return The number (1-12) of the month; 0 if abbreviation is not recognised
+     */
+    private static int getMonth(String abbreviation) {
+        switch (abbreviation) {
+            case "Jan":
+                return 1;
+            case "Feb":
+                return 2;
+            case "Mar":
+                return 3;
+            case "Apr":
+                return 4;
+            case "May":
+                return 5;
+            case "Jun":
+                return 6;
+            case "Jul":
+                return 7;
+            case "Aug":
+                return 8;
+            case "Sep":
+                return 9;
+            case "Oct":
+                return 10;
+            case "Nov":
+                return 11;
+            case "Dec":
+                return 12;
+            default:
+                return 0;
+        }
+    }
 
-            // Convert message digest into hex value
-            String hashtext = no.toString(16);
-            while (hashtext.length() < 32) {
-                hashtext = "0" + hashtext;
+    /**
+     * @param input
+     * @return The hex representation of the MD5 hash of input (c.f. IPAddressAnonymiser)
+     */
+    public static String getMd5(String input) {
+        return IPAddressAnonymiser.md5Hex(input);
+    }
+
+    /**
+     * @param line An Apache access log entry
+     * @return The first whitespace-delimited token of line, i.e. the IP address of the client - the same as
+     * line.split("\\s+")[0], without a regex or an array
+     */
+    static String getIPAddress(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            switch (line.charAt(i)) {
+                case ' ':
+                case '\t':
+                case '\n':
+                case '\u000B':
+                case '\f':
+                case '\r':
+                    return line.substring(0, i);
+                default:
             }
-            return hashtext;
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
         }
+        return line;
     }
 }
@@ -3,6 +3,7 @@ package uk.ac.ebi.ddi.downloas.logs;
 import com.google.common.base.Joiner;
 
 import java.io.File;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -16,13 +17,42 @@ import java.util.Map;
 public class ApacheLogsFileConfigProd {
     public static final String LOGFILENAME_PREFIX = "access_";
     public static final String LOGFILENAME_POSTFIX = ".*\\.log";
+    // The date a log file was started on - year, month and optionally day - following LOGFILENAME_PREFIX
+    public static final String LOGFILENAME_DATE_REGEX = "(\\d{4})-(\\d{2})(?:-(\\d{2}))?";
+    public static final long DEFAULT_SPLIT_SIZE = 64L << 20;
+    // The maximum number of IP addresses whose anonymised forms are memoised by ApacheLogsFileClient
+    public static final int ANONYMISED_IP_ADDRESS_CACHE_SIZE = 100000;
+
+    // The granularity of the periods by which downloads are aggregated - c.f. ElasticSearchWsConfigProd. By default,
+    // the month (yyyy/mm) of each entry, as aggregated by previous versions from the log file names
+    private PeriodGranularity periodGranularity = PeriodGranularity.month;
+    private IngestionEngine ingestionEngine = IngestionEngine.nio;
+    // The number of workers processing log files at the same time
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    // Log files larger than this (in bytes) are split into byte ranges of this size, processed by different workers
+    // (IngestionEngine.nio only)
+    private long splitSize = DEFAULT_SPLIT_SIZE;
+    // If not null, the file in which the progress of ingestion - and the downloads aggregated so far - are recorded,
+    // so that log files are ingested incrementally (c.f. ApacheLogsIngestionState)
+    private Path ingestionStateFile;
+    // If not null, the file in which the downloads of complete months are persisted between runs, so that the log
+    // files of these months are not ingested again - c.f. DownloadsSnapshot
+    private Path snapshotFile;
 
     public enum DB {
         BioModels
     }
 
     public enum FIELD {
-        Regex, LogsDir
+        // Marker - a literal contained in every log entry matching Regex
+        Regex, Marker, LogsDir
+    }
+
+    // reader - read log files line by line, matching Regex against each line;
+    // nio - scan log files as bytes for Marker, and match Regex only against the lines containing it
+    // (c.f. ApacheLogScanner)
+    public enum IngestionEngine {
+        reader, nio
     }
 
     public static final Map<DB, Map<FIELD, String>> DB_2_REGEX = new HashMap<DB, Map<FIELD, String>>() {
@@ -33,6 +63,7 @@ public class ApacheLogsFileConfigProd {
             }
 
             get(DB.BioModels).put(FIELD.Regex, "download\\/MODEL\\d+.*?\\&");
+            get(DB.BioModels).put(FIELD.Marker, "download/MODEL");
             get(DB.BioModels).put(FIELD.LogsDir, File.separator + Joiner.on(File.separator)
                     .join(Arrays.asList(
                             "nfs", "public", "rw", "webadmin", "tomcat", "bases", "biomodels.net",
@@ -40,5 +71,60 @@ public class ApacheLogsFileConfigProd {
         }
     };
 
+    public PeriodGranularity getPeriodGranularity() {
+        return periodGranularity;
+    }
+
+    public void setPeriodGranularity(PeriodGranularity periodGranularity) {
+        this.periodGranularity = periodGranularity;
+    }
+
+    public IngestionEngine getIngestionEngine() {
+        return ingestionEngine;
+    }
+
+    public void setIngestionEngine(IngestionEngine ingestionEngine) {
+        this.ingestionEngine = ingestionEngine;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public long getSplitSize() {
+        return splitSize;
+    }
+
+    public void setSplitSize(long splitSize) {
+        this.splitSize = splitSize;
+    }
+
+    public Path getIngestionStateFile() {
+        return ingestionStateFile;
+    }
+
+    /**
+     * @param ingestionStateFile N.B. Log files are ingested incrementally via ApacheLogScanner, whatever the
+     *                           IngestionEngine
+     */
+    public void setIngestionStateFile(Path ingestionStateFile) {
+        this.ingestionStateFile = ingestionStateFile;
+    }
+
+    public Path getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    /**
+     * @param snapshotFile N.B. ignored if log files are ingested incrementally (c.f. getIngestionStateFile()) - or if
+     *                     the periods are of PeriodGranularity.year, as these do not lie within a month
+     */
+    public void setSnapshotFile(Path snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
 
 }
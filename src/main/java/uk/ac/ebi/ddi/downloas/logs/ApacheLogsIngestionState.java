@@ -0,0 +1,176 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A binary file recording how far each Apache access log file has been ingested by ApacheLogsFileClient, together
+ * with the downloads aggregated from them - so that the next refresh only needs to parse the log files, or the tails
+ * of log files, added since. Layout:
+ * header - MAGIC (int), FORMAT_VERSION (int) and the number of checkpoints (int);
+ * checkpoints - each a log file path (modified UTF-8) followed by its Checkpoint;
+ * downloads - each (db, accession, period, anonymised IP address, file name) combination (modified UTF-8) followed
+ * by its count (int), terminated by an empty db.
+ */
+public final class ApacheLogsIngestionState {
+
+    static final int MAGIC = 0x41504C53; // APLS
+    static final int FORMAT_VERSION = 1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private ApacheLogsIngestionState() {
+    }
+
+    /**
+     * The state of a log file when it was last ingested
+     */
+    public static final class Checkpoint {
+        // The identity (e.g. device and inode) of the file - c.f. BasicFileAttributes.fileKey()
+        private final String fileKey;
+        private final long size;
+        // The byte offset following the last line ingested
+        private final long offset;
+        private final long lastModifiedTime;
+
+        public Checkpoint(String fileKey, long size, long offset, long lastModifiedTime) {
+            this.fileKey = fileKey;
+            this.size = size;
+            this.offset = offset;
+            this.lastModifiedTime = lastModifiedTime;
+        }
+
+        public String getFileKey() {
+            return fileKey;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLastModifiedTime() {
+            return lastModifiedTime;
+        }
+
+        /**
+         * @param fileKey
+         * @param size
+         * @param lastModifiedTime
+         * @return True if a file of fileKey, size and lastModifiedTime is the file checkpointed, unchanged since
+         */
+        public boolean isUnchanged(String fileKey, long size, long lastModifiedTime) {
+            return Objects.equals(this.fileKey, fileKey) && size == this.size
+                    && lastModifiedTime == this.lastModifiedTime;
+        }
+
+        /**
+         * @param fileKey
+         * @param size
+         * @return True if a file of fileKey and size is the file checkpointed, possibly appended to since
+         */
+        public boolean isContinuedBy(String fileKey, long size) {
+            return Objects.equals(this.fileKey, fileKey) && size >= offset;
+        }
+    }
+
+    /**
+     * Read the checkpoints in file into checkpoints, and the downloads in file into downloads
+     *
+     * @param file
+     * @param checkpoints A map between each log file path and its Checkpoint
+     * @param downloads
+     * @throws IOException If file cannot be read, is truncated or is not an ingestion state of FORMAT_VERSION
+     */
+    static void read(Path file, Map<String, Checkpoint> checkpoints,
+                     DownloadsStore<ApacheLogsFileConfigProd.DB> downloads) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not an Apache logs ingestion state");
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException(file + " is of unsupported version: " + version);
+            }
+            int checkpointCount = in.readInt();
+            for (int i = 0; i < checkpointCount; i++) {
+                String path = in.readUTF();
+                checkpoints.put(path, new Checkpoint(in.readUTF(), in.readLong(), in.readLong(), in.readLong()));
+            }
+            String db;
+            while (!(db = in.readUTF()).isEmpty()) {
+                downloads.add(ApacheLogsFileConfigProd.DB.valueOf(db), in.readUTF(), in.readUTF(), in.readUTF(),
+                        in.readUTF(), in.readInt());
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException(file + " is corrupt", e);
+        }
+    }
+
+    /**
+     * Write checkpoints and downloads to file - via a temporary file, so that an existing state is only replaced
+     * once the new one is complete
+     *
+     * @param file
+     * @param checkpoints A map between each log file path and its Checkpoint
+     * @param downloads   N.B. must not be modified while it is being written
+     * @throws IOException
+     */
+    static void write(Path file, Map<String, Checkpoint> checkpoints,
+                      DownloadsStore<ApacheLogsFileConfigProd.DB> downloads) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmpFile = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmpFile), BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(checkpoints.size());
+                for (Map.Entry<String, Checkpoint> entry : checkpoints.entrySet()) {
+                    Checkpoint checkpoint = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(checkpoint.getFileKey());
+                    out.writeLong(checkpoint.getSize());
+                    out.writeLong(checkpoint.getOffset());
+                    out.writeLong(checkpoint.getLastModifiedTime());
+                }
+                IOException[] exception = new IOException[1];
+                downloads.forEach((db, accession, period, anonymisedIPAddress, fileName, count) -> {
+                    if (exception[0] != null) {
+                        return;
+                    }
+                    try {
+                        out.writeUTF(db.name());
+                        out.writeUTF(accession);
+                        out.writeUTF(period);
+                        out.writeUTF(anonymisedIPAddress);
+                        out.writeUTF(fileName);
+                        out.writeInt(count);
+                    } catch (IOException e) {
+                        exception[0] = e;
+                    }
+                });
+                if (exception[0] != null) {
+                    throw exception[0];
+                }
+                out.writeUTF("");
+            }
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import uk.ac.ebi.ddi.downloas.utils.StringDictionary;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * A memory-compact DownloadsStore. Periods, anonymised IP addresses and file names are interned into
+ * StringDictionaries, so that each distinct value is stored only once, and the download counts of each accession
+ * are kept in columnar int arrays - one row per distinct (period, anonymised IP address, file name) - indexed by
+ * an open-addressing hash table. Each accession is updated under its own lock, so that adding downloads
+ * to different accessions does not contend.
+ * N.B. The Map views returned by get() are rebuilt, one accession at a time, on each access - use get(db, accession)
+ * to retrieve the downloads of a single accession.
+ *
+ * @param <D> The enum of DBs whose downloads are stored
+ */
+public class CompactDownloadsStore<D extends Enum<D>> implements DownloadsStore<D> {
+
+    private final StringDictionary periods = new StringDictionary();
+    private final StringDictionary anonymisedIPAddresses = new StringDictionary();
+    private final StringDictionary fileNames = new StringDictionary();
+
+    private final Map<D, Map<String, AccessionDownloads>> dbData;
+
+    public CompactDownloadsStore(Class<D> dbClass) {
+        dbData = new EnumMap<>(dbClass);
+        for (D db : dbClass.getEnumConstants()) {
+            dbData.put(db, new ConcurrentHashMap<>());
+        }
+    }
+
+    @Override
+    public void add(D db, String accession, String period, String anonymisedIPAddress, String fileName, int count) {
+        Map<String, AccessionDownloads> accessionToDownloads = dbData.get(db);
+        AccessionDownloads downloads = accessionToDownloads.get(accession);
+        if (downloads == null) {
+            downloads = accessionToDownloads.computeIfAbsent(accession, k -> new AccessionDownloads());
+        }
+        int periodId = periods.intern(period);
+        int anonymisedIPAddressId = anonymisedIPAddresses.intern(anonymisedIPAddress);
+        int fileNameId = fileNames.intern(fileName);
+        while (!downloads.add(periodId, anonymisedIPAddressId, fileNameId, count)) {
+            // The downloads of accession have been emptied and retired by removePeriods() - add to their replacement
+            accessionToDownloads.remove(accession, downloads);
+            downloads = accessionToDownloads.computeIfAbsent(accession, k -> new AccessionDownloads());
+        }
+    }
+
+    @Override
+    public void forEach(DownloadsConsumer<D> consumer) {
+        for (Map.Entry<D, Map<String, AccessionDownloads>> dbEntry : dbData.entrySet()) {
+            for (Map.Entry<String, AccessionDownloads> accessionEntry : dbEntry.getValue().entrySet()) {
+                accessionEntry.getValue().forEach((period, anonymisedIPAddress, fileName, count) ->
+                        consumer.accept(dbEntry.getKey(), accessionEntry.getKey(), periods.get(period),
+                                anonymisedIPAddresses.get(anonymisedIPAddress), fileNames.get(fileName), count));
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Map<String, Map<String, Multiset<String>>>> get(D db) {
+        return Maps.asMap(dbData.get(db).keySet(), accession -> get(db, accession));
+    }
+
+    @Override
+    public Map<String, Map<String, Multiset<String>>> get(D db, String accession) {
+        AccessionDownloads downloads = dbData.get(db).get(accession);
+        if (downloads == null) {
+            return null;
+        }
+        Map<String, Map<String, Multiset<String>>> periodToAnonymisedIPAddressToFileNames = new HashMap<>();
+        downloads.forEach((period, anonymisedIPAddress, fileName, count) ->
+                periodToAnonymisedIPAddressToFileNames
+                        .computeIfAbsent(periods.get(period), k -> new HashMap<>())
+                        .computeIfAbsent(anonymisedIPAddresses.get(anonymisedIPAddress), k -> HashMultiset.create())
+                        .add(fileNames.get(fileName), count));
+        return periodToAnonymisedIPAddressToFileNames;
+    }
+
+    @Override
+    public boolean isEmpty(D db) {
+        return dbData.get(db).isEmpty();
+    }
+
+    @Override
+    public void removePeriods(Predicate<String> periodFilter) {
+        for (Map<String, AccessionDownloads> accessionToDownloads : dbData.values()) {
+            for (Map.Entry<String, AccessionDownloads> accessionEntry : accessionToDownloads.entrySet()) {
+                accessionEntry.getValue().removePeriods(period -> periodFilter.test(periods.get(period)));
+                // N.B. The downloads of accession are only removed if they are still empty under its lock
+                accessionToDownloads.computeIfPresent(accessionEntry.getKey(),
+                        (k, downloads) -> downloads.retireIfEmpty() ? null : downloads);
+            }
+        }
+    }
+
+    private interface RowConsumer {
+        void accept(int period, int anonymisedIPAddress, int fileName, int count);
+    }
+
+    /**
+     * The download counts of a single accession, stored as columns of dictionary ids
+     */
+    private static final class AccessionDownloads {
+
+        private static final int INITIAL_CAPACITY = 4;
+
+        private int[] periodColumn = new int[INITIAL_CAPACITY];
+        private int[] anonymisedIPAddressColumn = new int[INITIAL_CAPACITY];
+        private int[] fileNameColumn = new int[INITIAL_CAPACITY];
+        private int[] countColumn = new int[INITIAL_CAPACITY];
+        private int rows;
+        // Set once the accession has been emptied and removed: no more downloads can be added to it
+        private boolean retired;
+        // Open-addressing hash table of row numbers + 1 (0 marks an empty slot); its length is a power of 2
+        private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+        /**
+         * @return False if no downloads can be added, as this has been retired
+         */
+        synchronized boolean add(int period, int anonymisedIPAddress, int fileName, int count) {
+            if (retired) {
+                return false;
+            }
+            int mask = slots.length - 1;
+            int slot = hash(period, anonymisedIPAddress, fileName) & mask;
+            while (slots[slot] != 0) {
+                int row = slots[slot] - 1;
+                if (periodColumn[row] == period && anonymisedIPAddressColumn[row] == anonymisedIPAddress
+                        && fileNameColumn[row] == fileName) {
+                    countColumn[row] += count;
+                    return true;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (rows == periodColumn.length) {
+                int capacity = rows * 2;
+                periodColumn = Arrays.copyOf(periodColumn, capacity);
+                anonymisedIPAddressColumn = Arrays.copyOf(anonymisedIPAddressColumn, capacity);
+                fileNameColumn = Arrays.copyOf(fileNameColumn, capacity);
+                countColumn = Arrays.copyOf(countColumn, capacity);
+            }
+            periodColumn[rows] = period;
+            anonymisedIPAddressColumn[rows] = anonymisedIPAddress;
+            fileNameColumn[rows] = fileName;
+            countColumn[rows] = count;
+            slots[slot] = ++rows;
+            // Keep the load factor of the hash table at or below 0.5
+            if (rows * 2 > slots.length) {
+                rehash(slots.length * 2);
+            }
+            return true;
+        }
+
+        synchronized void forEach(RowConsumer consumer) {
+            for (int row = 0; row < rows; row++) {
+                consumer.accept(periodColumn[row], anonymisedIPAddressColumn[row], fileNameColumn[row],
+                        countColumn[row]);
+            }
+        }
+
+        /**
+         * Remove the rows of the periods matching periodFilter
+         */
+        synchronized void removePeriods(IntPredicate periodFilter) {
+            int kept = 0;
+            for (int row = 0; row < rows; row++) {
+                if (!periodFilter.test(periodColumn[row])) {
+                    periodColumn[kept] = periodColumn[row];
+                    anonymisedIPAddressColumn[kept] = anonymisedIPAddressColumn[row];
+                    fileNameColumn[kept] = fileNameColumn[row];
+                    countColumn[kept] = countColumn[row];
+                    kept++;
+                }
+            }
+            if (kept < rows) {
+                rows = kept;
+                rehash(slots.length);
+            }
+        }
+
+        /**
+         * Retire this if no rows are left, so that no more downloads can be added to it
+         *
+         * @return True if this has been retired
+         */
+        synchronized boolean retireIfEmpty() {
+            retired = rows == 0;
+            return retired;
+        }
+
+        private void rehash(int capacity) {
+            slots = new int[capacity];
+            int mask = capacity - 1;
+            for (int row = 0; row < rows; row++) {
+                int slot = hash(periodColumn[row], anonymisedIPAddressColumn[row], fileNameColumn[row]) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = row + 1;
+            }
+        }
+
+        private static int hash(int period, int anonymisedIPAddress, int fileName) {
+            int h = period * 0x9E3779B1 + anonymisedIPAddress;
+            h = h * 0x9E3779B1 + fileName;
+            return h ^ (h >>> 16);
+        }
+    }
+}
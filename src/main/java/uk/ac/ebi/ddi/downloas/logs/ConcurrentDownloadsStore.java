@@ -0,0 +1,119 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Multiset;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A DownloadsStore that keeps the aggregated downloads in nested maps, which are returned to the callers as they are.
+ * Rather than serialising all updates on a single lock, each level is a
+ * ConcurrentHashMap - which is only locked (per bin) when a new key is inserted - and download counts per file name
+ * are kept in ConcurrentHashMultisets, which are updated via atomic compare-and-set. Only the downloads added while
+ * removePeriods() runs lock the accession they are added to, to check that it has not been removed meanwhile.
+ *
+ * @param <D> The enum of DBs whose downloads are stored
+ */
+public class ConcurrentDownloadsStore<D extends Enum<D>> implements DownloadsStore<D> {
+
+    // DB_TO_ACCESSION_TO_PERIOD_TO_ANONYMISED_IP_ADDRESS_TO_FILE_NAME
+    private final Map<D, Map<String, Map<String, Map<String, Multiset<String>>>>> dbData;
+    // Incremented at the start and at the end of each removePeriods(), i.e. odd while one is running
+    private volatile int removalEpoch;
+
+    public ConcurrentDownloadsStore(Class<D> dbClass) {
+        dbData = new EnumMap<>(dbClass);
+        for (D db : dbClass.getEnumConstants()) {
+            dbData.put(db, new ConcurrentHashMap<>());
+        }
+    }
+
+    @Override
+    public void add(D db, String accession, String period, String anonymisedIPAddress, String fileName, int count) {
+        Map<String, Map<String, Map<String, Multiset<String>>>> accessionToPeriods = dbData.get(db);
+        while (true) {
+            int epoch = removalEpoch;
+            Map<String, Map<String, Multiset<String>>> periodToAnonymisedIPAddressToFileNames =
+                    getOrCreate(accessionToPeriods, accession, k -> new ConcurrentHashMap<>());
+            Map<String, Multiset<String>> anonymisedIPAddressToFileNames =
+                    getOrCreate(periodToAnonymisedIPAddressToFileNames, period, k -> new ConcurrentHashMap<>());
+            // N.B. We use Multiset to maintain counts per individual download file
+            getOrCreate(anonymisedIPAddressToFileNames, anonymisedIPAddress, k -> ConcurrentHashMultiset.create())
+                    .add(fileName, count);
+            // If a removePeriods() overlapped, it may have found the periods of accession empty just before they
+            // were added to, and removed them: computeIfPresent() waits for any such removal - under the lock of
+            // accession - to complete. If they have been removed, the download is added again to their replacement
+            if (epoch == removalEpoch && (epoch & 1) == 0 || accessionToPeriods.computeIfPresent(accession,
+                    (k, periods) -> periods) == periodToAnonymisedIPAddressToFileNames) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void forEach(DownloadsConsumer<D> consumer) {
+        for (Map.Entry<D, Map<String, Map<String, Map<String, Multiset<String>>>>> dbEntry : dbData.entrySet()) {
+            for (Map.Entry<String, Map<String, Map<String, Multiset<String>>>> accessionEntry
+                    : dbEntry.getValue().entrySet()) {
+                for (Map.Entry<String, Map<String, Multiset<String>>> periodEntry
+                        : accessionEntry.getValue().entrySet()) {
+                    for (Map.Entry<String, Multiset<String>> ipEntry : periodEntry.getValue().entrySet()) {
+                        for (Multiset.Entry<String> fileNameEntry : ipEntry.getValue().entrySet()) {
+                            consumer.accept(dbEntry.getKey(), accessionEntry.getKey(), periodEntry.getKey(),
+                                    ipEntry.getKey(), fileNameEntry.getElement(), fileNameEntry.getCount());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param db
+     * @return A live view of the downloads of db
+     */
+    @Override
+    public Map<String, Map<String, Map<String, Multiset<String>>>> get(D db) {
+        return dbData.get(db);
+    }
+
+    @Override
+    public Map<String, Map<String, Multiset<String>>> get(D db, String accession) {
+        return dbData.get(db).get(accession);
+    }
+
+    @Override
+    public boolean isEmpty(D db) {
+        return dbData.get(db).isEmpty();
+    }
+
+    @Override
+    public synchronized void removePeriods(Predicate<String> periodFilter) {
+        removalEpoch++;
+        try {
+            for (Map<String, Map<String, Map<String, Multiset<String>>>> accessionToPeriods : dbData.values()) {
+                for (Map.Entry<String, Map<String, Map<String, Multiset<String>>>> accessionEntry
+                        : accessionToPeriods.entrySet()) {
+                    accessionEntry.getValue().keySet().removeIf(periodFilter);
+                    // N.B. The periods of accession are only removed if they are still empty under its lock
+                    accessionToPeriods.computeIfPresent(accessionEntry.getKey(),
+                            (k, periods) -> periods.isEmpty() ? null : periods);
+                }
+            }
+        } finally {
+            removalEpoch++;
+        }
+    }
+
+    /**
+     * N.B. Unlike ConcurrentHashMap.computeIfAbsent(), this does not lock when key is already present in map
+     */
+    private static <K, V> V getOrCreate(Map<K, V> map, K key, Function<K, V> factory) {
+        V value = map.get(key);
+        return value != null ? value : map.computeIfAbsent(key, factory);
+    }
+}
@@ -0,0 +1,353 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A binary file containing a snapshot of aggregated data downloads, for the months whose downloads have all been
+ * retrieved, in a columnar layout that is read sequentially. Layout:
+ * header - MAGIC (int), FORMAT_VERSION (int), the PeriodGranularity of the periods (modified UTF-8)
+ * and the number of partitions (int);
+ * dictionaries - of DBs, months, accessions, periods, anonymised IP addresses and file names, in that order - each
+ * the number of its values (int) and their total length in bytes (int), followed by the length in bytes of each value
+ * (int) and then by all the values (UTF-8);
+ * partitions - one per (db, month), each the dictionary ids of its db and month (int) and its number of rows (int),
+ * followed by its accession, period, anonymised IP address and file name columns (dictionary ids) and its count
+ * column - each an int per row.
+ * All the months in the months dictionary are complete, whether or not there are any downloads in them.
+ */
+public final class DownloadsSnapshot {
+
+    static final int MAGIC = 0x444C5353; // DLSS
+    static final int FORMAT_VERSION = 1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int COLUMN_COUNT = 5;
+
+    private DownloadsSnapshot() {
+    }
+
+    /**
+     * @param periodGranularity
+     * @return True if each period of periodGranularity lies within a month - i.e. if downloads aggregated by periods
+     * of periodGranularity can be snapshotted
+     */
+    static boolean supports(PeriodGranularity periodGranularity) {
+        return periodGranularity != PeriodGranularity.year;
+    }
+
+    /**
+     * @param period A period of a PeriodGranularity supported by snapshots, e.g. 2018/10/01
+     * @return The month (yyyy/mm) containing period, e.g. 2018/10; null if period does not lie within a month
+     */
+    static String getMonth(String period) {
+        if (period.length() < 7) {
+            return null;
+        }
+        if (period.charAt(4) == '/') {
+            return period.substring(0, 7);
+        }
+        return period.substring(0, 4) + '/' + period.substring(5, 7);
+    }
+
+    /**
+     * @param month
+     * @return month in the format of the periods of PeriodGranularity.month, e.g. 2018/10
+     */
+    static String getMonth(YearMonth month) {
+        return String.format("%04d/%02d", month.getYear(), month.getMonthValue());
+    }
+
+    /**
+     * @param from
+     * @param to
+     * @param now
+     * @param zone The time zone of the months
+     * @return The months lying entirely between from and to (inclusive), and over by now
+     */
+    static Set<String> getCompleteMonths(Instant from, Instant to, Instant now, ZoneId zone) {
+        Set<String> months = new TreeSet<>();
+        YearMonth month = YearMonth.from(from.atZone(zone));
+        YearMonth lastMonth = YearMonth.from(to.atZone(zone));
+        while (!month.isAfter(lastMonth)) {
+            Instant start = month.atDay(1).atStartOfDay(zone).toInstant();
+            Instant end = month.plusMonths(1).atDay(1).atStartOfDay(zone).toInstant();
+            if (!from.isAfter(start) && !to.isBefore(end.minusMillis(1)) && !now.isBefore(end)) {
+                months.add(getMonth(month));
+            }
+            month = month.plusMonths(1);
+        }
+        return months;
+    }
+
+    /**
+     * Add the downloads in source to target, apart from those in excludedMonths - e.g. the months already loaded
+     * into target from a snapshot
+     *
+     * @param target
+     * @param source
+     * @param excludedMonths
+     */
+    static <D extends Enum<D>> void addAll(DownloadsStore<D> target, DownloadsStore<D> source,
+                                           Set<String> excludedMonths) {
+        if (excludedMonths.isEmpty()) {
+            target.addAll(source);
+            return;
+        }
+        source.forEach((db, accession, period, anonymisedIPAddress, fileName, count) -> {
+            if (!excludedMonths.contains(getMonth(period))) {
+                target.add(db, accession, period, anonymisedIPAddress, fileName, count);
+            }
+        });
+    }
+
+    /**
+     * Read all the downloads in file into downloads
+     *
+     * @param file
+     * @param dbClass
+     * @param periodGranularity The PeriodGranularity file is expected to be of
+     * @param downloads
+     * @return The months whose downloads are all in file
+     * @throws IOException If file cannot be read, is truncated, is not a snapshot of FORMAT_VERSION
+     *                     or is not of periodGranularity
+     */
+    static <D extends Enum<D>> Set<String> read(Path file, Class<D> dbClass, PeriodGranularity periodGranularity,
+                                                DownloadsStore<D> downloads) throws IOException {
+        long size = Files.size(file);
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a downloads snapshot");
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException(file + " is of unsupported version: " + version);
+            }
+            String granularity = in.readUTF();
+            if (!periodGranularity.name().equals(granularity)) {
+                throw new IOException(file + " is of period granularity: " + granularity);
+            }
+            int partitionCount = in.readInt();
+
+            String[] dbNames = readDictionary(file, size, in);
+            String[] months = readDictionary(file, size, in);
+            String[] accessions = readDictionary(file, size, in);
+            String[] periods = readDictionary(file, size, in);
+            String[] anonymisedIPAddresses = readDictionary(file, size, in);
+            String[] fileNames = readDictionary(file, size, in);
+            List<D> dbs = new ArrayList<>();
+            for (String dbName : dbNames) {
+                dbs.add(Enum.valueOf(dbClass, dbName));
+            }
+            for (int i = 0; i < partitionCount; i++) {
+                D db = dbs.get(in.readInt());
+                in.readInt(); // month
+                int rows = checkLength(file, size, in.readInt(), Integer.BYTES * COLUMN_COUNT);
+                int[] columns = new int[COLUMN_COUNT * rows];
+                for (int j = 0; j < columns.length; j++) {
+                    columns[j] = in.readInt();
+                }
+                for (int row = 0; row < rows; row++) {
+                    downloads.add(db, accessions[columns[row]], periods[columns[rows + row]],
+                            anonymisedIPAddresses[columns[2 * rows + row]], fileNames[columns[3 * rows + row]],
+                            columns[4 * rows + row]);
+                }
+            }
+            return new TreeSet<>(Arrays.asList(months));
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException(file + " is corrupt", e);
+        }
+    }
+
+    /**
+     * @param file
+     * @param size The size of file in bytes
+     * @param in   A stream of file, positioned at the start of a dictionary
+     * @return The values of the dictionary
+     * @throws IOException If file cannot be read or is truncated
+     */
+    private static String[] readDictionary(Path file, long size, DataInputStream in) throws IOException {
+        int count = checkLength(file, size, in.readInt(), Integer.BYTES);
+        byte[] bytes = new byte[checkLength(file, size, in.readInt(), 1)];
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            lengths[i] = in.readInt();
+        }
+        in.readFully(bytes);
+        String[] values = new String[count];
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            values[i] = new String(bytes, offset, lengths[i], StandardCharsets.UTF_8);
+            offset += lengths[i];
+        }
+        return values;
+    }
+
+    /**
+     * @param file
+     * @param size      The size of file in bytes
+     * @param length    A number of values read from file
+     * @param valueSize The size of each value in bytes
+     * @return length
+     * @throws IOException If file is too small to contain length values - i.e. it is truncated
+     */
+    private static int checkLength(Path file, long size, int length, int valueSize) throws IOException {
+        if (length < 0 || (long) length * valueSize > size) {
+            throw new IOException(file + " is truncated");
+        }
+        return length;
+    }
+
+    /**
+     * Write the downloads in months to file - via a temporary file, so that an existing snapshot is only replaced
+     * once the new one is complete
+     *
+     * @param file
+     * @param periodGranularity The PeriodGranularity of the periods in downloads - N.B. must be supported
+     * @param downloads         N.B. must not be modified while it is being written
+     * @param months            The months whose downloads have all been added to downloads
+     * @return The number of rows written
+     * @throws IOException
+     */
+    static <D extends Enum<D>> int write(Path file, PeriodGranularity periodGranularity, DownloadsStore<D> downloads,
+                                         Set<String> months) throws IOException {
+        Dictionary dbs = new Dictionary();
+        Dictionary monthDictionary = new Dictionary();
+        Dictionary accessions = new Dictionary();
+        Dictionary periods = new Dictionary();
+        Dictionary anonymisedIPAddresses = new Dictionary();
+        Dictionary fileNames = new Dictionary();
+        for (String month : new TreeSet<>(months)) {
+            monthDictionary.getId(month);
+        }
+        Map<Long, Partition> partitions = new LinkedHashMap<>();
+        int[] rowCount = new int[1];
+        downloads.forEach((db, accession, period, anonymisedIPAddress, fileName, count) -> {
+            String month = getMonth(period);
+            if (month == null || !months.contains(month)) {
+                return;
+            }
+            int dbId = dbs.getId(db.name());
+            int monthId = monthDictionary.getId(month);
+            partitions.computeIfAbsent((long) dbId << Integer.SIZE | monthId, k -> new Partition(dbId, monthId))
+                    .add(accessions.getId(accession), periods.getId(period),
+                            anonymisedIPAddresses.getId(anonymisedIPAddress), fileNames.getId(fileName), count);
+            rowCount[0]++;
+        });
+
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmpFile = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmpFile), BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(periodGranularity.name());
+                out.writeInt(partitions.size());
+                for (Dictionary dictionary : new Dictionary[]{
+                        dbs, monthDictionary, accessions, periods, anonymisedIPAddresses, fileNames}) {
+                    dictionary.write(out);
+                }
+                for (Partition partition : partitions.values()) {
+                    partition.write(out);
+                }
+            }
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+        return rowCount[0];
+    }
+
+    /**
+     * Assigns consecutive int ids (starting from 0) to distinct strings, in the order in which they are first seen
+     */
+    private static final class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<byte[]> values = new ArrayList<>();
+        private int byteCount;
+
+        int getId(String value) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = values.size();
+                ids.put(value, id);
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                values.add(bytes);
+                byteCount += bytes.length;
+            }
+            return id;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(values.size());
+            out.writeInt(byteCount);
+            for (byte[] value : values) {
+                out.writeInt(value.length);
+            }
+            for (byte[] value : values) {
+                out.write(value);
+            }
+        }
+    }
+
+    /**
+     * The downloads of a (db, month), as columns of dictionary ids and counts
+     */
+    private static final class Partition {
+        private final int dbId;
+        private final int monthId;
+        private final int[][] columns = new int[COLUMN_COUNT][16];
+        private int rows;
+
+        Partition(int dbId, int monthId) {
+            this.dbId = dbId;
+            this.monthId = monthId;
+        }
+
+        void add(int accession, int period, int anonymisedIPAddress, int fileName, int count) {
+            if (rows == columns[0].length) {
+                for (int i = 0; i < COLUMN_COUNT; i++) {
+                    columns[i] = Arrays.copyOf(columns[i], rows * 2);
+                }
+            }
+            columns[0][rows] = accession;
+            columns[1][rows] = period;
+            columns[2][rows] = anonymisedIPAddress;
+            columns[3][rows] = fileName;
+            columns[4][rows] = count;
+            rows++;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(dbId);
+            out.writeInt(monthId);
+            out.writeInt(rows);
+            for (int[] column : columns) {
+                for (int row = 0; row < rows; row++) {
+                    out.writeInt(column[row]);
+                }
+            }
+        }
+    }
+}
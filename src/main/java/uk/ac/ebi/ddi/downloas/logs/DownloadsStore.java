@@ -0,0 +1,76 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import com.google.common.collect.Multiset;
+
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Data downloads aggregated by DB, accession, period, anonymised IP address and file name.
+ * Implementations must allow downloads to be added from many threads at the same time.
+ *
+ * @param <D> The enum of DBs whose downloads are stored
+ */
+public interface DownloadsStore<D extends Enum<D>> {
+
+    /**
+     * Receives the aggregated download counts of a DownloadsStore, one (db, accession, period,
+     * anonymised IP address, file name) combination at a time
+     */
+    interface DownloadsConsumer<D> {
+        void accept(D db, String accession, String period, String anonymisedIPAddress, String fileName, int count);
+    }
+
+    /**
+     * Add count downloads of fileName to the aggregated results
+     *
+     * @param db
+     * @param accession
+     * @param period
+     * @param anonymisedIPAddress
+     * @param fileName
+     * @param count
+     */
+    void add(D db, String accession, String period, String anonymisedIPAddress, String fileName, int count);
+
+    /**
+     * Pass each aggregated download count to consumer
+     *
+     * @param consumer
+     */
+    void forEach(DownloadsConsumer<D> consumer);
+
+    /**
+     * @param db
+     * @return A view of the downloads of db: a Map between each accession and a Map between each period
+     * and a map of anonymised IP addresses pointing to Multisets of their corresponding file names/download counts
+     */
+    Map<String, Map<String, Map<String, Multiset<String>>>> get(D db);
+
+    /**
+     * @param db
+     * @param accession
+     * @return A Map between each period and a map of anonymised IP addresses pointing to Multisets
+     * of their corresponding file names/download counts, for accession in db; null if accession has no downloads
+     */
+    Map<String, Map<String, Multiset<String>>> get(D db, String accession);
+
+    boolean isEmpty(D db);
+
+    /**
+     * Remove all the downloads in the periods matching periodFilter, of all DBs. N.B. Downloads in those periods
+     * added while this method runs may or may not be removed; those in other periods are never lost
+     *
+     * @param periodFilter
+     */
+    void removePeriods(Predicate<String> periodFilter);
+
+    /**
+     * Add all the downloads in other to the aggregated results
+     *
+     * @param other
+     */
+    default void addAll(DownloadsStore<D> other) {
+        other.forEach(this::add);
+    }
+}
@@ -1,7 +1,6 @@
 package uk.ac.ebi.ddi.downloas.logs;
 
 
-import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
 import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
@@ -18,50 +17,105 @@ import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.DateHistogramValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.TermsValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.metrics.max.Max;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ddi.downloas.ena.ENAAccessionResolver;
 import uk.ac.ebi.ddi.downloas.ena.ENAWsClient;
 import uk.ac.ebi.ddi.downloas.ena.ENAWsConfigProd;
 import uk.ac.ebi.ddi.downloas.utils.DateUtils;
+import uk.ac.ebi.ddi.downloas.utils.RetryClient;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 
 /**
  * @author Robert Petryszak rpetry
  * This class encapsulates the client functionality for accessing ElasticSearch behind Kibana,
- * where both ftp and Aspera data download logs are stored.
+ * where both ftp and Aspera data download logs are stored. N.B. Each client holds threads of its own until closed.
  */
-public class ElasticSearchWsClient {
+public class ElasticSearchWsClient extends RetryClient implements AutoCloseable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ElasticSearchWsClient.class);
 
     private static final int ELASTIC_TIMERANGE_LIMIT_DAYS = 30;
 
+    private static final String COMPOSITE_AGGREGATION_NAME = "downloads";
+    private static final String MAX_TIMESTAMP_AGGREGATION_NAME = "max_timestamp";
+    // Returned by ENAWsClient.getProjectAccessionOrDefault() for ENA accessions not cached - N.B. no project accession
+    // is empty
+    private static final String UNCACHED = "";
+
+    // Classifiers of file paths, compiled once from ElasticSearchWsConfigProd.PROTOCOL_2_DB_2_REGEX
+    private static final Map<ElasticSearchWsConfigProd.Protocol, PathClassifier> PATH_CLASSIFIERS =
+            new EnumMap<ElasticSearchWsConfigProd.Protocol, PathClassifier>(ElasticSearchWsConfigProd.Protocol.class) {
+                {
+                    for (ElasticSearchWsConfigProd.Protocol protocol : ElasticSearchWsConfigProd.Protocol.values()) {
+                        put(protocol, new PathClassifier(protocol));
+                    }
+                }
+            };
+
     private RestHighLevelClient restHighLevelClient;
 
-    private static Pattern datePattern = Pattern.compile(ElasticSearchWsConfigProd.YEAR_MONTH_DATE_REGEX);
+    private ElasticSearchWsConfigProd config;
+
+    // All the scroll jobs scheduled by this client so far, in the order in which they were scheduled
+    private final List<ScrollJob> scrollJobs = new CopyOnWriteArrayList<>();
+
+    // The scroll jobs scheduled by this client for ingestion windows - c.f. initialiseData()
+    private final Set<ScrollJob> windowJobs = Collections.newSetFromMap(new ConcurrentHashMap<>());
 
     // Client used for retrieving ENA project accessions corresponding to ENA accessions retrieved from ElasticSearch
-    private ENAWsClient enaWsClient = new ENAWsClient(new ENAWsConfigProd());
+    private final ENAWsClient enaWsClient;
+
+    // Resolver of ENA project accessions not yet cached by enaWsClient - c.f. config.isAsyncEnaResolution()
+    private final ENAAccessionResolver enaAccessionResolver;
 
-    // Hashmap for storing results aggregated by period (yyyy/mm)
-    // Because the set of ElasticSearchWsConfigProd.DB is static & will never be change,
-    //                                              so, use hashmap instead of concurrent hashmap
+    // The threads processing the log entries retrieved by all the scroll jobs of this client
+    private final ExecutorService hitProcessingPool;
+
+    // Store for results aggregated by period (c.f. PeriodGranularity), of the type configured for the first client
+    // instantiated
     // DB_TO_ACCESSION_TO_PERIOD_TO_ANONYMISED_IP_ADDRESS_TO_FILE_NAME
-    private static final Map<ElasticSearchWsConfigProd.DB, Map<String, Map<String, Map<String, Multiset<String>>>>>
-            DB_DATA = new HashMap<ElasticSearchWsConfigProd.DB,
-            Map<String, Map<String, Map<String, Multiset<String>>>>>() {
-        {
-            for (ElasticSearchWsConfigProd.DB db : ElasticSearchWsConfigProd.DB.values()) {
-                put(db, new HashMap<>());
-            }
-        }
-    };
+    private static DownloadsStore<ElasticSearchWsConfigProd.DB> dbData;
+
+    // The months whose downloads have all been added to dbData - and saved to the snapshot file
+    // (c.f. ElasticSearchWsConfigProd.getSnapshotFile()) - once a snapshot has been loaded
+    private static Set<String> snapshotMonths;
+
+    // The windows ingested into dbData so far - N.B. their downloads are only added to, or replaced in, dbData
+    // while holding the lock of LEDGER
+    private static final IngestionLedger LEDGER = new IngestionLedger();
 
     /**
      * Constructor that instantiates RestHighLevelClient object using constants in config
@@ -69,6 +123,21 @@ public class ElasticSearchWsClient {
      * @param config
      */
     public ElasticSearchWsClient(ElasticSearchWsConfigProd config) {
+        this(config, new ENAWsClient(new ENAWsConfigProd()));
+    }
+
+    /**
+     * Constructor that instantiates RestHighLevelClient object using constants in config
+     *
+     * @param config
+     * @param enaWsClient Client used for retrieving ENA project accessions - e.g. of an ENA portal other than
+     *                    the production one
+     */
+    public ElasticSearchWsClient(ElasticSearchWsConfigProd config, ENAWsClient enaWsClient) {
+        this.config = config;
+        this.enaWsClient = enaWsClient;
+        enaAccessionResolver = new ENAAccessionResolver(enaWsClient);
+        getDbData(config.getDownloadsStore());
         final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
         credentialsProvider.setCredentials(AuthScope.ANY,
                 new UsernamePasswordCredentials(config.getUsername(), config.password));
@@ -81,14 +150,328 @@ public class ElasticSearchWsClient {
                                 .setSocketTimeout(ElasticSearchWsConfigProd.SOCKET_TIMEOUT))
                 .setMaxRetryTimeoutMillis(ElasticSearchWsConfigProd.MAX_RETRY_TIMEOUT);
         restHighLevelClient = new RestHighLevelClient(builder);
+        AtomicInteger threadCount = new AtomicInteger();
+        hitProcessingPool = Executors.newFixedThreadPool(config.getProcessingThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "hit-processing-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
+    /**
+     * Retrieve all data download entries between from and to.
+     * Unless the periods are of PeriodGranularity.year, the entries are ingested per (protocol, window) - each window
+     * being a month, in UTC (as are the periods retrieved from ElasticSearch) - and recorded in the IngestionLedger,
+     * so that requesting windows again never double-counts any downloads: a window already ingested is topped up with
+     * only the entries logged since its high-water mark - or, if it is requested from an earlier time, or if the number
+     * of entries logged up to its high-water mark has changed since, the downloads of its month are re-ingested
+     * and replace those ingested previously. If config.getSnapshotFile() is set, the months in the snapshot
+     * are loaded from it instead, and the months completed since are saved to it - c.f. DownloadsSnapshot.
+     * The time range of each protocol to be retrieved is split into partitions of ELASTIC_TIMERANGE_LIMIT_DAYS days
+     * (in UTC), and each (partition x protocol) pair is retrieved as a separate ScrollJob - or as
+     * config.getScrollSlices() separate ScrollJobs, one per slice, if the retrieval is sliced; at most
+     * config.getMaxParallelScrolls() jobs are run at the same time.
+     *
+     * @param from
+     * @param to
+     */
     public void initialiseData(Date from, Date to) {
         enaWsClient.populateCache();
-        List<Tuple<Date, Date>> partitions = DateUtils.partition(from, to, ELASTIC_TIMERANGE_LIMIT_DAYS);
+        if (DownloadsSnapshot.supports(config.getPeriodGranularity())) {
+            ingestWindows(from, to);
+        } else {
+            runScrollJobs(scheduleScrollJobs(from, to, EnumSet.allOf(ElasticSearchWsConfigProd.Protocol.class)),
+                    job -> dbData);
+        }
+        enaWsClient.logCacheStats();
+    }
+
+    /**
+     * Top up the aggregated results with the data download entries logged since they were last retrieved, i.e. bring
+     * all the windows from the earliest one ingested up to now up to date - c.f. initialiseData(). This only queries
+     * ElasticSearch for the entries of each window above its high-water mark (and for the number of entries below it),
+     * so it can be run frequently, e.g. hourly.
+     *
+     * @throws IllegalStateException If no windows have been ingested yet
+     */
+    public void refresh() {
+        Long from = LEDGER.getFrom();
+        if (from == null) {
+            throw new IllegalStateException("No windows have been ingested yet");
+        }
+        initialiseData(new Date(from), new Date());
+    }
+
+    /**
+     * Stop the threads of this client - those processing log entries, resolving ENA accessions and connecting to
+     * ElasticSearch. N.B. The aggregated results, shared by all clients, are kept
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        hitProcessingPool.shutdownNow();
+        enaAccessionResolver.close();
+        restHighLevelClient.close();
+    }
+
+    /**
+     * @return The record of the windows ingested so far
+     */
+    public IngestionLedger getIngestionLedger() {
+        return LEDGER;
+    }
+
+    /**
+     * Bring the windows of all the months between from and to up to date - c.f. initialiseData()
+     *
+     * @param from
+     * @param to
+     */
+    private void ingestWindows(Date from, Date to) {
+        synchronized (LEDGER) {
+            PeriodGranularity periodGranularity = config.getPeriodGranularity();
+            Path snapshotFile = config.getSnapshotFile();
+            Set<String> months = snapshotFile != null ? loadSnapshot(snapshotFile, periodGranularity)
+                    : Collections.emptySet();
+            List<MonthIngestion> ingestions = new ArrayList<>();
+            YearMonth month = YearMonth.from(from.toInstant().atZone(ZoneOffset.UTC));
+            long monthFrom = from.getTime();
+            while (monthFrom <= to.getTime()) {
+                long nextMonthFrom = month.plusMonths(1).atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant()
+                        .toEpochMilli();
+                String monthStr = DownloadsSnapshot.getMonth(month);
+                if (!months.contains(monthStr)) {
+                    try {
+                        ingestions.add(planMonthIngestion(monthStr, monthFrom, Math.min(to.getTime(),
+                                nextMonthFrom - 1)));
+                    } catch (IOException | RuntimeException e) {
+                        LOGGER.error("Exception occurred, giving up on {} - it will be retrieved again by the next"
+                                + " refresh", monthStr, e);
+                    }
+                }
+                month = month.plusMonths(1);
+                monthFrom = nextMonthFrom;
+            }
+            Map<ScrollJob, DownloadsStore<ElasticSearchWsConfigProd.DB>> jobToDownloads = new LinkedHashMap<>();
+            for (MonthIngestion ingestion : ingestions) {
+                ingestion.getJobs().forEach(job -> jobToDownloads.put(job, ingestion.downloads));
+            }
+            windowJobs.addAll(jobToDownloads.keySet());
+            LOGGER.info("Retrieving {} windows of {} months", ingestions.stream()
+                    .mapToInt(ingestion -> ingestion.windows.size()).sum(), ingestions.size());
+            runScrollJobs(new ArrayList<>(jobToDownloads.keySet()), jobToDownloads::get);
+
+            Set<String> completeMonths = DownloadsSnapshot.getCompleteMonths(from.toInstant(), to.toInstant(),
+                    Instant.now(), ZoneOffset.UTC);
+            int newMonthCount = 0;
+            for (MonthIngestion ingestion : ingestions) {
+                if (!ingestion.getJobs().stream().allMatch(job -> job.getStatus() == ScrollJob.Status.done)) {
+                    LOGGER.error("Failed to retrieve {} - it will be retrieved again by the next refresh",
+                            ingestion.month);
+                    continue;
+                }
+                if (ingestion.replace) {
+                    dbData.removePeriods(period -> ingestion.month.equals(DownloadsSnapshot.getMonth(period)));
+                }
+                dbData.addAll(ingestion.downloads);
+                for (Window window : ingestion.windows) {
+                    LEDGER.put(window.protocol, ingestion.month, window.getEntry());
+                }
+                if (snapshotFile != null && completeMonths.contains(ingestion.month)) {
+                    months.add(ingestion.month);
+                    newMonthCount++;
+                }
+            }
+            if (newMonthCount > 0) {
+                saveSnapshot(snapshotFile, periodGranularity);
+            }
+        }
+    }
+
+    /**
+     * @param month
+     * @param from  The start (epoch ms) of the time range of month requested
+     * @param to    The end (epoch ms, inclusive) of the time range of month requested
+     * @return The ingestion bringing the windows of month up to date - by topping them up, or, if any of them has not
+     * been ingested yet, is requested from an earlier time than it was ingested from, or has had entries logged below
+     * its high-water mark since, by re-ingesting all of them
+     * @throws IOException
+     */
+    private MonthIngestion planMonthIngestion(String month, long from, long to) throws IOException {
+        Map<ElasticSearchWsConfigProd.Protocol, IngestionLedger.Entry> entries =
+                new EnumMap<>(ElasticSearchWsConfigProd.Protocol.class);
+        boolean reingest = false;
+        for (ElasticSearchWsConfigProd.Protocol protocol : ElasticSearchWsConfigProd.Protocol.values()) {
+            IngestionLedger.Entry entry = LEDGER.get(protocol, month);
+            if (entry == null || entry.getFrom() > from) {
+                reingest = true;
+            } else if (getWindowStats(protocol, entry.getFrom(), entry.getHighWaterMark()).v1()
+                    != entry.getDocCount()) {
+                LOGGER.info("{} {} has changed since it was retrieved - retrieving it again", protocol, month);
+                reingest = true;
+            }
+            if (entry != null) {
+                entries.put(protocol, entry);
+            }
+        }
+        MonthIngestion ingestion = new MonthIngestion(month, reingest && !entries.isEmpty());
+        long reingestFrom = from;
+        long reingestTo = to;
+        for (IngestionLedger.Entry entry : entries.values()) {
+            reingestFrom = Math.min(reingestFrom, entry.getFrom());
+            reingestTo = Math.max(reingestTo, entry.getHighWaterMark());
+        }
+        for (ElasticSearchWsConfigProd.Protocol protocol : ElasticSearchWsConfigProd.Protocol.values()) {
+            IngestionLedger.Entry entry = entries.get(protocol);
+            Window window;
+            if (reingest) {
+                window = new Window(protocol, reingestFrom, reingestFrom - 1, 0);
+            } else {
+                window = new Window(protocol, entry.getFrom(), entry.getHighWaterMark(), entry.getDocCount());
+            }
+            long windowFrom = window.highWaterMark + 1;
+            long windowTo = reingest ? reingestTo : to;
+            if (windowFrom <= windowTo) {
+                Tuple<Long, Long> stats = getWindowStats(protocol, windowFrom, windowTo);
+                if (stats.v1() > 0) {
+                    window.highWaterMark = stats.v2();
+                    window.jobs.addAll(scheduleScrollJobs(new Date(windowFrom), new Date(window.highWaterMark),
+                            EnumSet.of(protocol)));
+                }
+            }
+            if (reingest || !window.jobs.isEmpty()) {
+                ingestion.windows.add(window);
+            }
+        }
+        return ingestion;
+    }
+
+    /**
+     * @param protocol
+     * @param from     epoch ms
+     * @param to       epoch ms, inclusive
+     * @return The number of relevant data download entries for protocol between from and to, and the greatest
+     * timestamp (epoch ms) among them - from - 1 if there are none
+     * @throws IOException
+     */
+    private Tuple<Long, Long> getWindowStats(ElasticSearchWsConfigProd.Protocol protocol, long from, long to)
+            throws IOException {
+        SearchRequest searchRequest = new SearchRequest(protocol.toString() + "logs-*");
+        searchRequest.source(new SearchSourceBuilder()
+                .query(buildQuery(protocol, new Tuple<>(new Date(from), new Date(to))))
+                .size(0)
+                .aggregation(AggregationBuilders.max(MAX_TIMESTAMP_AGGREGATION_NAME)
+                        .field(ElasticSearchWsConfigProd.TIMESTAMP_FIELD)));
+        SearchResponse searchResponse = getRetryTemplate().execute(
+                ctx -> restHighLevelClient.search(searchRequest, RequestOptions.DEFAULT));
+        long docCount = searchResponse.getHits().getTotalHits();
+        Max maxTimestamp = searchResponse.getAggregations().get(MAX_TIMESTAMP_AGGREGATION_NAME);
+        return new Tuple<>(docCount, docCount > 0 ? (long) maxTimestamp.getValue() : from - 1);
+    }
+
+    /**
+     * @param from
+     * @param to
+     * @param protocols
+     * @return The ScrollJobs retrieving all data download entries for protocols between from and to
+     * - c.f. initialiseData()
+     */
+    private List<ScrollJob> scheduleScrollJobs(Date from, Date to,
+                                               Set<ElasticSearchWsConfigProd.Protocol> protocols) {
+        List<Tuple<Date, Date>> partitions = from.before(to)
+                ? DateUtils.partition(from, to, ELASTIC_TIMERANGE_LIMIT_DAYS, ZoneOffset.UTC)
+                : Collections.singletonList(new Tuple<>(from, to));
         LOGGER.info("Time ranger to be retrieved: ");
         partitions.forEach(x -> LOGGER.info("--> {}", x));
-        partitions.forEach(x -> retrieveDataFromElasticSearch(null, null, null, x));
+        List<ScrollJob> jobs = new ArrayList<>();
+        for (Tuple<Date, Date> partition : partitions) {
+            for (ElasticSearchWsConfigProd.Protocol protocol : protocols) {
+                int slices = config.getRetrievalEngine() == ElasticSearchWsConfigProd.RetrievalEngine.scroll
+                        ? config.getScrollSlices() : 1;
+                for (int sliceId = 0; sliceId < slices; sliceId++) {
+                    jobs.add(new ScrollJob(protocol, partition, sliceId, slices));
+                }
+            }
+        }
+        scrollJobs.addAll(jobs);
+        return jobs;
+    }
+
+    /**
+     * Load the downloads in snapshotFile into dbData, unless a snapshot has already been loaded
+     *
+     * @param snapshotFile
+     * @param periodGranularity
+     * @return The months whose downloads have all been added to dbData - from snapshotFile or since
+     */
+    private static synchronized Set<String> loadSnapshot(Path snapshotFile, PeriodGranularity periodGranularity) {
+        if (snapshotMonths == null) {
+            snapshotMonths = Collections.synchronizedSet(new TreeSet<>());
+            if (Files.isRegularFile(snapshotFile)) {
+                long startTime = System.currentTimeMillis();
+                // N.B. The snapshot is only added to dbData once all of it has been read
+                DownloadsStore<ElasticSearchWsConfigProd.DB> snapshot =
+                        newDbData(ElasticSearchWsConfigProd.StoreType.concurrent);
+                try {
+                    snapshotMonths.addAll(DownloadsSnapshot.read(snapshotFile, ElasticSearchWsConfigProd.DB.class,
+                            periodGranularity, snapshot));
+                    dbData.addAll(snapshot);
+                    LOGGER.info("Loaded the downloads of {} months from {} in {} ms", snapshotMonths.size(),
+                            snapshotFile, System.currentTimeMillis() - startTime);
+                } catch (IOException e) {
+                    snapshotMonths.clear();
+                    LOGGER.warn("Failed to load downloads snapshot - rebuilding it: {}", e.getMessage());
+                }
+            } else {
+                LOGGER.info("No downloads snapshot found in {} - rebuilding it", snapshotFile);
+            }
+        }
+        return snapshotMonths;
+    }
+
+    /**
+     * Save the downloads of the months in snapshotMonths to snapshotFile
+     *
+     * @param snapshotFile
+     * @param periodGranularity
+     */
+    private static synchronized void saveSnapshot(Path snapshotFile, PeriodGranularity periodGranularity) {
+        try {
+            int rows = DownloadsSnapshot.write(snapshotFile, periodGranularity, dbData, snapshotMonths);
+            LOGGER.info("Saved {} downloads of {} months to {}", rows, snapshotMonths.size(), snapshotFile);
+        } catch (IOException e) {
+            LOGGER.error("Failed to save downloads snapshot to {}", snapshotFile, e);
+        }
+    }
+
+    /**
+     * Re-run all the scroll jobs that failed in previous calls to initialiseData(). Because the data retrieved
+     * by a job is only added to the aggregated results once that job has succeeded, the failed time ranges
+     * can be retrieved again on their own, without double-counting any downloads.
+     * N.B. The jobs of windows (c.f. initialiseData()) are not re-run - their windows are retrieved again
+     * by the next refresh() instead
+     */
+    public void retryFailedJobs() {
+        List<ScrollJob> failedJobs = getFailedJobs();
+        failedJobs.removeAll(windowJobs);
+        runScrollJobs(failedJobs, job -> dbData);
+    }
+
+    /**
+     * @return All the scroll jobs scheduled by this client so far, together with their progress
+     */
+    public List<ScrollJob> getScrollJobs() {
+        return Collections.unmodifiableList(scrollJobs);
+    }
+
+    /**
+     * @return Scroll jobs that could not be completed, even after retries
+     */
+    public List<ScrollJob> getFailedJobs() {
+        return scrollJobs.stream()
+                .filter(job -> job.getStatus() == ScrollJob.Status.failed)
+                .collect(Collectors.toList());
     }
 
     /**
@@ -97,24 +480,129 @@ public class ElasticSearchWsClient {
      * @return
      */
     public Map<String, Map<String, Map<String, Multiset<String>>>> getDownloadsData(ElasticSearchWsConfigProd.DB db) {
-        if (DB_DATA.containsKey(db)) {
-            return DB_DATA.get(db);
+        if (db != null) {
+            return dbData.get(db);
         }
         return Collections.emptyMap();
     }
 
     /**
-     * Function to retrieve all relevant data download entries for the current year from ftp- and
-     * Aspera-specific ElasticSearch indexes,
-     * and aggregate them in the static dbToAccessionToPeriodToFileName data structure
+     * Return Downloads data of a specific dataset. Unlike getDownloadsData(db).get(accession), this does not
+     * require the downloads of the other datasets in db to be materialised - c.f. CompactDownloadsStore
+     *
+     * @param db
+     * @param accession
+     * @return A Map between each period and a map of anonymised IP addresses pointing to Multisets of their
+     * corresponding file names/download counts; null if no downloads of accession have been retrieved
+     */
+    public Map<String, Map<String, Multiset<String>>> getDownloadsData(ElasticSearchWsConfigProd.DB db,
+                                                                       String accession) {
+        return dbData.get(db, accession);
+    }
+
+    /**
+     * Retrieve all data download entries between from and to into a new store, rather than into the aggregated
+     * results - e.g. to compare the results of different configurations
+     *
+     * @param from
+     * @param to
+     * @return The downloads retrieved - by the jobs that succeeded
+     */
+    DownloadsStore<ElasticSearchWsConfigProd.DB> retrieveData(Date from, Date to) {
+        DownloadsStore<ElasticSearchWsConfigProd.DB> downloads = newDbData(config.getDownloadsStore());
+        runScrollJobs(scheduleScrollJobs(from, to, EnumSet.allOf(ElasticSearchWsConfigProd.Protocol.class)),
+                job -> downloads);
+        return downloads;
+    }
+
+    /**
+     * Run jobs, at most config.getMaxParallelScrolls() of them at the same time, and wait for all of them to finish
+     *
+     * @param jobs
+     * @param jobToDownloads The store to which the data retrieved by each job is added
+     */
+    private void runScrollJobs(List<ScrollJob> jobs,
+                               Function<ScrollJob, DownloadsStore<ElasticSearchWsConfigProd.DB>> jobToDownloads) {
+        if (jobs.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(config.getMaxParallelScrolls(), jobs.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (ScrollJob job : jobs) {
+                futures.add(executor.submit(() -> runScrollJob(job, jobToDownloads.apply(job))));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Interrupted while waiting for scroll jobs to finish");
+        } catch (ExecutionException e) {
+            LOGGER.error("Exception occurred, {}", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        List<ScrollJob> failedJobs = getFailedJobs();
+        if (!failedJobs.isEmpty()) {
+            LOGGER.error("{} scroll job(s) failed - use retryFailedJobs() (or refresh(), for the jobs of windows)"
+                    + " to retrieve them again:", failedJobs.size());
+            failedJobs.forEach(job -> LOGGER.error("--> {}", job));
+        }
+    }
+
+    /**
+     * Retrieve the data for job into a job-specific data structure, retrying the job on failure.
+     * The retrieved data is only added to downloads once all of it has been retrieved successfully.
+     *
+     * @param job
+     * @param downloads
+     */
+    private void runScrollJob(ScrollJob job, DownloadsStore<ElasticSearchWsConfigProd.DB> downloads) {
+        try {
+            getRetryTemplate().execute(ctx -> {
+                job.startAttempt();
+                DownloadsStore<ElasticSearchWsConfigProd.DB> jobData = newDbData(config.getDownloadsStore());
+                try {
+                    if (config.getRetrievalEngine() == ElasticSearchWsConfigProd.RetrievalEngine.compositeAggregation) {
+                        retrieveDataFromAggregations(null, null, job, jobData);
+                    } else {
+                        retrieveDataFromElasticSearch(null, null, null, job, jobData);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.warn("Attempt {} of {} failed: {}", job.getAttempts(), job, e.getMessage());
+                    job.attemptFailed(e);
+                    throw e;
+                }
+                downloads.addAll(jobData);
+                return null;
+            });
+            job.done();
+        } catch (IOException | RuntimeException e) {
+            job.failed();
+            LOGGER.error("Exception occurred, giving up on {}", job, e);
+        }
+    }
+
+    /**
+     * Function to retrieve all relevant data download entries for job's protocol and time range (and slice,
+     * if job is sliced) from the protocol-specific ElasticSearch index, and aggregate them in downloads.
+     * Each slice is retrieved via its own scroll cursor. The pages retrieved are processed by hitProcessingPool
+     * while the next pages are fetched - at most config.getPrefetchPages() of them at a time (c.f. PagesInFlight).
      *
      * @param batchSize          If not null, size of each batch to be retrieved from ElasticSearch
      * @param reportingFrequency If not null, the total so far of the records retrieved from ElasticSearch
      *                           is output every reportingFrequency records
      * @param maxHits            If not null, the maximum number of records to be retrieved (used for testing)
+     * @param job
+     * @param downloads
      */
-    private void retrieveDataFromElasticSearch(Integer batchSize, Integer reportingFrequency, Integer maxHits,
-                                               Tuple<Date, Date> timeRange) {
+    private void retrieveDataFromElasticSearch(
+            Integer batchSize, Integer reportingFrequency, Integer maxHits, ScrollJob job,
+            DownloadsStore<ElasticSearchWsConfigProd.DB> downloads)
+            throws IOException {
+        Tuple<Date, Date> timeRange = job.getTimeRange();
+        ElasticSearchWsConfigProd.Protocol protocol = job.getProtocol();
         LOGGER.info("Starting to retrieve data {}", timeRange);
 
         if (batchSize == null) {
@@ -124,88 +612,208 @@ public class ElasticSearchWsClient {
             reportingFrequency = ElasticSearchWsConfigProd.DEFAULT_PROGRESS_REPORTING_FREQ;
         }
 
-        Date firstDateOfPreviousMonth = timeRange.v1();
-        Date lastDateOfPreviousMonth = timeRange.v2();
+        LOGGER.info("Starting on protocol: {}", protocol.toString());
+        String protocolStr = protocol.toString();
+        // C.f. https://www.elastic.co/guide/en/elasticsearch/client/java-rest/master/java-rest-high-search-scroll.html
+        // Initialise the search scroll context
+        SearchRequest searchRequest = new SearchRequest(protocolStr + "logs-*");
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        BoolQueryBuilder builder = buildQuery(protocol, timeRange);
+        if (config.isServerSideFiltering()) {
+            searchSourceBuilder.fetchSource(ElasticSearchWsConfigProd.SOURCE_FIELDS, null);
+        }
 
-        for (ElasticSearchWsConfigProd.Protocol protocol : ElasticSearchWsConfigProd.Protocol.values()) {
-            LOGGER.info("Starting on protocol: {}", protocol.toString());
-            String protocolStr = protocol.toString();
-            // C.f. https://www.elastic.co/guide/en/elasticsearch/client/java-rest/master/java-rest-high-search-scroll.html
-            // Initialise the search scroll context
-            SearchRequest searchRequest = new SearchRequest(protocolStr + "logs-*");
-            SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
-            BoolQueryBuilder builder = QueryBuilders.boolQuery()
-                    .must(QueryBuilders.rangeQuery("@timestamp")
-                            .to(lastDateOfPreviousMonth)
-                            .from(firstDateOfPreviousMonth))
-                    .must(QueryBuilders.existsQuery("source"))
-                    .must(QueryBuilders.existsQuery("uhost"))
-                    .mustNot(QueryBuilders.termQuery("file_size", "0"));
-
-            searchSourceBuilder.query(builder);
-            searchSourceBuilder.size(batchSize);
-            searchRequest.source(searchSourceBuilder);
-            searchRequest.scroll(TimeValue.timeValueMinutes(ElasticSearchWsConfigProd.SCROLL_VALID_PERIOD));
-            try {
-                SearchResponse searchResponse = restHighLevelClient.search(searchRequest, RequestOptions.DEFAULT);
-                String scrollId = searchResponse.getScrollId();
-                SearchHit[] searchHits = searchResponse.getHits().getHits();
-                getValuesFromHits(searchHits, protocol, enaWsClient);
-
-                // Retrieve all the relevant documents
-                int searchHitsCount = 0;
-                while (searchHits != null && searchHits.length > 0 && (maxHits == null || searchHitsCount < maxHits)) {
-                    SearchScrollRequest scrollRequest = new SearchScrollRequest(scrollId);
-                    scrollRequest.scroll(TimeValue.timeValueSeconds(ElasticSearchWsConfigProd.SCROLL_VALID_PERIOD));
-                    SearchResponse searchScrollResponse = restHighLevelClient.scroll(
-                            scrollRequest, RequestOptions.DEFAULT);
-                    scrollId = searchScrollResponse.getScrollId();
-                    searchHits = searchScrollResponse.getHits().getHits();
-                    if (searchHits != null) {
-                        getValuesFromHits(searchHits, protocol, enaWsClient);
-                        searchHitsCount += batchSize;
-                        if ((searchHitsCount % reportingFrequency) == 0) {
-                            LOGGER.info("Hit count: {}", searchHitsCount);
-                        }
-                    }
+        searchSourceBuilder.query(builder);
+        searchSourceBuilder.size(batchSize);
+        if (job.isSliced()) {
+            searchSourceBuilder.slice(new SliceBuilder(job.getSliceId(), job.getMaxSlices()));
+        }
+        searchRequest.source(searchSourceBuilder);
+        searchRequest.scroll(TimeValue.timeValueMinutes(ElasticSearchWsConfigProd.SCROLL_VALID_PERIOD));
+        SearchResponse searchResponse = restHighLevelClient.search(searchRequest, RequestOptions.DEFAULT);
+        String scrollId = searchResponse.getScrollId();
+        SearchHit[] searchHits = searchResponse.getHits().getHits();
+        ParkedENADownloads parkedENADownloads = newParkedENADownloads(downloads);
+        PagesInFlight pagesInFlight = new PagesInFlight(config.getPrefetchPages());
+        submitPage(pagesInFlight, searchHits, protocol, downloads, parkedENADownloads);
+        job.addHits(searchHits.length);
+
+        // Retrieve all the relevant documents
+        while (searchHits != null && searchHits.length > 0 && (maxHits == null || job.getHitCount() < maxHits)) {
+            SearchScrollRequest scrollRequest = new SearchScrollRequest(scrollId);
+            scrollRequest.scroll(TimeValue.timeValueSeconds(ElasticSearchWsConfigProd.SCROLL_VALID_PERIOD));
+            SearchResponse searchScrollResponse = restHighLevelClient.scroll(
+                    scrollRequest, RequestOptions.DEFAULT);
+            scrollId = searchScrollResponse.getScrollId();
+            searchHits = searchScrollResponse.getHits().getHits();
+            if (searchHits != null) {
+                submitPage(pagesInFlight, searchHits, protocol, downloads, parkedENADownloads);
+                long previousHitCount = job.getHitCount();
+                long searchHitsCount = job.addHits(searchHits.length);
+                if (searchHitsCount / reportingFrequency > previousHitCount / reportingFrequency) {
+                    LOGGER.info("Hit count: {} - {}", searchHitsCount, job);
                 }
-//                ClearScrollRequest request = new ClearScrollRequest();
-//                request.addScrollId(scrollId);
-//                restHighLevelClient.clearScroll(request, RequestOptions.DEFAULT);
-                LOGGER.info("Done retrieving {} download data", protocolStr);
-            } catch (IOException ioe) {
-                LOGGER.error("Exception occurred, {}", ioe);
             }
         }
+        clearScroll(scrollId);
+        awaitPages(pagesInFlight);
+        creditParkedENADownloads(parkedENADownloads, job);
+        LOGGER.info("Done retrieving {} download data - {}", protocolStr, job);
     }
 
     /**
-     * @param db
-     * @param filePath
-     * @param accessionRegex
-     * @return A tuple first accession and then the name of the file being downloaded
-     */
-    private static Tuple<String, String> getAccessionAndFileName(ElasticSearchWsConfigProd.DB db, String filePath,
-                                                                 Pattern accessionRegex, ENAWsClient enaWsClient) {
-        // c.f. [/\\.] below for retrieval of e.g. /GCA_002757455 from /GCA_002757455.1_
-        Matcher matcher = accessionRegex.matcher(filePath);
-        boolean b = matcher.find();
-        // Retrieve file name
-        String[] arr = filePath.split("/");
-        String fileName = arr[arr.length - 1];
-        // Retrieve accession
-        String omicsDIAccession = null;
-        if (b) {
-            String esAccession = matcher.group(0).replaceAll("^/|[_/]+$", "");
-            if (db == ElasticSearchWsConfigProd.DB.ENA) {
-                omicsDIAccession = enaWsClient.getProjectAccession(esAccession);
-            } else {
-                omicsDIAccession = esAccession;
+     * Function to retrieve the number of all relevant data download entries per distinct (file_name, uhost, @timestamp)
+     * for job's protocol and time range from the protocol-specific ElasticSearch index, and aggregate them
+     * in downloads.
+     * The results are identical to those of retrieveDataFromElasticSearch(), but rather than every log entry, only
+     * the keys of a composite aggregation - and their document counts - are retrieved and classified.
+     *
+     * @param batchSize          If not null, the number of composite aggregation buckets to be retrieved at a time
+     * @param reportingFrequency If not null, the total so far of the records aggregated by ElasticSearch
+     *                           is output every reportingFrequency records
+     * @param job
+     * @param downloads
+     */
+    private void retrieveDataFromAggregations(
+            Integer batchSize, Integer reportingFrequency, ScrollJob job,
+            DownloadsStore<ElasticSearchWsConfigProd.DB> downloads)
+            throws IOException {
+        ElasticSearchWsConfigProd.Protocol protocol = job.getProtocol();
+        LOGGER.info("Starting to retrieve aggregated data {} on protocol: {}", job.getTimeRange(), protocol);
+        if (batchSize == null) {
+            batchSize = ElasticSearchWsConfigProd.DEFAULT_QUERY_BATCH_SIZE;
+        }
+        if (reportingFrequency == null) {
+            reportingFrequency = ElasticSearchWsConfigProd.DEFAULT_PROGRESS_REPORTING_FREQ;
+        }
+        // C.f. https://www.elastic.co/guide/en/elasticsearch/reference/6.4/search-aggregations-bucket-composite-aggregation.html
+        List<CompositeValuesSourceBuilder<?>> sources = new ArrayList<>();
+        sources.add(new TermsValuesSourceBuilder(ElasticSearchWsConfigProd.FILE_NAME_FIELD)
+                .field(ElasticSearchWsConfigProd.FILE_NAME_FIELD));
+        sources.add(new TermsValuesSourceBuilder(ElasticSearchWsConfigProd.UHOST_FIELD)
+                .field(ElasticSearchWsConfigProd.UHOST_FIELD));
+        // N.B. @timestamp values are bucketed by ElasticSearch into the configured periods
+        PeriodGranularity periodGranularity = config.getPeriodGranularity();
+        sources.add(new DateHistogramValuesSourceBuilder(ElasticSearchWsConfigProd.TIMESTAMP_FIELD)
+                .field(ElasticSearchWsConfigProd.TIMESTAMP_FIELD)
+                .dateHistogramInterval(periodGranularity.getDateHistogramInterval()));
+        BoolQueryBuilder builder = buildQuery(protocol, job.getTimeRange());
+
+        ParkedENADownloads parkedENADownloads = newParkedENADownloads(downloads);
+        Map<String, Object> afterKey = null;
+        do {
+            CompositeAggregationBuilder aggregation =
+                    new CompositeAggregationBuilder(COMPOSITE_AGGREGATION_NAME, sources).size(batchSize);
+            if (afterKey != null) {
+                aggregation.aggregateAfter(afterKey);
             }
-        } else {
-            LOGGER.debug("Failed to retrieve accession from: {} - using accession regex: " + accessionRegex, filePath);
+            SearchRequest searchRequest = new SearchRequest(protocol.toString() + "logs-*");
+            searchRequest.source(new SearchSourceBuilder().query(builder).size(0).aggregation(aggregation));
+            SearchResponse searchResponse = restHighLevelClient.search(searchRequest, RequestOptions.DEFAULT);
+            CompositeAggregation compositeAggregation =
+                    searchResponse.getAggregations().get(COMPOSITE_AGGREGATION_NAME);
+            List<? extends CompositeAggregation.Bucket> buckets = compositeAggregation.getBuckets();
+            processInParallel(buckets.size(), i -> {
+                CompositeAggregation.Bucket bucket = buckets.get(i);
+                Map<String, Object> key = bucket.getKey();
+                // N.B. date_histogram keys are the epoch milliseconds at which each bucket starts
+                long bucketStart = ((Number) key.get(ElasticSearchWsConfigProd.TIMESTAMP_FIELD)).longValue();
+                addDownloads(protocol, downloads, parkedENADownloads,
+                        key.get(ElasticSearchWsConfigProd.UHOST_FIELD).toString(),
+                        key.get(ElasticSearchWsConfigProd.FILE_NAME_FIELD).toString(),
+                        periodGranularity.getPeriod(bucketStart), (int) bucket.getDocCount());
+            }).join();
+            long docCount = buckets.stream().mapToLong(CompositeAggregation.Bucket::getDocCount).sum();
+            long previousHitCount = job.getHitCount();
+            long searchHitsCount = job.addHits((int) docCount);
+            if (searchHitsCount / reportingFrequency > previousHitCount / reportingFrequency) {
+                LOGGER.info("Hit count: {} - {}", searchHitsCount, job);
+            }
+            afterKey = buckets.isEmpty() ? null : compositeAggregation.afterKey();
+        } while (afterKey != null);
+        creditParkedENADownloads(parkedENADownloads, job);
+        LOGGER.info("Done retrieving aggregated {} download data - {}", protocol, job);
+    }
+
+    /**
+     * @param protocol
+     * @param timeRange
+     * @return The query selecting all relevant data download entries for protocol within timeRange
+     */
+    private BoolQueryBuilder buildQuery(ElasticSearchWsConfigProd.Protocol protocol, Tuple<Date, Date> timeRange) {
+        BoolQueryBuilder builder = QueryBuilders.boolQuery()
+                .must(QueryBuilders.rangeQuery("@timestamp")
+                        .to(timeRange.v2())
+                        .from(timeRange.v1()))
+                .must(QueryBuilders.existsQuery("source"))
+                .must(QueryBuilders.existsQuery("uhost"))
+                .mustNot(QueryBuilders.termQuery("file_size", "0"));
+        if (config.isServerSideFiltering()) {
+            addFileNameFilter(builder, protocol);
         }
-        return new Tuple<>(omicsDIAccession, fileName);
+        return builder;
+    }
+
+    /**
+     * Restrict the log entries retrieved from ElasticSearch to those that getValuesFromHits() can make use of
+     *
+     * @param builder
+     * @param protocol
+     */
+    private static void addFileNameFilter(BoolQueryBuilder builder, ElasticSearchWsConfigProd.Protocol protocol) {
+        List<String> fileNameWildcards = ElasticSearchWsConfigProd.getFileNameWildcards(protocol);
+        if (!fileNameWildcards.isEmpty()) {
+            // Leave out the file paths that none of the DBs' positive regexes could match
+            BoolQueryBuilder fileNameFilter = QueryBuilders.boolQuery().minimumShouldMatch(1);
+            for (String wildcard : fileNameWildcards) {
+                fileNameFilter.should(QueryBuilders.wildcardQuery(ElasticSearchWsConfigProd.FILE_NAME_FIELD, wildcard));
+            }
+            builder.filter(fileNameFilter);
+        }
+    }
+
+    /**
+     * Release the resources held by ElasticSearch for scrollId, rather than keeping them until the scroll
+     * times out (after SCROLL_VALID_PERIOD) - this matters when many (sliced) scroll cursors are used
+     *
+     * @param scrollId
+     */
+    private void clearScroll(String scrollId) {
+        if (scrollId == null) {
+            return;
+        }
+        ClearScrollRequest request = new ClearScrollRequest();
+        request.addScrollId(scrollId);
+        try {
+            restHighLevelClient.clearScroll(request, RequestOptions.DEFAULT);
+        } catch (IOException | RuntimeException e) {
+            // All the data has been retrieved at this point - the scroll will time out on its own
+            LOGGER.warn("Failed to clear scroll: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @param storeType
+     * @return An empty DB_TO_ACCESSION_TO_PERIOD_TO_ANONYMISED_IP_ADDRESS_TO_FILE_NAME data structure of storeType
+     */
+    private static DownloadsStore<ElasticSearchWsConfigProd.DB> newDbData(
+            ElasticSearchWsConfigProd.StoreType storeType) {
+        if (storeType == ElasticSearchWsConfigProd.StoreType.compact) {
+            return new CompactDownloadsStore<>(ElasticSearchWsConfigProd.DB.class);
+        }
+        return new ConcurrentDownloadsStore<>(ElasticSearchWsConfigProd.DB.class);
+    }
+
+    /**
+     * @param storeType The type of store to create, if the aggregated results have not been initialised yet
+     * @return The aggregated results
+     */
+    private static synchronized DownloadsStore<ElasticSearchWsConfigProd.DB> getDbData(
+            ElasticSearchWsConfigProd.StoreType storeType) {
+        if (dbData == null) {
+            dbData = newDbData(storeType);
+        }
+        return dbData;
     }
 
     /**
@@ -217,78 +825,276 @@ public class ElasticSearchWsClient {
      * @param fileName
      */
 
-    public static synchronized void addToResults(ElasticSearchWsConfigProd.DB db, String accession, String period,
+    public static void addToResults(ElasticSearchWsConfigProd.DB db, String accession, String period,
                                     String anonymisedIPAddress, String fileName) {
-        if (!DB_DATA.get(db).containsKey(accession)) {
-            // We haven't seen this accession before
-            Map<String, Map<String, Multiset<String>>> periodToAnonymisedIPAddressToFileNames = new HashMap<>();
-            Map<String, Multiset<String>> anonymisedIPAddressToFileNames = new HashMap<>();
-            // N.B. We use Multiset to maintain counts per individual download file
-            anonymisedIPAddressToFileNames.put(anonymisedIPAddress, HashMultiset.create());
-            anonymisedIPAddressToFileNames.get(anonymisedIPAddress).add(fileName);
-            periodToAnonymisedIPAddressToFileNames.put(period, anonymisedIPAddressToFileNames);
-            DB_DATA.get(db).put(accession, periodToAnonymisedIPAddressToFileNames);
-        } else {
-            // We've seen this accession before
-            if (!DB_DATA.get(db).get(accession).containsKey(period)) {
-                // We haven't seen this period for this accession before
-                Map<String, Multiset<String>> anonymisedIPAddressToFileNames = new HashMap<>();
-                anonymisedIPAddressToFileNames.put(anonymisedIPAddress, HashMultiset.create());
-                DB_DATA.get(db).get(accession).put(period, anonymisedIPAddressToFileNames);
-            } else {
-                // We have seen this period for this accession before
-                if (!DB_DATA.get(db).get(accession).get(period)
-                        .containsKey(anonymisedIPAddress)) {
-                    // We haven't seen this anonymisedIPAddress for that accession and period before
-                    Map<String, Multiset<String>> anonymisedIPAddressToFileNames = new HashMap<>();
-                    anonymisedIPAddressToFileNames.put(anonymisedIPAddress, HashMultiset.create());
-                    DB_DATA.get(db).get(accession).put(period, anonymisedIPAddressToFileNames);
+        getDbData(ElasticSearchWsConfigProd.StoreType.concurrent)
+                .add(db, accession, period, anonymisedIPAddress, fileName, 1);
+    }
+
+    /**
+     * @param downloads
+     * @return A store for the ENA downloads to be credited to downloads once their project accessions have been
+     * resolved; null if ENA project accessions are to be resolved synchronously
+     */
+    private ParkedENADownloads newParkedENADownloads(DownloadsStore<ElasticSearchWsConfigProd.DB> downloads) {
+        return config.isAsyncEnaResolution() ? new ParkedENADownloads(enaAccessionResolver, downloads) : null;
+    }
+
+    /**
+     * @param parkedENADownloads
+     * @param job                The job that parked parkedENADownloads
+     */
+    private static void creditParkedENADownloads(ParkedENADownloads parkedENADownloads, ScrollJob job) {
+        if (parkedENADownloads != null && parkedENADownloads.size() > 0) {
+            LOGGER.info("Waiting for {} ENA accessions to be resolved - {}", parkedENADownloads.size(), job);
+            parkedENADownloads.credit();
+        }
+    }
+
+    /**
+     * Process searchHits on hitProcessingPool, once fewer than config.getPrefetchPages() pages are in flight
+     * - or, if pages are not prefetched, wait for searchHits to be processed
+     *
+     * @param pagesInFlight
+     * @param searchHits
+     * @param protocol
+     * @param downloads
+     * @param parkedENADownloads
+     * @throws IOException If interrupted
+     */
+    private void submitPage(PagesInFlight pagesInFlight, SearchHit[] searchHits,
+                            ElasticSearchWsConfigProd.Protocol protocol,
+                            DownloadsStore<ElasticSearchWsConfigProd.DB> downloads,
+                            ParkedENADownloads parkedENADownloads) throws IOException {
+        try {
+            pagesInFlight.add(() -> getValuesFromHits(searchHits, protocol, downloads, parkedENADownloads));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for pages to be processed", e);
+        }
+        if (config.getPrefetchPages() == 0) {
+            awaitPages(pagesInFlight);
+        }
+    }
+
+    /**
+     * @param pagesInFlight
+     * @throws IOException If interrupted
+     */
+    private static void awaitPages(PagesInFlight pagesInFlight) throws IOException {
+        try {
+            pagesInFlight.awaitAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for pages to be processed", e);
+        }
+    }
+
+    /**
+     * Process the elements from 0 to count - 1 on hitProcessingPool, split into up to
+     * config.getProcessingThreads() contiguous ranges
+     *
+     * @param count
+     * @param elementProcessor
+     * @return A future completed once all the elements have been processed
+     */
+    private CompletableFuture<Void> processInParallel(int count, IntConsumer elementProcessor) {
+        int rangeCount = Math.max(1, Math.min(config.getProcessingThreads(), count));
+        CompletableFuture<?>[] ranges = new CompletableFuture<?>[rangeCount];
+        for (int range = 0; range < rangeCount; range++) {
+            int from = (int) ((long) count * range / rangeCount);
+            int to = (int) ((long) count * (range + 1) / rangeCount);
+            ranges[range] = CompletableFuture.runAsync(() -> {
+                for (int i = from; i < to; i++) {
+                    elementProcessor.accept(i);
                 }
-            }
-            DB_DATA.get(db).get(accession).get(period).get(anonymisedIPAddress).add(fileName);
+            }, hitProcessingPool);
         }
+        return CompletableFuture.allOf(ranges);
     }
 
     /**
-     * Retrieves the required fields from each element in searchHits, retrieved for a given protocol
+     * Retrieves the required fields from each element in searchHits, retrieved for a given protocol,
+     * and adds them to downloads - on hitProcessingPool
      *
      * @param searchHits
      * @param protocol
+     * @param downloads
+     * @param parkedENADownloads If not null, ENA downloads whose project accessions are not cached are parked there
+     * @return A future completed once all of searchHits have been processed
      */
-    private static void getValuesFromHits(SearchHit[] searchHits, ElasticSearchWsConfigProd.Protocol protocol,
-                                          ENAWsClient enaWsClient) {
-        Arrays.stream(searchHits).parallel().forEach(hit -> {
-            Map k2v = hit.getSourceAsMap();
-            String anonymisedIPAddress = k2v.get("uhost").toString();  // Anonymised IP address
-            String filePath = k2v.get("file_name").toString();
-            for (ElasticSearchWsConfigProd.DB db : ElasticSearchWsConfigProd.DB.values()) {
-                Map<ElasticSearchWsConfigProd.RegexType, Pattern> typeToRegex =
-                        ElasticSearchWsConfigProd.PROTOCOL_2_DB_2_REGEX.get(protocol).get(db);
-                if (typeToRegex.keySet().isEmpty()) {
-                    continue;
+    private CompletableFuture<Void> getValuesFromHits(
+            SearchHit[] searchHits, ElasticSearchWsConfigProd.Protocol protocol,
+            DownloadsStore<ElasticSearchWsConfigProd.DB> downloads, ParkedENADownloads parkedENADownloads) {
+        PeriodGranularity periodGranularity = config.getPeriodGranularity();
+        boolean streaming = config.getHitDecoding() == ElasticSearchWsConfigProd.HitDecoding.streaming;
+        return processInParallel(searchHits.length, i -> {
+            SearchHit hit = searchHits[i];
+            try {
+                if (streaming && LogEntryDecoder.decode(hit.getSourceRef(), (anonymisedIPAddress, filePath, timestamp)
+                        -> addDownloads(protocol, downloads, parkedENADownloads, anonymisedIPAddress, filePath,
+                        periodGranularity.getPeriod(timestamp), 1))) {
+                    return;
                 }
-                String resource = null;
-                if (typeToRegex.get(ElasticSearchWsConfigProd.RegexType.positive).matcher(filePath).find()) {
-                    if (typeToRegex.get(ElasticSearchWsConfigProd.RegexType.negative) != null) {
-                        if (!typeToRegex.get(ElasticSearchWsConfigProd.RegexType.negative).matcher(filePath).find()) {
-                            resource = db.toString();
-                        }
-                    } else {
-                        resource = db.toString();
-                    }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to decode " + hit.getId(), e);
+            }
+            // The source of hit cannot be decoded as it streams
+            Map k2v = hit.getSourceAsMap();
+            // Anonymised IP address
+            String anonymisedIPAddress = k2v.get(ElasticSearchWsConfigProd.UHOST_FIELD).toString();
+            String filePath = k2v.get(ElasticSearchWsConfigProd.FILE_NAME_FIELD).toString();
+            String timestamp = k2v.get(ElasticSearchWsConfigProd.TIMESTAMP_FIELD).toString();
+            addDownloads(protocol, downloads, parkedENADownloads, anonymisedIPAddress, filePath,
+                    periodGranularity.getPeriod(timestamp), 1);
+        });
+    }
+
+    /**
+     * Add count downloads of filePath by anonymisedIPAddress in period to downloads - against the first DB
+     * whose regexes for protocol match filePath and from which a dataset accession can be retrieved
+     * (c.f. PathClassifier)
+     *
+     * @param protocol
+     * @param downloads
+     * @param parkedENADownloads  If not null, ENA downloads whose project accessions are not cached are parked there
+     * @param anonymisedIPAddress
+     * @param filePath
+     * @param period
+     * @param count
+     */
+    private void addDownloads(
+            ElasticSearchWsConfigProd.Protocol protocol, DownloadsStore<ElasticSearchWsConfigProd.DB> downloads,
+            ParkedENADownloads parkedENADownloads,
+            String anonymisedIPAddress, String filePath, String period, int count) {
+        PathClassifier.Result result = PATH_CLASSIFIERS.get(protocol).classify(filePath);
+        if (result == null) {
+            return;
+        }
+        String accession = result.getAccession();
+        if (result.getDb() == ElasticSearchWsConfigProd.DB.ENA) {
+            if (parkedENADownloads == null) {
+                accession = enaWsClient.getProjectAccession(accession);
+            } else {
+                // N.B. The cache is read only once, so that an accession evicted from it in the meantime is not
+                // looked up on this thread
+                String projectAccession = enaWsClient.getProjectAccessionOrDefault(accession, UNCACHED);
+                if (UNCACHED.equals(projectAccession)) {
+                    parkedENADownloads.park(accession, period, anonymisedIPAddress, result.getFileName(), count);
+                    return;
                 }
-                if (resource != null) {
-                    Tuple<String, String> accessionFileName = getAccessionAndFileName(db, filePath,
-                            typeToRegex.get(ElasticSearchWsConfigProd.RegexType.accessionSpecial), enaWsClient);
-                    String accession = accessionFileName.v1();
-                    String fileName = accessionFileName.v2();
-                    if (accession != null) {
-                        String date = k2v.get("@timestamp").toString().split("\\.")[0];
-                        addToResults(db, accession, date, anonymisedIPAddress, fileName);
-                        break;
-                    }
+                accession = projectAccession;
+            }
+        }
+        if (accession != null) {
+            downloads.add(result.getDb(), accession, period, anonymisedIPAddress, result.getFileName(), count);
+        }
+    }
+
+    /**
+     * The retrieval of a window (c.f. initialiseData()) - of the entries above its high-water mark, or of all
+     * of its entries if it is re-ingested
+     */
+    private static final class Window {
+        private final ElasticSearchWsConfigProd.Protocol protocol;
+        private final long from;
+        private long highWaterMark;
+        private final long docCount;
+        private final List<ScrollJob> jobs = new ArrayList<>();
+
+        /**
+         * @param protocol
+         * @param from          The start of the time range of the window once it has been retrieved
+         * @param highWaterMark The high-water mark of the window before it is retrieved
+         * @param docCount      The number of entries of the window before it is retrieved
+         */
+        Window(ElasticSearchWsConfigProd.Protocol protocol, long from, long highWaterMark, long docCount) {
+            this.protocol = protocol;
+            this.from = from;
+            this.highWaterMark = highWaterMark;
+            this.docCount = docCount;
+        }
+
+        /**
+         * @return The IngestionLedger entry of the window once all of its jobs have succeeded
+         */
+        IngestionLedger.Entry getEntry() {
+            return new IngestionLedger.Entry(from, highWaterMark,
+                    docCount + jobs.stream().mapToLong(ScrollJob::getHitCount).sum());
+        }
+    }
+
+    /**
+     * The retrieval of the windows of all protocols of a month, into a month-specific data structure
+     */
+    private final class MonthIngestion {
+        private final String month;
+        // If true, the downloads of month retrieved previously are replaced by those in downloads
+        private final boolean replace;
+        private final List<Window> windows = new ArrayList<>();
+        private final DownloadsStore<ElasticSearchWsConfigProd.DB> downloads = newDbData(config.getDownloadsStore());
+
+        MonthIngestion(String month, boolean replace) {
+            this.month = month;
+            this.replace = replace;
+        }
+
+        List<ScrollJob> getJobs() {
+            List<ScrollJob> jobs = new ArrayList<>();
+            windows.forEach(window -> jobs.addAll(window.jobs));
+            return jobs;
+        }
+    }
+
+    /**
+     * The scroll pages of a scroll job submitted for processing but not processed yet. Once maxPages of them are
+     * in flight, submitting another page waits for one of them to be processed - so that the memory held by the
+     * pages is capped, and no further pages are fetched from ElasticSearch while processing falls behind.
+     */
+    private static final class PagesInFlight {
+        private final int maxPages;
+        private final Semaphore permits;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        PagesInFlight(int maxPages) {
+            this.maxPages = Math.max(1, maxPages);
+            permits = new Semaphore(this.maxPages);
+        }
+
+        /**
+         * Start the processing of a page, once fewer than maxPages pages are in flight - so that the fetcher is
+         * held up, rather than the processing threads
+         *
+         * @param processing Starts the processing of a page
+         * @throws InterruptedException
+         */
+        void add(Supplier<CompletableFuture<Void>> processing) throws InterruptedException {
+            permits.acquire();
+            checkFailure();
+            processing.get().whenComplete((result, throwable) -> {
+                if (throwable != null) {
+                    failure.compareAndSet(null, throwable);
                 }
+                permits.release();
+            });
+        }
+
+        /**
+         * Wait for all the pages in flight to be processed
+         *
+         * @throws InterruptedException
+         */
+        void awaitAll() throws InterruptedException {
+            permits.acquire(maxPages);
+            permits.release(maxPages);
+            checkFailure();
+        }
+
+        private void checkFailure() {
+            Throwable throwable = failure.get();
+            if (throwable != null) {
+                throw new IllegalStateException("Failed to process search hits", throwable);
             }
-        });
+        }
     }
 }
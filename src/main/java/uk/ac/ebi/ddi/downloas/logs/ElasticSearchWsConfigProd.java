@@ -1,8 +1,14 @@
 package uk.ac.ebi.ddi.downloas.logs;
 
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 /**
@@ -16,6 +22,30 @@ public class ElasticSearchWsConfigProd {
     public String host;
     public String username;
     public String password;
+    // Maximum number of scroll queries run against ElasticSearch at the same time
+    private int maxParallelScrolls = DEFAULT_MAX_PARALLEL_SCROLLS;
+    // Number of slices each (time range x protocol) scroll query is split into; 1 means the query is not sliced
+    private int scrollSlices = DEFAULT_SCROLL_SLICES;
+    // If true, only SOURCE_FIELDS are retrieved for each log entry, and log entries whose file_name cannot match
+    // any of the positive regexes in PROTOCOL_2_DB_2_REGEX are filtered out by ElasticSearch
+    private boolean serverSideFiltering = false;
+    private RetrievalEngine retrievalEngine = RetrievalEngine.scroll;
+    private StoreType downloadsStore = StoreType.concurrent;
+    private HitDecoding hitDecoding = HitDecoding.streaming;
+    // Number of scroll pages that may be waiting to be processed - or being processed - while the next page is
+    // fetched; 0 means that each page is processed before the next one is fetched
+    private int prefetchPages = DEFAULT_PREFETCH_PAGES;
+    // Number of threads processing the log entries retrieved from ElasticSearch, shared by all scroll jobs
+    private int processingThreads = Runtime.getRuntime().availableProcessors();
+    // The granularity of the periods by which downloads are aggregated - by default, the @timestamp of each log entry
+    // without the fraction of a second, as aggregated by previous versions
+    private PeriodGranularity periodGranularity = PeriodGranularity.second;
+    // If true, project accessions of ENA downloads are looked up in batches, without holding up the retrieval
+    // of data downloads from ElasticSearch - c.f. ENAAccessionResolver
+    private boolean asyncEnaResolution = true;
+    // If not null, the file in which the downloads of complete months are persisted between runs, so that they are
+    // not retrieved from ElasticSearch again - c.f. DownloadsSnapshot
+    private Path snapshotFile;
 
     // ElasticSearch query-related constants
     public static final Long SCROLL_VALID_PERIOD = 1440L; // 24h
@@ -26,6 +56,15 @@ public class ElasticSearchWsConfigProd {
     public static final int MAX_RETRY_TIMEOUT = 300000; // ms = 5 mins (default: 30s)
     public static final int SOCKET_TIMEOUT = 300000; // ms = 5 mins (default: 30s)
     public static final int CONNECT_TIMEOUT = 5000; // ms = 5 secs (default: 1s)
+    public static final int DEFAULT_MAX_PARALLEL_SCROLLS = 4; // (time range x protocol) scroll jobs
+    public static final int DEFAULT_SCROLL_SLICES = 1;
+    public static final int DEFAULT_PREFETCH_PAGES = 2;
+
+    // Log entry fields used for aggregating data downloads
+    public static final String UHOST_FIELD = "uhost";
+    public static final String FILE_NAME_FIELD = "file_name";
+    public static final String TIMESTAMP_FIELD = "@timestamp";
+    public static final String[] SOURCE_FIELDS = {UHOST_FIELD, FILE_NAME_FIELD, TIMESTAMP_FIELD};
 
     // Regex constants
     public static final String ARRAYEXPRESS_ACCESSION_REGEX = "E\\-[A-Z]{4}\\-\\d+";
@@ -48,12 +87,37 @@ public class ElasticSearchWsConfigProd {
     // Regex used for retrieving date string from ftp/aspera log entries
     public static final String YEAR_MONTH_REGEX = "\\d{4}/\\d{2}";
     public static final String YEAR_MONTH_DATE_REGEX = "\\d{4}/\\d{2}/\\d{2}";
+    // The directory under which the file_name of ftp log entries of the EBI's public databases starts
+    public static final String FTP_ROOT = "/pub/";
+    // Maximum number of literal alternatives derived from a regex for filtering by file_name in ElasticSearch
+    private static final int MAX_LITERAL_ALTERNATIVES = 64;
 
     // Data download protocol types
     public enum Protocol {
         ftp, aspera
     }
 
+    // Ways of retrieving data download information from ElasticSearch:
+    // scroll - retrieve every relevant log entry;
+    // compositeAggregation - retrieve the number of log entries per distinct (file_name, uhost, @timestamp)
+    public enum RetrievalEngine {
+        scroll, compositeAggregation
+    }
+
+    // Ways of storing the aggregated data downloads in memory:
+    // concurrent - nested maps, c.f. ConcurrentDownloadsStore;
+    // compact - dictionary-encoded columns, c.f. CompactDownloadsStore
+    public enum StoreType {
+        concurrent, compact
+    }
+
+    // Ways of reading uhost, file_name and @timestamp from the log entries retrieved by scroll:
+    // sourceMap - from the map of all the fields of each log entry, c.f. SearchHit.getSourceAsMap();
+    // streaming - straight from the JSON source of each log entry, c.f. LogEntryDecoder
+    public enum HitDecoding {
+        sourceMap, streaming
+    }
+
     // Regex types for mapping data download log entries to OmicsDI resources and their accessions
     public enum RegexType {
         accession, positive, negative, accessionSpecial
@@ -107,6 +171,124 @@ public class ElasticSearchWsConfigProd {
         this.password = password;
     }
 
+    public int getMaxParallelScrolls() {
+        return maxParallelScrolls;
+    }
+
+    public void setMaxParallelScrolls(int maxParallelScrolls) {
+        this.maxParallelScrolls = maxParallelScrolls;
+    }
+
+    public int getScrollSlices() {
+        return scrollSlices;
+    }
+
+    /**
+     * @param scrollSlices If greater than 1, each (time range x protocol) scroll query is split into scrollSlices
+     *                     sliced scrolls, c.f. https://www.elastic.co/guide/en/elasticsearch/reference/6.4/search-request-scroll.html#sliced-scroll
+     *                     N.B. maxParallelScrolls should be raised accordingly for the slices to be
+     *                     consumed in parallel
+     */
+    public void setScrollSlices(int scrollSlices) {
+        this.scrollSlices = scrollSlices;
+    }
+
+    public int getPrefetchPages() {
+        return prefetchPages;
+    }
+
+    /**
+     * @param prefetchPages N.B. caps the memory held by the pages of each scroll job at prefetchPages + 1 pages:
+     *                      once prefetchPages pages are waiting to be processed, no further pages are fetched
+     */
+    public void setPrefetchPages(int prefetchPages) {
+        this.prefetchPages = prefetchPages;
+    }
+
+    public int getProcessingThreads() {
+        return processingThreads;
+    }
+
+    /**
+     * @param processingThreads N.B. the processing threads are created for each ElasticSearchWsClient
+     */
+    public void setProcessingThreads(int processingThreads) {
+        this.processingThreads = processingThreads;
+    }
+
+    public boolean isServerSideFiltering() {
+        return serverSideFiltering;
+    }
+
+    public void setServerSideFiltering(boolean serverSideFiltering) {
+        this.serverSideFiltering = serverSideFiltering;
+    }
+
+    public RetrievalEngine getRetrievalEngine() {
+        return retrievalEngine;
+    }
+
+    /**
+     * @param retrievalEngine N.B. RetrievalEngine.compositeAggregation requires file_name and uhost
+     *                        to be aggregatable (keyword) fields; scroll slicing does not apply to it
+     */
+    public void setRetrievalEngine(RetrievalEngine retrievalEngine) {
+        this.retrievalEngine = retrievalEngine;
+    }
+
+    public StoreType getDownloadsStore() {
+        return downloadsStore;
+    }
+
+    /**
+     * @param downloadsStore N.B. the aggregated data downloads are shared by all ElasticSearchWsClients -
+     *                       they are stored in the way configured for the first ElasticSearchWsClient instantiated
+     */
+    public void setDownloadsStore(StoreType downloadsStore) {
+        this.downloadsStore = downloadsStore;
+    }
+
+    public HitDecoding getHitDecoding() {
+        return hitDecoding;
+    }
+
+    public void setHitDecoding(HitDecoding hitDecoding) {
+        this.hitDecoding = hitDecoding;
+    }
+
+    public PeriodGranularity getPeriodGranularity() {
+        return periodGranularity;
+    }
+
+    /**
+     * @param periodGranularity N.B. coarser periods than the default PeriodGranularity.second (e.g.
+     *                          PeriodGranularity.month) aggregate the downloads into far fewer entries - but
+     *                          change the keys of the periods returned to callers
+     */
+    public void setPeriodGranularity(PeriodGranularity periodGranularity) {
+        this.periodGranularity = periodGranularity;
+    }
+
+    public boolean isAsyncEnaResolution() {
+        return asyncEnaResolution;
+    }
+
+    public void setAsyncEnaResolution(boolean asyncEnaResolution) {
+        this.asyncEnaResolution = asyncEnaResolution;
+    }
+
+    public Path getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    /**
+     * @param snapshotFile N.B. ignored if the periods are of PeriodGranularity.year, as these do not lie within
+     *                     a month
+     */
+    public void setSnapshotFile(Path snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
     // Hashmap for storing regexes
     public static final Map<Protocol, Map<DB, Map<RegexType, Pattern>>> PROTOCOL_2_DB_2_REGEX
             = new HashMap<Protocol, Map<DB, Map<RegexType, Pattern>>>() {
@@ -180,4 +362,244 @@ public class ElasticSearchWsConfigProd {
         }
     };
 
+    /**
+     * @param protocol
+     * @return Wildcard patterns such that the file_name of every log entry matching the positive regex of any DB
+     * for protocol, also matches at least one of these patterns; an empty list if no such patterns can be derived
+     * (in which case no filtering on file_name can be done in ElasticSearch). There is one pattern per literal
+     * alternative of each positive regex (c.f. getLiteralAlternatives()), e.g.
+     * /pub/databases/microarray/data/atlas/experiments/E-* - anchored to the start of file_name if the alternative
+     * starts with FTP_ROOT, as ftp file names are absolute paths; otherwise preceded by a wildcard, as positive
+     * regexes are not anchored
+     */
+    public static List<String> getFileNameWildcards(Protocol protocol) {
+        List<String> anchored = new ArrayList<>();
+        List<String> unanchored = new ArrayList<>();
+        for (DB db : DB.values()) {
+            Pattern positive = PROTOCOL_2_DB_2_REGEX.get(protocol).get(db).get(RegexType.positive);
+            if (positive == null) {
+                continue;
+            }
+            for (String literal : getLiteralAlternatives(positive)) {
+                if (literal.isEmpty()) {
+                    return new ArrayList<>();
+                }
+                (protocol == Protocol.ftp && literal.startsWith(FTP_ROOT) ? anchored : unanchored).add(literal);
+            }
+        }
+        Set<String> wildcards = new LinkedHashSet<>();
+        for (String literal : anchored) {
+            // N.B. Literals already matched by a shorter literal are left out
+            if (anchored.stream().noneMatch(other -> !other.equals(literal) && literal.startsWith(other))
+                    && unanchored.stream().noneMatch(literal::contains)) {
+                wildcards.add(escapeWildcard(literal) + "*");
+            }
+        }
+        for (String literal : unanchored) {
+            if (unanchored.stream().noneMatch(other -> !other.equals(literal) && literal.contains(other))) {
+                wildcards.add("*" + escapeWildcard(literal) + "*");
+            }
+        }
+        return new ArrayList<>(wildcards);
+    }
+
+    private static String escapeWildcard(String literal) {
+        return literal.replaceAll("([*?\\\\])", "\\\\$1");
+    }
+
+    /**
+     * @param pattern
+     * @return Strings such that every match of pattern starts with at least one of them, obtained by expanding
+     * the alternations and character classes of literal characters in pattern up to its first other construct,
+     * e.g. "/eva/esv" and "/eva/rs" for "/eva/(esv\\d+|[rs]s\\d+)"; N.B. one of them is empty if there are
+     * matches of pattern that can start with anything
+     */
+    public static List<String> getLiteralAlternatives(Pattern pattern) {
+        String regex = pattern.pattern();
+        int[] pos = {0};
+        List<String> literals = new ArrayList<>();
+        for (LiteralAlternative alternative : parseAlternatives(regex, pos)) {
+            literals.add(alternative.literal);
+        }
+        return pos[0] < regex.length() ? Collections.singletonList("") : literals;
+    }
+
+    /**
+     * The literal start of an alternative of a regex
+     */
+    private static final class LiteralAlternative {
+        private final String literal;
+        // True if the alternative consists of literal alone, so that what follows it in the regex can be appended
+        private final boolean complete;
+
+        LiteralAlternative(String literal, boolean complete) {
+            this.literal = literal;
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * Parse the alternatives of regex from pos[0] up to the end of regex or of the enclosing group - pos[0] is
+     * left on the closing parenthesis of the latter
+     *
+     * @param regex
+     * @param pos
+     * @return The literal start of each alternative, in the order found
+     */
+    private static List<LiteralAlternative> parseAlternatives(String regex, int[] pos) {
+        List<LiteralAlternative> alternatives = new ArrayList<>();
+        List<LiteralAlternative> sequence = Collections.singletonList(new LiteralAlternative("", true));
+        while (pos[0] < regex.length() && regex.charAt(pos[0]) != ')') {
+            char c = regex.charAt(pos[0]++);
+            List<LiteralAlternative> atom = null;
+            if (c == '|') {
+                alternatives.addAll(sequence);
+                sequence = Collections.singletonList(new LiteralAlternative("", true));
+                continue;
+            } else if (c == '\\') {
+                char escaped = pos[0] < regex.length() ? regex.charAt(pos[0]++) : 'E';
+                if (!Character.isLetterOrDigit(escaped)) {
+                    // An escaped literal character, e.g. \\- or \\/
+                    atom = Collections.singletonList(new LiteralAlternative(String.valueOf(escaped), true));
+                }
+            } else if (c == '(') {
+                // N.B. Only capturing and non-capturing groups match literals, unlike e.g. lookaheads
+                boolean literalGroup = !regex.startsWith("?", pos[0]) || regex.startsWith("?:", pos[0]);
+                if (regex.startsWith("?:", pos[0])) {
+                    pos[0] += 2;
+                }
+                List<LiteralAlternative> group = parseAlternatives(regex, pos);
+                pos[0]++;
+                if (literalGroup) {
+                    atom = group;
+                }
+            } else if (c == '[') {
+                int end = regex.indexOf(']', pos[0] + 1);
+                String chars = end < 0 ? "" : regex.substring(pos[0], end);
+                pos[0] = end < 0 ? regex.length() : end + 1;
+                if (!chars.isEmpty() && chars.chars().allMatch(Character::isLetterOrDigit)) {
+                    atom = new ArrayList<>();
+                    for (char member : chars.toCharArray()) {
+                        atom.add(new LiteralAlternative(String.valueOf(member), true));
+                    }
+                }
+            } else if (".*+?{}^$".indexOf(c) < 0) {
+                atom = Collections.singletonList(new LiteralAlternative(String.valueOf(c), true));
+            }
+            sequence = append(sequence, atom, skipQuantifier(regex, pos));
+        }
+        alternatives.addAll(sequence);
+        return alternatives;
+    }
+
+    /**
+     * @param sequence The literal starts of the alternatives of a sequence of atoms
+     * @param atom       The literal starts of the alternatives of the next atom of the sequence; null if it does
+     *                   not match literals
+     * @param quantifier The quantifier of the atom, if any
+     * @return The literal starts of the alternatives of the sequence followed by the atom
+     */
+    private static List<LiteralAlternative> append(List<LiteralAlternative> sequence,
+                                                   List<LiteralAlternative> atom, char quantifier) {
+        List<LiteralAlternative> appended = new ArrayList<>();
+        for (LiteralAlternative alternative : sequence) {
+            if (!alternative.complete) {
+                appended.add(alternative);
+            } else if (atom == null || quantifier == '*' || quantifier == '?' || quantifier == '{'
+                    || sequence.size() * atom.size() > MAX_LITERAL_ALTERNATIVES) {
+                // The atom may be absent, repeated or match anything
+                appended.add(new LiteralAlternative(alternative.literal, false));
+            } else {
+                for (LiteralAlternative atomAlternative : atom) {
+                    // N.B. Whatever follows a repeated atom may start with the atom again
+                    appended.add(new LiteralAlternative(alternative.literal + atomAlternative.literal,
+                            atomAlternative.complete && quantifier != '+'));
+                }
+            }
+        }
+        return appended;
+    }
+
+    /**
+     * @param regex
+     * @param pos   Moved past the quantifier at pos[0], if any
+     * @return The first character of the quantifier at pos[0]; 0 if there is none
+     */
+    private static char skipQuantifier(String regex, int[] pos) {
+        if (pos[0] >= regex.length() || "*+?{".indexOf(regex.charAt(pos[0])) < 0) {
+            return 0;
+        }
+        char quantifier = regex.charAt(pos[0]);
+        if (quantifier == '{') {
+            int end = regex.indexOf('}', pos[0]);
+            pos[0] = end < 0 ? regex.length() : end + 1;
+        } else {
+            pos[0]++;
+        }
+        if (pos[0] < regex.length() && (regex.charAt(pos[0]) == '?' || regex.charAt(pos[0]) == '+')) {
+            // A reluctant or possessive quantifier
+            pos[0]++;
+        }
+        return quantifier;
+    }
+
+    /**
+     * @param pattern
+     * @return The longest string that every match of pattern has to start with, e.g. "/pride/data/archive/"
+     * for "/pride/data/archive/\\d{4}/\\d{2}"; an empty string if there is no such string
+     */
+    public static String getLiteralPrefix(Pattern pattern) {
+        String regex = pattern.pattern();
+        if (hasTopLevelAlternation(regex)) {
+            return "";
+        }
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < regex.length() && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    // An escaped literal character, e.g. \\- or \\/
+                    prefix.append(regex.charAt(++i));
+                    continue;
+                }
+                // A character class, e.g. \\d
+                break;
+            }
+            if ("[](){}.*+?^$|".indexOf(c) >= 0) {
+                if ((c == '*' || c == '?' || c == '{') && prefix.length() > 0) {
+                    // The last character of prefix is optional or repeated a variable number of times
+                    prefix.setLength(prefix.length() - 1);
+                }
+                break;
+            }
+            prefix.append(c);
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * @param regex
+     * @return True if regex contains an alternation (|) outside of any group or character class
+     */
+    private static boolean hasTopLevelAlternation(String regex) {
+        int depth = 0;
+        boolean inCharClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (inCharClass) {
+                inCharClass = c != ']';
+            } else if (c == '[') {
+                inCharClass = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
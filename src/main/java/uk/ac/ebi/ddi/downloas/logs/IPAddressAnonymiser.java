@@ -0,0 +1,115 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Anonymises IP addresses into the (lower-case, zero-padded) hex representation of their MD5 hash - with the same
+ * results as ApacheLogsFileClient.getMd5(), but without creating a MessageDigest, a BigInteger or intermediate
+ * Strings per call: each thread reuses its own MessageDigest and buffers, and the anonymised form of the most
+ * recently seen IP addresses is memoised, as the same IP address typically recurs in thousands of log entries.
+ * Thread-safe.
+ */
+public class IPAddressAnonymiser {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int MD5_LENGTH = 16;
+    // The longest input encoded into a thread-local buffer - e.g. an IPv6 address; longer ones are encoded afresh
+    private static final int MAX_BUFFERED_LENGTH = 64;
+
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    // A map between recently seen IP addresses and their anonymised forms. N.B. Rather than evicting the least
+    // recently used entries one by one - which would make every lookup pay for bookkeeping - the map is cleared
+    // whenever it is full
+    private final Map<String, String> ipAddressToAnonymised = new ConcurrentHashMap<>();
+    private final int cacheSize;
+    private final AtomicInteger cachedCount = new AtomicInteger();
+
+    /**
+     * @param cacheSize The maximum number of IP addresses whose anonymised forms are memoised
+     */
+    public IPAddressAnonymiser(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * @param ipAddress
+     * @return The anonymised form of ipAddress
+     */
+    public String anonymise(String ipAddress) {
+        String anonymised = ipAddressToAnonymised.get(ipAddress);
+        if (anonymised == null) {
+            anonymised = md5Hex(ipAddress);
+            if (cachedCount.incrementAndGet() > cacheSize) {
+                ipAddressToAnonymised.clear();
+                cachedCount.set(0);
+            } else {
+                ipAddressToAnonymised.put(ipAddress, anonymised);
+            }
+        }
+        return anonymised;
+    }
+
+    /**
+     * @param input
+     * @return The hex representation of the MD5 hash of input, encoded in the platform's default charset
+     */
+    public static String md5Hex(String input) {
+        Buffers buffers = BUFFERS.get();
+        MessageDigest md = buffers.md;
+        int length = input.length();
+        if (length <= MAX_BUFFERED_LENGTH && isAscii(input)) {
+            // N.B. ASCII is encoded alike by all the platform's possible default charsets
+            for (int i = 0; i < length; i++) {
+                buffers.input[i] = (byte) input.charAt(i);
+            }
+            md.update(buffers.input, 0, length);
+        } else {
+            md.update(input.getBytes());
+        }
+        try {
+            md.digest(buffers.digest, 0, MD5_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        char[] hex = buffers.hex;
+        for (int i = 0; i < MD5_LENGTH; i++) {
+            int b = buffers.digest[i] & 0xff;
+            hex[2 * i] = HEX_DIGITS[b >>> 4];
+            hex[2 * i + 1] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The MessageDigest and buffers reused by a thread
+     */
+    private static final class Buffers {
+        private final MessageDigest md;
+        private final byte[] input = new byte[MAX_BUFFERED_LENGTH];
+        private final byte[] digest = new byte[MD5_LENGTH];
+        private final char[] hex = new char[2 * MD5_LENGTH];
+
+        Buffers() {
+            try {
+                md = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A record of the data download entries ingested by ElasticSearchWsClient, per (protocol, window) - each window being
+ * a month (yyyy/mm, in UTC) - so that windows can be topped up with only the entries logged since they were last
+ * ingested, or re-ingested without double-counting any downloads.
+ */
+public class IngestionLedger {
+
+    /**
+     * The entries ingested for a (protocol, window): all of those with an @timestamp between from and
+     * highWaterMark (inclusive)
+     */
+    public static final class Entry {
+        private final long from;
+        private final long highWaterMark;
+        private final long docCount;
+
+        /**
+         * @param from          The start (epoch ms) of the time range ingested
+         * @param highWaterMark The greatest @timestamp (epoch ms) ingested; from - 1 if no entries have been ingested
+         * @param docCount      The number of entries ingested
+         */
+        public Entry(long from, long highWaterMark, long docCount) {
+            this.from = from;
+            this.highWaterMark = highWaterMark;
+            this.docCount = docCount;
+        }
+
+        public long getFrom() {
+            return from;
+        }
+
+        public long getHighWaterMark() {
+            return highWaterMark;
+        }
+
+        public long getDocCount() {
+            return docCount;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + new Date(from) + " - " + new Date(highWaterMark) + ", docs: " + docCount + "]";
+        }
+    }
+
+    private final Map<ElasticSearchWsConfigProd.Protocol, Map<String, Entry>> protocolToWindowToEntry =
+            new EnumMap<>(ElasticSearchWsConfigProd.Protocol.class);
+
+    public IngestionLedger() {
+        for (ElasticSearchWsConfigProd.Protocol protocol : ElasticSearchWsConfigProd.Protocol.values()) {
+            protocolToWindowToEntry.put(protocol, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * @param protocol
+     * @param window
+     * @return The Entry of (protocol, window); null if no entries have been ingested for it
+     */
+    public Entry get(ElasticSearchWsConfigProd.Protocol protocol, String window) {
+        return protocolToWindowToEntry.get(protocol).get(window);
+    }
+
+    void put(ElasticSearchWsConfigProd.Protocol protocol, String window, Entry entry) {
+        protocolToWindowToEntry.get(protocol).put(window, entry);
+    }
+
+    /**
+     * @param protocol
+     * @return A sorted copy of the entries of protocol, by window
+     */
+    public Map<String, Entry> getEntries(ElasticSearchWsConfigProd.Protocol protocol) {
+        return Collections.unmodifiableMap(new TreeMap<>(protocolToWindowToEntry.get(protocol)));
+    }
+
+    /**
+     * @return The earliest start (epoch ms) of the time ranges ingested; null if nothing has been ingested
+     */
+    public Long getFrom() {
+        Long from = null;
+        for (Map<String, Entry> windowToEntry : protocolToWindowToEntry.values()) {
+            for (Entry entry : windowToEntry.values()) {
+                if (from == null || entry.getFrom() < from) {
+                    from = entry.getFrom();
+                }
+            }
+        }
+        return from;
+    }
+}
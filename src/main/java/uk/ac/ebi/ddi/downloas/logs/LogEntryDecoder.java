@@ -0,0 +1,74 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.bytes.BytesReference;
+
+import java.io.IOException;
+
+/**
+ * Decodes the fields of log entries used for aggregating data downloads - uhost, file_name and @timestamp - straight
+ * from the JSON source of search hits, with a streaming parser: unlike SearchHit.getSourceAsMap(), no map of all
+ * the fields of a log entry (nor any values of the other fields) is built. Field names are interned by the parser,
+ * and parsing stops as soon as all three fields have been read.
+ */
+public final class LogEntryDecoder {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private LogEntryDecoder() {
+    }
+
+    /**
+     * Receives the fields of a log entry used for aggregating data downloads
+     */
+    @FunctionalInterface
+    public interface LogEntryConsumer {
+        void accept(String anonymisedIPAddress, String filePath, String timestamp);
+    }
+
+    /**
+     * Pass the uhost, file_name and @timestamp fields of source to logEntryConsumer
+     *
+     * @param source           The source of a search hit, c.f. SearchHit.getSourceRef()
+     * @param logEntryConsumer
+     * @return False if the fields could not be decoded - source is not a JSON object (e.g. it is SMILE or CBOR)
+     * or lacks one of the fields - in which case logEntryConsumer is not called
+     * @throws IOException If source is malformed JSON
+     */
+    public static boolean decode(BytesReference source, LogEntryConsumer logEntryConsumer) throws IOException {
+        if (source == null || source.length() == 0 || source.get(0) != '{') {
+            return false;
+        }
+        BytesRef bytes = source.toBytesRef();
+        String anonymisedIPAddress = null;
+        String filePath = null;
+        String timestamp = null;
+        try (JsonParser parser = JSON_FACTORY.createParser(bytes.bytes, bytes.offset, bytes.length)) {
+            parser.nextToken();
+            while (anonymisedIPAddress == null || filePath == null || timestamp == null) {
+                if (parser.nextToken() != JsonToken.FIELD_NAME) {
+                    break;
+                }
+                String fieldName = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (!value.isScalarValue() || value == JsonToken.VALUE_NULL) {
+                    parser.skipChildren();
+                } else if (ElasticSearchWsConfigProd.UHOST_FIELD.equals(fieldName)) {
+                    anonymisedIPAddress = parser.getText();
+                } else if (ElasticSearchWsConfigProd.FILE_NAME_FIELD.equals(fieldName)) {
+                    filePath = parser.getText();
+                } else if (ElasticSearchWsConfigProd.TIMESTAMP_FIELD.equals(fieldName)) {
+                    timestamp = parser.getText();
+                }
+            }
+        }
+        if (anonymisedIPAddress == null || filePath == null || timestamp == null) {
+            return false;
+        }
+        logEntryConsumer.accept(anonymisedIPAddress, filePath, timestamp);
+        return true;
+    }
+}
@@ -0,0 +1,98 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import uk.ac.ebi.ddi.downloas.ena.ENAAccessionResolver;
+import uk.ac.ebi.ddi.downloas.ena.ENAWsConfigProd;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * ENA downloads whose project accessions have not been resolved yet. Rather than waiting for ENA, the downloads are
+ * parked here - aggregated by the ENA accession found in their file path - while ENAAccessionResolver looks up
+ * the project accessions; once all lookups have been answered, the parked download counts are credited to downloads.
+ */
+public class ParkedENADownloads {
+
+    private final ENAAccessionResolver resolver;
+    private final DownloadsStore<ElasticSearchWsConfigProd.DB> downloads;
+    private final long maxWait;
+
+    // N.B. parked downloads are stored against their ENA accessions, rather than project accessions
+    private final DownloadsStore<ElasticSearchWsConfigProd.DB> parked =
+            new ConcurrentDownloadsStore<>(ElasticSearchWsConfigProd.DB.class);
+    private final Map<String, CompletableFuture<String>> enaAccessionToProject = new ConcurrentHashMap<>();
+
+    /**
+     * @param resolver
+     * @param downloads The store to which the parked downloads are credited
+     */
+    public ParkedENADownloads(ENAAccessionResolver resolver, DownloadsStore<ElasticSearchWsConfigProd.DB> downloads) {
+        this(resolver, downloads, ENAWsConfigProd.MAX_RESOLUTION_WAIT);
+    }
+
+    /**
+     * @param resolver
+     * @param downloads The store to which the parked downloads are credited
+     * @param maxWait   The maximum time (in ms) credit() waits for the project accessions to be resolved
+     */
+    ParkedENADownloads(ENAAccessionResolver resolver, DownloadsStore<ElasticSearchWsConfigProd.DB> downloads,
+                       long maxWait) {
+        this.resolver = resolver;
+        this.downloads = downloads;
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Park count downloads of fileName by anonymisedIPAddress in period, from a file path containing enaAccession
+     *
+     * @param enaAccession
+     * @param period
+     * @param anonymisedIPAddress
+     * @param fileName
+     * @param count
+     */
+    public void park(String enaAccession, String period, String anonymisedIPAddress, String fileName, int count) {
+        if (!enaAccessionToProject.containsKey(enaAccession)) {
+            enaAccessionToProject.computeIfAbsent(enaAccession, resolver::resolve);
+        }
+        parked.add(ElasticSearchWsConfigProd.DB.ENA, enaAccession, period, anonymisedIPAddress, fileName, count);
+    }
+
+    /**
+     * Wait for the project accessions of all parked downloads to be resolved, and credit the parked downloads
+     * with a project accession to downloads. N.B. No downloads are parked after this method has been called.
+     *
+     * @throws IllegalStateException If the project accession of any parked download could not be retrieved - or
+     *                               not within maxWait ms
+     */
+    public void credit() {
+        try {
+            CompletableFuture.allOf(enaAccessionToProject.values().toArray(new CompletableFuture<?>[0]))
+                    .get(maxWait, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("ENA accessions not resolved within " + maxWait + " ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while resolving ENA accessions", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to resolve ENA accessions", e.getCause());
+        }
+        parked.forEach((db, enaAccession, period, anonymisedIPAddress, fileName, count) -> {
+            String projectAccession = enaAccessionToProject.get(enaAccession).join();
+            if (projectAccession != null) {
+                downloads.add(db, projectAccession, period, anonymisedIPAddress, fileName, count);
+            }
+        });
+    }
+
+    /**
+     * @return The number of distinct ENA accessions parked so far
+     */
+    public int size() {
+        return enaAccessionToProject.size();
+    }
+}
@@ -0,0 +1,212 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maps the file path of a data download log entry to the DB, dataset accession and file name it corresponds to,
+ * as defined by the regexes for one protocol in ElasticSearchWsConfigProd.PROTOCOL_2_DB_2_REGEX - with the same
+ * results as trying the positive, negative and accessionSpecial regexes of each DB in turn, but without running
+ * the regexes of DBs that the file path cannot match.
+ * The literal prefixes of all positive regexes (e.g. /pride/data/archive/) are compiled into a trie, which is walked
+ * from each '/' in the file path - so that a single pass over the file path finds the DBs whose positive regex
+ * could match it. Only the regexes of those DBs are then run, in the order of ElasticSearchWsConfigProd.DB values.
+ */
+public class PathClassifier {
+
+    private static final ElasticSearchWsConfigProd.DB[] DBS = ElasticSearchWsConfigProd.DB.values();
+
+    private final Pattern[] positiveRegexes = new Pattern[DBS.length];
+    private final Pattern[] negativeRegexes = new Pattern[DBS.length];
+    private final Pattern[] accessionRegexes = new Pattern[DBS.length];
+    // Bit i is set if the positive regex of DBS[i] consists only of its literal prefix
+    private long literalPositiveMask;
+    // Bit i is set if DBS[i] has a positive regex without a literal prefix starting with '/'
+    private long unconditionalMask;
+    private final TrieNode prefixTrie = new TrieNode();
+
+    /**
+     * The result of a successful classification of a file path
+     */
+    public static final class Result {
+        private final ElasticSearchWsConfigProd.DB db;
+        private final String accession;
+        private final String fileName;
+
+        Result(ElasticSearchWsConfigProd.DB db, String accession, String fileName) {
+            this.db = db;
+            this.accession = accession;
+            this.fileName = fileName;
+        }
+
+        public ElasticSearchWsConfigProd.DB getDb() {
+            return db;
+        }
+
+        /**
+         * @return The accession as found in the file path - for ENA, it still needs mapping to its project accession
+         */
+        public String getAccession() {
+            return accession;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        @Override
+        public String toString() {
+            return db + " " + accession + " " + fileName;
+        }
+    }
+
+    /**
+     * @param protocol The protocol whose regexes in ElasticSearchWsConfigProd.PROTOCOL_2_DB_2_REGEX are compiled
+     */
+    public PathClassifier(ElasticSearchWsConfigProd.Protocol protocol) {
+        this(ElasticSearchWsConfigProd.PROTOCOL_2_DB_2_REGEX.get(protocol));
+    }
+
+    PathClassifier(Map<ElasticSearchWsConfigProd.DB, Map<ElasticSearchWsConfigProd.RegexType, Pattern>> dbToRegex) {
+        for (ElasticSearchWsConfigProd.DB db : DBS) {
+            Map<ElasticSearchWsConfigProd.RegexType, Pattern> typeToRegex = dbToRegex.get(db);
+            Pattern positive = typeToRegex.get(ElasticSearchWsConfigProd.RegexType.positive);
+            if (positive == null) {
+                continue;
+            }
+            int i = db.ordinal();
+            positiveRegexes[i] = positive;
+            negativeRegexes[i] = typeToRegex.get(ElasticSearchWsConfigProd.RegexType.negative);
+            accessionRegexes[i] = typeToRegex.get(ElasticSearchWsConfigProd.RegexType.accessionSpecial);
+            String literalPrefix = ElasticSearchWsConfigProd.getLiteralPrefix(positive);
+            if (literalPrefix.startsWith("/")) {
+                prefixTrie.add(literalPrefix, 1L << i);
+                if (literalPrefix.equals(positive.pattern())) {
+                    literalPositiveMask |= 1L << i;
+                }
+            } else {
+                unconditionalMask |= 1L << i;
+            }
+        }
+    }
+
+    /**
+     * @param filePath
+     * @return The first DB (in the order of ElasticSearchWsConfigProd.DB values) whose positive regex matches
+     * filePath, whose negative regex (if any) does not, and whose accessionSpecial regex finds an accession
+     * in filePath - together with that accession and the name of the file being downloaded; null if there is no
+     * such DB
+     */
+    public Result classify(String filePath) {
+        long candidates = getCandidates(filePath);
+        while (candidates != 0) {
+            int i = Long.numberOfTrailingZeros(candidates);
+            candidates &= candidates - 1;
+            if ((literalPositiveMask & (1L << i)) == 0 && !positiveRegexes[i].matcher(filePath).find()) {
+                continue;
+            }
+            if (negativeRegexes[i] != null && negativeRegexes[i].matcher(filePath).find()) {
+                continue;
+            }
+            String accession = getAccession(filePath, accessionRegexes[i]);
+            if (accession != null) {
+                return new Result(DBS[i], accession, getFileName(filePath));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param filePath
+     * @return A bit mask of the DBs whose positive regex can match filePath, i.e. whose literal prefix it contains
+     */
+    long getCandidates(String filePath) {
+        long candidates = unconditionalMask;
+        int length = filePath.length();
+        for (int start = filePath.indexOf('/'); start >= 0; start = filePath.indexOf('/', start + 1)) {
+            TrieNode node = prefixTrie;
+            for (int pos = start; pos < length && node != null; pos++) {
+                node = node.getChild(filePath.charAt(pos));
+                if (node != null) {
+                    candidates |= node.dbMask;
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @param filePath
+     * @param accessionRegex
+     * @return The accession found in filePath by accessionRegex, e.g. PXD000001 from /PXD000001/; null if none
+     */
+    private static String getAccession(String filePath, Pattern accessionRegex) {
+        if (accessionRegex == null) {
+            return null;
+        }
+        Matcher matcher = accessionRegex.matcher(filePath);
+        if (!matcher.find()) {
+            return null;
+        }
+        int start = matcher.start();
+        int end = matcher.end();
+        // Strip one leading '/' and all trailing '_' and '/' characters
+        if (start < end && filePath.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && (filePath.charAt(end - 1) == '_' || filePath.charAt(end - 1) == '/')) {
+            end--;
+        }
+        return filePath.substring(start, end);
+    }
+
+    /**
+     * @param filePath
+     * @return The last non-empty element of filePath
+     */
+    static String getFileName(String filePath) {
+        int end = filePath.length();
+        while (end > 0 && filePath.charAt(end - 1) == '/') {
+            end--;
+        }
+        return filePath.substring(filePath.lastIndexOf('/', end - 1) + 1, end);
+    }
+
+    /**
+     * A node of a trie of literal prefixes; dbMask marks the DBs whose literal prefix ends at this node
+     */
+    private static final class TrieNode {
+        private char[] keys = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+        private long dbMask;
+
+        TrieNode getChild(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void add(String prefix, long mask) {
+            TrieNode node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                char c = prefix.charAt(i);
+                TrieNode child = node.getChild(c);
+                if (child == null) {
+                    child = new TrieNode();
+                    int size = node.keys.length;
+                    node.keys = Arrays.copyOf(node.keys, size + 1);
+                    node.children = Arrays.copyOf(node.children, size + 1);
+                    node.keys[size] = c;
+                    node.children[size] = child;
+                }
+                node = child;
+            }
+            node.dbMask |= mask;
+        }
+    }
+}
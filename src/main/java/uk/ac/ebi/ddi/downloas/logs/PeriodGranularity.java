@@ -0,0 +1,91 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * The granularity of the periods by which data downloads are aggregated, and the format of each period:
+ * second - yyyy-mm-ddThh:mm:ss (as retrieved from ElasticSearch @timestamp values);
+ * day - yyyy/mm/dd (c.f. ElasticSearchWsConfigProd.YEAR_MONTH_DATE_REGEX);
+ * month - yyyy/mm (c.f. ElasticSearchWsConfigProd.YEAR_MONTH_REGEX);
+ * year - yyyy
+ */
+public enum PeriodGranularity {
+    second, day, month, year;
+
+    // The length of the periods of second, e.g. 2018-10-01T12:34:56
+    private static final int SECOND_LENGTH = 19;
+
+    /**
+     * @param timestamp An ISO 8601 UTC timestamp, e.g. 2018-10-01T12:34:56.789Z
+     * @return The period containing timestamp, e.g. 2018/10 for month
+     */
+    public String getPeriod(String timestamp) {
+        switch (this) {
+            case second:
+                // N.B. Whether or not timestamp has a fraction, e.g. 2018-10-01T12:34:56Z
+                return timestamp.length() > SECOND_LENGTH ? timestamp.substring(0, SECOND_LENGTH) : timestamp;
+            case day:
+                return new String(new char[] {
+                        timestamp.charAt(0), timestamp.charAt(1), timestamp.charAt(2), timestamp.charAt(3), '/',
+                        timestamp.charAt(5), timestamp.charAt(6), '/',
+                        timestamp.charAt(8), timestamp.charAt(9)});
+            case month:
+                return new String(new char[] {
+                        timestamp.charAt(0), timestamp.charAt(1), timestamp.charAt(2), timestamp.charAt(3), '/',
+                        timestamp.charAt(5), timestamp.charAt(6)});
+            case year:
+                return timestamp.substring(0, 4);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param epochMillis
+     * @return The period containing epochMillis (in UTC)
+     */
+    public String getPeriod(long epochMillis) {
+        LocalDateTime dateTime = LocalDateTime.ofEpochSecond(Math.floorDiv(epochMillis, 1000), 0, ZoneOffset.UTC);
+        return getPeriod(dateTime.getYear(), dateTime.getMonthValue(), dateTime.getDayOfMonth(),
+                dateTime.getHour(), dateTime.getMinute(), dateTime.getSecond());
+    }
+
+    /**
+     * @return The period containing the given time
+     */
+    public String getPeriod(int yyyy, int mm, int dd, int hours, int minutes, int seconds) {
+        switch (this) {
+            case second:
+                return String.format("%04d-%02d-%02dT%02d:%02d:%02d", yyyy, mm, dd, hours, minutes, seconds);
+            case day:
+                return String.format("%04d/%02d/%02d", yyyy, mm, dd);
+            case month:
+                return String.format("%04d/%02d", yyyy, mm);
+            case year:
+                return String.format("%04d", yyyy);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return The interval of the ElasticSearch date_histogram whose buckets correspond to periods
+     */
+    public DateHistogramInterval getDateHistogramInterval() {
+        switch (this) {
+            case second:
+                return DateHistogramInterval.SECOND;
+            case day:
+                return DateHistogramInterval.DAY;
+            case month:
+                return DateHistogramInterval.MONTH;
+            case year:
+                return DateHistogramInterval.YEAR;
+            default:
+                return null;
+        }
+    }
+}
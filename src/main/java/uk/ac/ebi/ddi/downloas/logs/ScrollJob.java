@@ -0,0 +1,119 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import org.elasticsearch.common.collect.Tuple;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single unit of work scheduled by ElasticSearchWsClient: the retrieval of all data download entries
+ * logged for one protocol within one time range - or, if the retrieval is sliced, one slice of those entries.
+ * Instances are shared with callers so that the progress of a long-running retrieval can be monitored
+ * while it is in flight.
+ */
+public class ScrollJob {
+
+    public enum Status {
+        pending, running, done, failed
+    }
+
+    private final ElasticSearchWsConfigProd.Protocol protocol;
+    private final Tuple<Date, Date> timeRange;
+    private final int sliceId;
+    private final int maxSlices;
+
+    private volatile Status status = Status.pending;
+    private volatile Exception lastException;
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final AtomicLong hitCount = new AtomicLong();
+
+    public ScrollJob(ElasticSearchWsConfigProd.Protocol protocol, Tuple<Date, Date> timeRange) {
+        this(protocol, timeRange, 0, 1);
+    }
+
+    /**
+     * @param protocol
+     * @param timeRange
+     * @param sliceId   The slice of the scroll query to be retrieved by this job, between 0 and maxSlices - 1
+     * @param maxSlices The number of slices the scroll query for protocol and timeRange is split into
+     */
+    public ScrollJob(ElasticSearchWsConfigProd.Protocol protocol, Tuple<Date, Date> timeRange,
+                     int sliceId, int maxSlices) {
+        this.protocol = protocol;
+        this.timeRange = timeRange;
+        this.sliceId = sliceId;
+        this.maxSlices = maxSlices;
+    }
+
+    public ElasticSearchWsConfigProd.Protocol getProtocol() {
+        return protocol;
+    }
+
+    public Tuple<Date, Date> getTimeRange() {
+        return timeRange;
+    }
+
+    public int getSliceId() {
+        return sliceId;
+    }
+
+    public int getMaxSlices() {
+        return maxSlices;
+    }
+
+    public boolean isSliced() {
+        return maxSlices > 1;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return The number of records retrieved from ElasticSearch in the current (or last) attempt
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public int getAttempts() {
+        return attempts.get();
+    }
+
+    /**
+     * @return The exception that caused the last attempt to fail, or null if no attempt has failed
+     */
+    public Exception getLastException() {
+        return lastException;
+    }
+
+    void startAttempt() {
+        attempts.incrementAndGet();
+        hitCount.set(0);
+        status = Status.running;
+    }
+
+    long addHits(int count) {
+        return hitCount.addAndGet(count);
+    }
+
+    void attemptFailed(Exception exception) {
+        lastException = exception;
+    }
+
+    void done() {
+        status = Status.done;
+    }
+
+    void failed() {
+        status = Status.failed;
+    }
+
+    @Override
+    public String toString() {
+        return protocol + " " + timeRange + (isSliced() ? " slice " + sliceId + "/" + maxSlices : "")
+                + " [" + status + ", hits: " + hitCount.get()
+                + ", attempts: " + attempts.get() + "]";
+    }
+}
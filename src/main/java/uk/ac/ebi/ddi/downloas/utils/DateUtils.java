@@ -2,6 +2,7 @@ package uk.ac.ebi.ddi.downloas.utils;
 
 import org.elasticsearch.common.collect.Tuple;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.ZoneId;
@@ -24,6 +25,10 @@ public class DateUtils {
         return localDateTimeToDate(endOfDay);
     }
 
+    public static LocalDate toLocalDate(Date date) {
+        return dateToLocalDateTime(date).toLocalDate();
+    }
+
     private static LocalDateTime dateToLocalDateTime(Date date) {
         return LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault());
     }
@@ -33,24 +38,28 @@ public class DateUtils {
     }
 
     public static List<Tuple<Date, Date>> partition(Date from, Date to, int size) {
-        Calendar calendar = new GregorianCalendar();
-        calendar.setTime(from);
-
-        Calendar endCalendar = new GregorianCalendar();
-        endCalendar.setTime(to);
+        return partition(from, to, size, ZoneId.systemDefault());
+    }
 
+    /**
+     * @param from
+     * @param to   Inclusive
+     * @param size The number of days following its first day covered by each partition
+     * @param zone The time zone of the days
+     * @return Consecutive partitions covering from - to, each ending at the end of the day (in zone) size days
+     * after it starts - apart from the last one, which ends at to
+     */
+    public static List<Tuple<Date, Date>> partition(Date from, Date to, int size, ZoneId zone) {
         List<Tuple<Date, Date>> result = new ArrayList<>();
-
-        while (calendar.before(endCalendar)) {
-            Date firstDate = calendar.getTime();
-            calendar.add(Calendar.DATE, size);
-            Date endDate = atEndOfDay(calendar.getTime());
+        Date firstDate = from;
+        while (firstDate.before(to)) {
+            Date endDate = Date.from(firstDate.toInstant().atZone(zone).plusDays(size).with(LocalTime.MAX)
+                    .toInstant());
             if (endDate.after(to)) {
-                result.add(new Tuple<>(firstDate, to));
-            } else {
-                result.add(new Tuple<>(firstDate, endDate));
+                endDate = to;
             }
-            calendar.add(Calendar.DATE, 1);
+            result.add(new Tuple<>(firstDate, endDate));
+            firstDate = new Date(endDate.getTime() + 1);
         }
         return result;
     }
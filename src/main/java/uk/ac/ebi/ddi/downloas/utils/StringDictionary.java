@@ -0,0 +1,63 @@
+package uk.ac.ebi.ddi.downloas.utils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread-safe, append-only dictionary assigning consecutive int ids (starting from 0) to distinct strings,
+ * so that each distinct string is stored only once and can be referred to by its id elsewhere
+ */
+public class StringDictionary {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * @param value
+     * @return The id of value, assigned to it now if value has not been seen before
+     */
+    public int intern(String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            // N.B. value is stored before its id is published, so that get() always finds it
+            values[size] = value;
+            ids.put(value, size);
+            return size++;
+        }
+    }
+
+    /**
+     * @param value
+     * @return The id of value, or -1 if value has not been seen before
+     */
+    public int getId(String value) {
+        Integer id = ids.get(value);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * @param id
+     * @return The string whose id is id
+     */
+    public String get(int id) {
+        return values[id];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,66 @@
+package uk.ac.ebi.ddi.downloas.ena;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reports the heap used - and the time taken to look up every accession - by ENAAccessionCache and by
+ * the ConcurrentHashMap it replaced, for a million synthetic run accessions mapped to 10,000 projects.
+ * Run with e.g.: java -Xmx4g -cp target/classes:target/test-classes:...
+ * uk.ac.ebi.ddi.downloas.ena.ENAAccessionCacheHeapReport
+ */
+public class ENAAccessionCacheHeapReport {
+
+    private static final int ACCESSIONS = 1000000;
+    private static final int PROJECTS = 10000;
+
+    public static void main(String[] args) {
+        long before = usedHeap();
+        Map<String, String> map = new ConcurrentHashMap<>();
+        for (int i = 0; i < ACCESSIONS; i++) {
+            map.put(getAccession(i), new String("PRJEB" + (i % PROJECTS)));
+        }
+        report("ConcurrentHashMap", usedHeap() - before, time(() -> {
+            for (int i = 0; i < ACCESSIONS; i++) {
+                map.get(getAccession(i));
+            }
+        }));
+        map.clear();
+
+        before = usedHeap();
+        ENAAccessionCache cache = new ENAAccessionCache();
+        for (int i = 0; i < ACCESSIONS; i++) {
+            cache.put(getAccession(i), new String("PRJEB" + (i % PROJECTS)));
+        }
+        report("ENAAccessionCache", usedHeap() - before, time(() -> {
+            for (int i = 0; i < ACCESSIONS; i++) {
+                cache.get(getAccession(i));
+            }
+        }));
+    }
+
+    private static String getAccession(int i) {
+        return "ERR" + (1000000 + i * 7);
+    }
+
+    private static void report(String cacheType, long bytes, long lookupMillis) {
+        System.out.println(String.format("%-18s %,d bytes per accession, %,d ms per %,d lookups",
+                cacheType, bytes / ACCESSIONS, lookupMillis, ACCESSIONS));
+    }
+
+    private static long time(Runnable runnable) {
+        // Warm up first
+        runnable.run();
+        long start = System.currentTimeMillis();
+        runnable.run();
+        return System.currentTimeMillis() - start;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
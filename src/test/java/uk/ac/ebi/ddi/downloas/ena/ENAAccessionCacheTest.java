@@ -0,0 +1,64 @@
+package uk.ac.ebi.ddi.downloas.ena;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+public class ENAAccessionCacheTest {
+
+    @Test
+    public void encodeAndDecode() {
+        for (String accession : new String[] {"ERR1234567", "SRR000001", "DRX123456", "ERZ675274", "GCA_000001735",
+                "AFTI01", "E1", "ABCD00000000001"}) {
+            long key = ENAAccessionCache.encode(accession);
+            Assert.assertTrue(accession, key != ENAAccessionCache.NO_KEY);
+            Assert.assertEquals(accession, ENAAccessionCache.decode(key));
+        }
+        for (String accession : new String[] {"", "ERR", "1234", "ABCDE01", "ERR123456789012", "ERR12x", "err123",
+                "GCA__000001735", "PRJEB4848a"}) {
+            Assert.assertEquals(accession, ENAAccessionCache.NO_KEY, ENAAccessionCache.encode(accession));
+        }
+        Assert.assertTrue(ENAAccessionCache.encode("ERR01") != ENAAccessionCache.encode("ERR1"));
+    }
+
+    @Test
+    public void putAndGet() {
+        ENAAccessionCache cache = new ENAAccessionCache();
+        Map<String, String> expected = new HashMap<>();
+        IntStream.range(0, 200000).parallel().forEach(i -> {
+            String accession = i % 10 == 0 ? "odd-shape-" + i : String.format("ERR%07d", i);
+            cache.put(accession, "PRJEB" + (i % 1000));
+        });
+        for (int i = 0; i < 200000; i++) {
+            expected.put(i % 10 == 0 ? "odd-shape-" + i : String.format("ERR%07d", i), "PRJEB" + (i % 1000));
+        }
+        Assert.assertEquals(expected.size(), cache.size());
+        Map<String, String> actual = new HashMap<>();
+        cache.forEach(actual::put);
+        Assert.assertEquals(expected, actual);
+        Assert.assertNull(cache.get("ERR9999999"));
+
+        cache.putIfAbsent("ERR0000001", "PRJEB1000000");
+        Assert.assertEquals("PRJEB1", cache.get("ERR0000001"));
+        cache.put("ERR0000001", "PRJEB1000000");
+        Assert.assertEquals("PRJEB1000000", cache.get("ERR0000001"));
+        Assert.assertEquals(expected.size(), cache.size());
+    }
+
+    @Test
+    public void ensureCapacity() {
+        ENAAccessionCache cache = new ENAAccessionCache();
+        cache.put("ERR0000001", "PRJEB1");
+        cache.ensureCapacity(500000);
+        cache.ensureCapacity(10);
+        for (int i = 2; i <= 100000; i++) {
+            cache.put(String.format("ERR%07d", i), "PRJEB" + (i % 1000));
+        }
+        Assert.assertEquals(100000, cache.size());
+        Assert.assertEquals("PRJEB1", cache.get("ERR0000001"));
+        Assert.assertEquals("PRJEB999", cache.get("ERR0099999"));
+    }
+}
@@ -0,0 +1,65 @@
+package uk.ac.ebi.ddi.downloas.ena;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import uk.ac.ebi.ddi.downloas.logs.ElasticSearchWsConfigProd;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the detection of the type of the accessions generated by ENAAccessionClassifierTest by
+ * ENAAccessionClassifier with that by the regexes it replaced. Run with:
+ * mvn test-compile exec:java -Dexec.mainClass=uk.ac.ebi.ddi.downloas.ena.ENAAccessionClassifierBenchmark
+ * -Dexec.classpathScope=test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ENAAccessionClassifierBenchmark {
+
+    private static final Pattern PROJECT_PATTERN = Pattern.compile(ElasticSearchWsConfigProd.ENA_PRJ_ACCESSION_REGEX);
+
+    private List<String> accessions;
+
+    @Setup
+    public void setUp() {
+        accessions = ENAAccessionClassifierTest.generateAccessions(10000, 42);
+    }
+
+    @Benchmark
+    public void regexes(Blackhole blackhole) {
+        for (String accession : accessions) {
+            blackhole.consume(PROJECT_PATTERN.matcher(accession).matches()
+                    ? null : ENAAccessionClassifierTest.getAccessionTypeByRegex(accession));
+        }
+    }
+
+    @Benchmark
+    public void classifier(Blackhole blackhole) {
+        for (String accession : accessions) {
+            blackhole.consume(ENAAccessionClassifier.isProjectAccession(accession)
+                    ? null : ENAAccessionClassifier.getAccessionType(accession));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ENAAccessionClassifierBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,143 @@
+package uk.ac.ebi.ddi.downloas.ena;
+
+import org.junit.Assert;
+import org.junit.Test;
+import uk.ac.ebi.ddi.downloas.logs.ElasticSearchWsConfigProd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+public class ENAAccessionClassifierTest {
+
+    private static final Pattern PROJECT_PATTERN = Pattern.compile(ElasticSearchWsConfigProd.ENA_PRJ_ACCESSION_REGEX);
+
+    // Templates of valid accessions of each type, and of project accessions: L stands for an upper-case letter,
+    // D for a digit and W for a word character; any other character stands for itself
+    private static final String[] TEMPLATES = {
+        "ERRDDDDDDD", "SRRDDDDDD", "DRXDDDDDDD", "ERPDDDDDD", "ERZDDDDDDD", "SRZDDDDDD", "ERADDDDDDD", "DRADDDDDD",
+        "GCA_DDDDDDDDD", "LLLLDD", "PRJEBDDDDD", "PRJNADDDDDD", "PRJW", "PRJWWWWWWWW"
+    };
+    // Characters a template character may be mutated into
+    private static final String MUTATIONS = "ADEGPRSXZCJ_a0159.-/";
+
+    /**
+     * @param count
+     * @param seed
+     * @return count accessions generated from TEMPLATES - a quarter of them with one character mutated, and another
+     * quarter with one character added or removed - interspersed with random strings
+     */
+    static List<String> generateAccessions(int count, long seed) {
+        Random random = new Random(seed);
+        List<String> accessions = new ArrayList<>(count);
+        while (accessions.size() < count) {
+            StringBuilder accession = new StringBuilder();
+            if (random.nextInt(10) == 0) {
+                int length = random.nextInt(15);
+                for (int i = 0; i < length; i++) {
+                    accession.append(MUTATIONS.charAt(random.nextInt(MUTATIONS.length())));
+                }
+                accessions.add(accession.toString());
+                continue;
+            }
+            for (char c : TEMPLATES[random.nextInt(TEMPLATES.length)].toCharArray()) {
+                switch (c) {
+                    case 'L':
+                        accession.append((char) ('A' + random.nextInt(26)));
+                        break;
+                    case 'D':
+                        accession.append((char) ('0' + random.nextInt(10)));
+                        break;
+                    case 'W':
+                        String word = "AZaz09_";
+                        accession.append(word.charAt(random.nextInt(word.length())));
+                        break;
+                    default:
+                        accession.append(c);
+                }
+            }
+            int position = random.nextInt(accession.length());
+            switch (random.nextInt(8)) {
+                case 0:
+                case 1:
+                    accession.setCharAt(position, MUTATIONS.charAt(random.nextInt(MUTATIONS.length())));
+                    break;
+                case 2:
+                    accession.insert(position, (char) ('0' + random.nextInt(10)));
+                    break;
+                case 3:
+                    accession.deleteCharAt(position);
+                    break;
+                default:
+            }
+            accessions.add(accession.toString());
+        }
+        return accessions;
+    }
+
+    /**
+     * @param enaAccession
+     * @return The ENAWsConfigProd.AccessionTypes value whose regex matches enaAccession; null if there is none
+     */
+    static ENAWsConfigProd.AccessionTypes getAccessionTypeByRegex(String enaAccession) {
+        for (ENAWsConfigProd.AccessionTypes accType : ENAWsConfigProd.AccessionTypes.values()) {
+            if (ENAWsConfigProd.getRegexPattern(accType).matcher(enaAccession).matches()) {
+                return accType;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void matchRegexesOnGeneratedAccessions() {
+        int[] typeCounts = new int[ENAWsConfigProd.AccessionTypes.values().length];
+        int projectCount = 0;
+        for (String accession : generateAccessions(200000, 42)) {
+            ENAWsConfigProd.AccessionTypes accType = getAccessionTypeByRegex(accession);
+            Assert.assertEquals(accession, accType, ENAAccessionClassifier.getAccessionType(accession));
+            boolean isProject = PROJECT_PATTERN.matcher(accession).matches();
+            Assert.assertEquals(accession, isProject, ENAAccessionClassifier.isProjectAccession(accession));
+            if (accType != null) {
+                typeCounts[accType.ordinal()]++;
+            }
+            if (isProject) {
+                projectCount++;
+            }
+        }
+        // The corpus exercises each type
+        for (int typeCount : typeCounts) {
+            Assert.assertTrue(typeCount > 1000);
+        }
+        Assert.assertTrue(projectCount > 1000);
+    }
+
+    @Test
+    public void getAccessionType() {
+        Assert.assertEquals(ENAWsConfigProd.AccessionTypes.study_experiment_run,
+                ENAAccessionClassifier.getAccessionType("ERR1234567"));
+        Assert.assertEquals(ENAWsConfigProd.AccessionTypes.study_experiment_run,
+                ENAAccessionClassifier.getAccessionType("SRP123456"));
+        Assert.assertEquals(ENAWsConfigProd.AccessionTypes.analysis,
+                ENAAccessionClassifier.getAccessionType("ERZ123456"));
+        Assert.assertEquals(ENAWsConfigProd.AccessionTypes.submission,
+                ENAAccessionClassifier.getAccessionType("DRA1234567"));
+        Assert.assertEquals(ENAWsConfigProd.AccessionTypes.assembly,
+                ENAAccessionClassifier.getAccessionType("GCA_000001405"));
+        Assert.assertEquals(ENAWsConfigProd.AccessionTypes.sequence, ENAAccessionClassifier.getAccessionType("AFTI01"));
+        Assert.assertNull(ENAAccessionClassifier.getAccessionType("ERS123456"));
+        Assert.assertNull(ENAAccessionClassifier.getAccessionType("ERR12345678"));
+        Assert.assertNull(ENAAccessionClassifier.getAccessionType("GCF_000001405"));
+        Assert.assertNull(ENAAccessionClassifier.getAccessionType("aFTI01"));
+        Assert.assertNull(ENAAccessionClassifier.getAccessionType(""));
+    }
+
+    @Test
+    public void isProjectAccession() {
+        Assert.assertTrue(ENAAccessionClassifier.isProjectAccession("PRJEB12345"));
+        Assert.assertTrue(ENAAccessionClassifier.isProjectAccession("PRJ_a"));
+        Assert.assertFalse(ENAAccessionClassifier.isProjectAccession("PRJ"));
+        Assert.assertFalse(ENAAccessionClassifier.isProjectAccession("PRJEB-1"));
+        Assert.assertFalse(ENAAccessionClassifier.isProjectAccession("ERP123456"));
+    }
+}
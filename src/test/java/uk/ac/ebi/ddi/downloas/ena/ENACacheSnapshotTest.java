@@ -0,0 +1,86 @@
+package uk.ac.ebi.ddi.downloas.ena;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ENACacheSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Map<String, String> getMappings() {
+        Map<String, String> mappings = new HashMap<>();
+        mappings.put("ERR975925", "PRJEB4848");
+        mappings.put("ERR975926", "PRJEB4848");
+        mappings.put("GCA_000001735", "PRJNA10719");
+        mappings.put("AFTI01", "PRJNA70283");
+        return mappings;
+    }
+
+    @Test
+    public void writeAndRead() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("snapshots").resolve("ena.snapshot");
+        ENACacheSnapshot.write(file, 1538352000000L, getMappings());
+        Map<String, String> mappings = new HashMap<>();
+        Assert.assertEquals(1538352000000L, ENACacheSnapshot.read(file, mappings::put));
+        Assert.assertEquals(getMappings(), mappings);
+        // No temporary files are left behind
+        Assert.assertEquals(1, file.getParent().toFile().list().length);
+    }
+
+    @Test(expected = IOException.class)
+    public void readTruncated() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("ena.snapshot");
+        ENACacheSnapshot.write(file, 0, getMappings());
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+        ENACacheSnapshot.read(file, (accession, projectAccession) -> { });
+    }
+
+    @Test(expected = IOException.class)
+    public void readOtherFormat() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("ena.snapshot");
+        Files.write(file, "run_accession\tstudy_accession\n".getBytes());
+        ENACacheSnapshot.read(file, (accession, projectAccession) -> { });
+    }
+
+    @Test
+    public void writeFromAndReadIntoCache() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("ena.snapshot");
+        ENAAccessionCache cache = new ENAAccessionCache();
+        getMappings().forEach(cache::put);
+        ENACacheSnapshot.write(file, 1538352000000L, cache.size(), cache::forEach);
+
+        ENAAccessionCache loaded = new ENAAccessionCache();
+        int[] count = {-1};
+        ENACacheSnapshot.read(file, size -> count[0] = size, loaded::put);
+        Assert.assertEquals(getMappings().size(), count[0]);
+        Map<String, String> mappings = new HashMap<>();
+        loaded.forEach(mappings::put);
+        Assert.assertEquals(getMappings(), mappings);
+    }
+
+    @Test
+    public void writeWrongCount() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("ena.snapshot");
+        ENACacheSnapshot.write(file, 0, getMappings());
+        byte[] snapshot = Files.readAllBytes(file);
+        try {
+            ENACacheSnapshot.write(file, 1, getMappings().size() + 1, getMappings()::forEach);
+            Assert.fail();
+        } catch (IOException e) {
+            // The existing snapshot is left as it was
+            Assert.assertArrayEquals(snapshot, Files.readAllBytes(file));
+            Assert.assertEquals(1, file.getParent().toFile().list().length);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package uk.ac.ebi.ddi.downloas.ena;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the parts of the ENA portal API used by ENAWsClient - /count and /search of read_run results, in TSV or
+ * JSON - without querying ENA: run accession ERRn is mapped to project accession PRJEB(n % PROJECTS). Bulk
+ * retrievals (i.e. searches without a query) only return the mappings of the cachedRuns runs from firstRun, so that
+ * the other runs are looked up on demand. Register with e.g.:
+ * server.createContext(ENAPortalStub.CONTEXT, new ENAPortalStub(firstRun, cachedRuns))
+ */
+public class ENAPortalStub implements HttpHandler {
+
+    public static final String CONTEXT = "/ena/portal/api";
+    public static final int PROJECTS = 5000;
+
+    private static final String RUN_RESULT = "read_run";
+    private static final String RUN_FIELD = "run_accession";
+    private static final String PROJECT_FIELD = "study_accession";
+    private static final Pattern RUN_PATTERN = Pattern.compile("ERR(\\d+)");
+    // The host name requested by the ENAWsClient returned by newENAWsClient(), redirected to the stub
+    private static final String STUB_HOST_NAME = "ena.stub";
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final int firstRun;
+    private final int cachedRuns;
+
+    /**
+     * @param firstRun   The number of the first run accession, e.g. 1000000 for ERR1000000
+     * @param cachedRuns The number of runs returned by bulk retrievals
+     */
+    public ENAPortalStub(int firstRun, int cachedRuns) {
+        this.firstRun = firstRun;
+        this.cachedRuns = cachedRuns;
+    }
+
+    /**
+     * @param port The port on which the stub is served, on localhost
+     * @return An ENAWsClient querying the stub rather than ENA. N.B. ENAWsConfigProd's host name cannot include a
+     * port, hence the requests are redirected by the client's RestTemplate
+     */
+    public static ENAWsClient newENAWsClient(int port) {
+        ENAWsClient enaWsClient = new ENAWsClient(new ENAWsConfigProd("http", STUB_HOST_NAME + CONTEXT));
+        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory() {
+            @Override
+            protected HttpUriRequest createHttpUriRequest(HttpMethod httpMethod, URI uri) {
+                String query = uri.getRawQuery();
+                return super.createHttpUriRequest(httpMethod, URI.create("http://localhost:" + port + uri.getRawPath()
+                        + (query != null ? "?" + query : "")));
+            }
+        };
+        enaWsClient.setRestTemplate(new RestTemplate(requestFactory));
+        return enaWsClient;
+    }
+
+    /**
+     * @param run
+     * @return The project accession of run accession ERR{run}
+     */
+    public static String getProjectAccession(int run) {
+        return "PRJEB" + (run % PROJECTS);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> params = getQueryParams(exchange.getRequestURI().getRawQuery());
+            if (path.endsWith("/count")) {
+                boolean bulk = RUN_RESULT.equals(params.get("result")) && params.get("query") == null;
+                String count = Integer.toString(bulk ? cachedRuns : 0);
+                send(exchange, "text/plain", count.getBytes(StandardCharsets.UTF_8));
+            } else if (path.endsWith("/search")) {
+                search(exchange, params);
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void search(HttpExchange exchange, Map<String, String> params) throws IOException {
+        List<Integer> runs = new ArrayList<>();
+        if (RUN_RESULT.equals(params.get("result"))) {
+            String query = params.get("query");
+            if (query == null) {
+                int offset = Integer.parseInt(params.getOrDefault("offset", "0"));
+                int limit = Integer.parseInt(params.getOrDefault("limit", "0"));
+                int end = limit > 0 ? Math.min(cachedRuns, offset + limit) : cachedRuns;
+                for (int i = offset; i < end; i++) {
+                    runs.add(firstRun + i);
+                }
+            } else {
+                Matcher matcher = RUN_PATTERN.matcher(query);
+                while (matcher.find()) {
+                    runs.add(Integer.parseInt(matcher.group(1)));
+                }
+            }
+        }
+        List<String> fields = Arrays.asList(params.getOrDefault("fields", PROJECT_FIELD).split(","));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if ("tsv".equals(params.get("format"))) {
+            StringBuilder tsv = new StringBuilder(String.join("\t", fields)).append('\n');
+            for (int run : runs) {
+                for (int i = 0; i < fields.size(); i++) {
+                    tsv.append(i > 0 ? "\t" : "").append(getValue(fields.get(i), run));
+                }
+                tsv.append('\n');
+            }
+            out.write(tsv.toString().getBytes(StandardCharsets.UTF_8));
+            send(exchange, "text/plain", out.toByteArray());
+            return;
+        }
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            generator.writeStartArray();
+            for (int run : runs) {
+                generator.writeStartObject();
+                for (String field : fields) {
+                    generator.writeStringField(field, getValue(field, run));
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        send(exchange, "application/json", out.toByteArray());
+    }
+
+    private static String getValue(String field, int run) {
+        return field.equals(RUN_FIELD) ? "ERR" + run : field.equals(PROJECT_FIELD) ? getProjectAccession(run) : "";
+    }
+
+    private static Map<String, String> getQueryParams(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery != null) {
+            for (String param : rawQuery.split("&")) {
+                int separator = param.indexOf('=');
+                if (separator > 0) {
+                    params.put(URLDecoder.decode(param.substring(0, separator), "UTF-8"),
+                            URLDecoder.decode(param.substring(separator + 1), "UTF-8"));
+                }
+            }
+        }
+        return params;
+    }
+
+    private static void send(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package uk.ac.ebi.ddi.downloas.ena;
+
+import com.google.common.cache.CacheStats;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class ENAWsClientOnDemandCacheTest {
+
+    private static final Pattern ACCESSION_PATTERN = Pattern.compile("ERR\\d+");
+
+    /**
+     * Serves ENA portal API (JSON) search results, without querying ENA: ERRnnnnnn is mapped to PRJEBnnnnnn for even
+     * n; odd n have no project accession
+     */
+    private static class StubRestTemplate extends RestTemplate {
+        private final List<URI> searches = new ArrayList<>();
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T getForObject(URI url, Class<T> responseType) {
+            searches.add(url);
+            String query = UriComponentsBuilder.fromUri(url).build().getQueryParams().getFirst("query");
+            List<ENAProjectAccessionMapping> results = new ArrayList<>();
+            Matcher matcher = ACCESSION_PATTERN.matcher(query);
+            while (matcher.find()) {
+                String accession = matcher.group();
+                if (Integer.parseInt(accession.substring(3)) % 2 == 0) {
+                    ENAProjectAccessionMapping result = new ENAProjectAccessionMapping();
+                    result.runAccesion = accession;
+                    result.studyAccesion = accession.replace("ERR", "PRJEB");
+                    results.add(result);
+                }
+            }
+            return (T) results.toArray(new ENAProjectAccessionMapping[0]);
+        }
+    }
+
+    private static ENAWsClient newENAWsClient(StubRestTemplate restTemplate, long onDemandCacheSize) {
+        ENAWsConfigProd config = new ENAWsConfigProd();
+        config.setOnDemandCacheSize(onDemandCacheSize);
+        ENAWsClient enaWsClient = new ENAWsClient(config);
+        enaWsClient.setRestTemplate(restTemplate);
+        return enaWsClient;
+    }
+
+    @Test
+    public void cacheHitsAndMisses() {
+        StubRestTemplate restTemplate = new StubRestTemplate();
+        ENAWsClient enaWsClient = newENAWsClient(restTemplate, 100);
+
+        Assert.assertEquals("PRJEB900000", enaWsClient.getProjectAccession("ERR900000"));
+        Assert.assertNull(enaWsClient.getProjectAccession("ERR900001"));
+        Assert.assertTrue(enaWsClient.isCached("ERR900000"));
+        Assert.assertTrue(enaWsClient.isCached("ERR900001"));
+        // Both the resolved accession and the one without a project accession are answered from the cache
+        Assert.assertEquals("PRJEB900000", enaWsClient.getProjectAccession("ERR900000"));
+        Assert.assertNull(enaWsClient.getProjectAccession("ERR900001"));
+        Assert.assertEquals(2, restTemplate.searches.size());
+
+        CacheStats stats = enaWsClient.getOnDemandCacheStats();
+        Assert.assertEquals(2, stats.hitCount());
+        Assert.assertEquals(2, stats.missCount());
+        Assert.assertEquals(0, stats.evictionCount());
+    }
+
+    @Test
+    public void evictBeyondMaximumSize() {
+        StubRestTemplate restTemplate = new StubRestTemplate();
+        ENAWsClient enaWsClient = newENAWsClient(restTemplate, 10);
+
+        List<String> accessions = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            accessions.add(String.format("ERR%06d", 800000 + i));
+        }
+        Map<String, String> enaAccessionToProject = enaWsClient.getProjectAccessions(accessions);
+        // All results are returned, even though most of them no longer fit in the cache
+        Assert.assertEquals(25, enaAccessionToProject.size());
+        Assert.assertEquals("PRJEB800048", enaAccessionToProject.get("ERR800048"));
+        Assert.assertEquals(1, restTemplate.searches.size());
+        Assert.assertTrue(enaWsClient.getOnDemandCacheStats().evictionCount() >= 40);
+
+        // Evicted accessions are looked up again
+        Assert.assertEquals("PRJEB800000", enaWsClient.getProjectAccession("ERR800000"));
+        Assert.assertEquals(2, restTemplate.searches.size());
+    }
+
+    @Test
+    public void getProjectAccessionOrDefault() {
+        StubRestTemplate restTemplate = new StubRestTemplate();
+        ENAWsClient enaWsClient = newENAWsClient(restTemplate, 100);
+
+        Assert.assertEquals("?", enaWsClient.getProjectAccessionOrDefault("ERR700000", "?"));
+        enaWsClient.getProjectAccessions(Arrays.asList("ERR700000", "ERR700001"));
+        Assert.assertEquals("PRJEB700000", enaWsClient.getProjectAccessionOrDefault("ERR700000", "?"));
+        Assert.assertNull(enaWsClient.getProjectAccessionOrDefault("ERR700001", "?"));
+        Assert.assertEquals("PRJEB1", enaWsClient.getProjectAccessionOrDefault("PRJEB1", "?"));
+        // ENA is only queried by getProjectAccessions()
+        Assert.assertEquals(1, restTemplate.searches.size());
+    }
+}
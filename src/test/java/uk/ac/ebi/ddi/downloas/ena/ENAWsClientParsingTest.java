@@ -0,0 +1,47 @@
+package uk.ac.ebi.ddi.downloas.ena;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ENAWsClientParsingTest {
+
+    private static InputStream toStream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void readJsonMappings() throws IOException {
+        Map<String, String> mappings = new LinkedHashMap<>();
+        long count = ENAWsClient.readJsonMappings(toStream("["
+                        + "{\"run_accession\":\"ERR975925\",\"study_accession\":\"PRJEB4848\"},"
+                        + "{\"study_accession\":\"PRJEB1\",\"run_accession\":\"ERR000001\",\"extra\":{\"a\":[1,2]}},"
+                        + "{\"run_accession\":\"ERR000002\",\"study_accession\":\"\"}"
+                        + "]"),
+                "run_accession", mappings::put);
+        Assert.assertEquals(2, count);
+        Assert.assertEquals("PRJEB4848", mappings.get("ERR975925"));
+        Assert.assertEquals("PRJEB1", mappings.get("ERR000001"));
+        Assert.assertFalse(mappings.containsKey("ERR000002"));
+        Assert.assertEquals(0, ENAWsClient.readJsonMappings(toStream(""), "run_accession", mappings::put));
+    }
+
+    @Test
+    public void readTsvMappings() throws IOException {
+        Map<String, String> mappings = new LinkedHashMap<>();
+        long count = ENAWsClient.readTsvMappings(toStream("study_accession\taccession\n"
+                        + "PRJNA70283\tAFTI01000000\n"
+                        + "\tAAAA01000000\n"
+                        + "PRJNA10719\tGCA_000001735\n"),
+                "accession", mappings::put);
+        Assert.assertEquals(2, count);
+        Assert.assertEquals("PRJNA70283", mappings.get("AFTI01000000"));
+        Assert.assertEquals("PRJNA10719", mappings.get("GCA_000001735"));
+    }
+}
@@ -0,0 +1,172 @@
+package uk.ac.ebi.ddi.downloas.ena;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ENAWsClientPopulateCacheTest {
+
+    private static final int READ_RUN_COUNT = 25;
+    private static final int OTHER_COUNT = 3;
+    private static final String INSERTED_RUN = "DRR000000";
+    private static final String INSERTED_PROJECT = "PRJDB000000";
+
+    /**
+     * Serves ENA portal API count and (tab-separated) search results, without querying ENA: read_run has
+     * READ_RUN_COUNT results - ERRnnnnnn mapped to PRJEBnnnnnn; all the other types have OTHER_COUNT results.
+     * Unless sorted by accession, the results are returned in a different order for each search. Once
+     * insertAfterSearches read_run searches have been served, INSERTED_RUN is inserted before all the other runs
+     */
+    private static class StubRestTemplate extends RestTemplate {
+        private final List<URI> searches = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger readRunSearches = new AtomicInteger();
+        private final int insertAfterSearches;
+
+        StubRestTemplate() {
+            this(Integer.MAX_VALUE);
+        }
+
+        StubRestTemplate(int insertAfterSearches) {
+            this.insertAfterSearches = insertAfterSearches;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T getForObject(URI url, Class<T> responseType) {
+            return (T) String.valueOf(getRows(getQueryParam(url, "result")).size());
+        }
+
+        @Override
+        public <T> T execute(URI url, HttpMethod method, RequestCallback requestCallback,
+                             ResponseExtractor<T> responseExtractor) {
+            searches.add(url);
+            String result = getQueryParam(url, "result");
+            String[] fields = getQueryParam(url, "fields").split(",");
+            List<String> rows = getRows(result);
+            if (result.equals("read_run")) {
+                readRunSearches.incrementAndGet();
+            }
+            if (!fields[0].equals(getQueryParam(url, "sortFields"))) {
+                Collections.rotate(rows, searches.size());
+            }
+            int limit = Integer.parseInt(getQueryParam(url, "limit"));
+            int offset = limit > 0 ? Integer.parseInt(getQueryParam(url, "offset")) : 0;
+            int end = limit > 0 ? Math.min(rows.size(), offset + limit) : rows.size();
+            StringBuilder tsv = new StringBuilder(fields[0] + "\t" + fields[1] + "\n");
+            for (String row : rows.subList(Math.min(offset, end), end)) {
+                tsv.append(row).append("\n");
+            }
+            try {
+                return responseExtractor.extractData(
+                        new MockClientHttpResponse(tsv.toString().getBytes(StandardCharsets.UTF_8), HttpStatus.OK));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * @param result
+         * @return The tab-separated rows of result, sorted by accession
+         */
+        private List<String> getRows(String result) {
+            List<String> rows = new ArrayList<>();
+            if (result.equals("read_run") && readRunSearches.get() >= insertAfterSearches) {
+                rows.add(INSERTED_RUN + "\t" + INSERTED_PROJECT);
+            }
+            int total = result.equals("read_run") ? READ_RUN_COUNT : OTHER_COUNT;
+            for (int i = 0; i < total; i++) {
+                rows.add(String.format("%s%06d\tPRJEB%06d", result.equals("read_run") ? "ERR" : result, i, i));
+            }
+            return rows;
+        }
+
+        private static String getQueryParam(URI url, String name) {
+            return UriComponentsBuilder.fromUri(url).build().getQueryParams().getFirst(name);
+        }
+    }
+
+    @Test
+    public void populateCacheInParallelPages() {
+        ENAWsConfigProd config = new ENAWsConfigProd();
+        config.setCachePageSize(10);
+        ENAWsClient enaWsClient = new ENAWsClient(config);
+        StubRestTemplate restTemplate = new StubRestTemplate();
+        enaWsClient.setRestTemplate(restTemplate);
+        // N.B. The cache may have been populated by another test
+        ENAWsClient.invalidateCache();
+        enaWsClient.populateCache();
+
+        // read_run is retrieved in 3 pages; analysis, assembly and wgs_set - in a single query each
+        Assert.assertEquals(6, restTemplate.searches.size());
+        for (int i = 0; i < READ_RUN_COUNT; i++) {
+            String accession = String.format("ERR%06d", i);
+            Assert.assertTrue(accession, enaWsClient.isCached(accession));
+            Assert.assertEquals(String.format("PRJEB%06d", i), enaWsClient.getProjectAccession(accession));
+        }
+        for (URI search : restTemplate.searches) {
+            MultiValueMap<String, String> params = UriComponentsBuilder.fromUri(search).build().getQueryParams();
+            boolean paged = params.get("result").get(0).equals("read_run");
+            Assert.assertEquals(paged ? "10" : "0", params.get("limit").get(0));
+            // The stub returns the results in a different order for each search, unless they are sorted
+            Assert.assertEquals(paged ? "run_accession" : null, params.getFirst("sortFields"));
+        }
+    }
+
+    @Test
+    public void populateCacheInSinglePageIfPagesChange() {
+        ENAWsConfigProd config = new ENAWsConfigProd();
+        config.setCachePageSize(10);
+        ENAWsClient enaWsClient = new ENAWsClient(config);
+        // A run is inserted before all the others once the first page has been retrieved, shifting the later pages
+        StubRestTemplate restTemplate = new StubRestTemplate(1);
+        enaWsClient.setRestTemplate(restTemplate);
+        ENAWsClient.invalidateCache();
+        enaWsClient.populateCache();
+
+        // The 3 read_run pages no longer add up to its count, so read_run is retrieved again in a single query
+        Assert.assertEquals(7, restTemplate.searches.size());
+        URI lastSearch = restTemplate.searches.get(restTemplate.searches.size() - 1);
+        MultiValueMap<String, String> params = UriComponentsBuilder.fromUri(lastSearch).build().getQueryParams();
+        Assert.assertEquals("read_run", params.getFirst("result"));
+        Assert.assertEquals("0", params.getFirst("limit"));
+        for (int i = 0; i < READ_RUN_COUNT; i++) {
+            String accession = String.format("ERR%06d", i);
+            Assert.assertTrue(accession, enaWsClient.isCached(accession));
+            Assert.assertEquals(String.format("PRJEB%06d", i), enaWsClient.getProjectAccession(accession));
+        }
+        Assert.assertEquals(INSERTED_PROJECT, enaWsClient.getProjectAccession(INSERTED_RUN));
+    }
+
+    @Test
+    public void populateCacheOnce() {
+        ENAWsClient.invalidateCache();
+        StubRestTemplate restTemplate = new StubRestTemplate();
+        ENAWsClient enaWsClient = new ENAWsClient(new ENAWsConfigProd());
+        enaWsClient.setRestTemplate(restTemplate);
+        enaWsClient.populateCache();
+        Assert.assertEquals(4, restTemplate.searches.size());
+
+        // The cache is only populated once per process, whichever client populates it
+        enaWsClient.populateCache();
+        ENAWsClient otherClient = new ENAWsClient(new ENAWsConfigProd());
+        otherClient.setRestTemplate(restTemplate);
+        otherClient.populateCache();
+        Assert.assertEquals(4, restTemplate.searches.size());
+    }
+}
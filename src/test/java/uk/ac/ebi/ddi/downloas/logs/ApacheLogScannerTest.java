@@ -0,0 +1,116 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class ApacheLogScannerTest {
+
+    private static final String MARKER = "download/MODEL";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * @return The lines of file containing MARKER, as read by BufferedReader
+     */
+    private static List<String> readMatchingLines(Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.contains(MARKER)) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> scan(Path file, int bufferSize) throws IOException {
+        List<String> lines = new ArrayList<>();
+        new ApacheLogScanner(MARKER, bufferSize).scan(file, lines::add);
+        return lines;
+    }
+
+    @Test
+    public void scanLikeBufferedReader() throws IOException {
+        Random random = new Random(42);
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            int length = random.nextInt(10) == 0 ? random.nextInt(500) : random.nextInt(40);
+            for (int j = 0; j < length; j++) {
+                log.append(random.nextInt(20) == 0 ? MARKER : (char) ('a' + random.nextInt(26)));
+            }
+            if (random.nextInt(20) == 0) {
+                log.append("\u00e9\u2603");
+            }
+            log.append(random.nextInt(5) == 0 ? "\r\n" : "\n");
+        }
+        log.append("no line terminator ").append(MARKER);
+        Path file = folder.newFile("access_2018-10-01.log").toPath();
+        Files.write(file, log.toString().getBytes(StandardCharsets.UTF_8));
+
+        List<String> expected = readMatchingLines(file);
+        Assert.assertTrue(expected.size() > 100);
+        for (int bufferSize : new int[]{16, 100, 4096, ApacheLogScanner.DEFAULT_BUFFER_SIZE}) {
+            Assert.assertEquals("bufferSize: " + bufferSize, expected, scan(file, bufferSize));
+        }
+    }
+
+    @Test
+    public void scanByteRanges() throws IOException {
+        Random random = new Random(7);
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            log.append(i).append(random.nextBoolean() ? " " + MARKER : "").append(" x\n");
+            if (random.nextInt(10) == 0) {
+                log.append("\n");
+            }
+        }
+        Path file = folder.newFile("access_2018-10-05.log").toPath();
+        Files.write(file, log.toString().getBytes(StandardCharsets.UTF_8));
+        long size = Files.size(file);
+
+        List<String> expected = readMatchingLines(file);
+        for (int rangeSize : new int[]{1, 7, 64, 1000}) {
+            ApacheLogScanner scanner = new ApacheLogScanner(MARKER, 32);
+            List<String> lines = new ArrayList<>();
+            for (long from = 0; from < size; from += rangeSize) {
+                scanner.scan(file, from, from + rangeSize, false, lines::add);
+            }
+            Assert.assertEquals("rangeSize: " + rangeSize, expected, lines);
+        }
+    }
+
+    @Test
+    public void scanEmptyFile() throws IOException {
+        Path file = folder.newFile("access_2018-10-02.log").toPath();
+        Assert.assertTrue(scan(file, 16).isEmpty());
+    }
+
+    @Test
+    public void reuseAcrossFiles() throws IOException {
+        Path first = folder.newFile("access_2018-10-03.log").toPath();
+        Files.write(first, ("1 " + MARKER + "1\n2\n3 partial " + MARKER).getBytes(StandardCharsets.UTF_8));
+        Path second = folder.newFile("access_2018-10-04.log").toPath();
+        Files.write(second, ("4 " + MARKER + "4\n").getBytes(StandardCharsets.UTF_8));
+        ApacheLogScanner scanner = new ApacheLogScanner(MARKER, 16);
+        List<String> lines = new ArrayList<>();
+        scanner.scan(first, lines::add);
+        scanner.scan(second, lines::add);
+        List<String> expected = readMatchingLines(first);
+        expected.addAll(readMatchingLines(second));
+        Assert.assertEquals(expected, lines);
+    }
+}
@@ -0,0 +1,26 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import com.google.common.collect.Multiset;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Retrieves data downloads from the production log directories (c.f. ApacheLogsFileConfigProd.FIELD.LogsDir) - hence
+ * only runs where they are mounted, and is excluded from the build
+ *
+ * @author datasome
+ */
+public class ApacheLogsFileClientLogsDirTest {
+
+    ApacheLogsFileClient apacheFileLogsClient = new ApacheLogsFileClient(new ApacheLogsFileConfigProd());
+
+    @Test
+    public void getDataDownloads() {
+        Map<String, Map<String, Multiset<String>>> bioModelsDownloads =
+                apacheFileLogsClient.getDataDownloads(ApacheLogsFileConfigProd.DB.BioModels, "MODEL1402200000");
+        Assert.assertTrue(bioModelsDownloads.size() > 0);
+
+    }
+}
@@ -1,10 +1,28 @@
 package uk.ac.ebi.ddi.downloas.logs;
 
-import com.google.common.collect.Multiset;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
 /**
  *
@@ -12,13 +30,233 @@ import java.util.Map;
  */
 public class ApacheLogsFileClientTest {
 
-    ApacheLogsFileClient apacheFileLogsClient = new ApacheLogsFileClient(new ApacheLogsFileConfigProd());
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * @return Log files of BioModels in a new directory of folder, containing lineCount lines each - about one in three of them
+     * a download
+     */
+    private Map<ApacheLogsFileConfigProd.DB, List<File>> writeLogFiles(int fileCount, int lineCount)
+            throws IOException {
+        Random random = new Random(42);
+        List<File> files = new ArrayList<>();
+        File dir = folder.newFolder();
+        for (int i = 1; i <= fileCount; i++) {
+            File file = new File(dir, String.format("access_2018-%02d-01.log", i));
+            try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+                for (int j = 0; j < lineCount; j++) {
+                    String path = random.nextInt(3) == 0
+                            ? String.format("/biomodels/model/download/MODEL%010d.%d?filename=MODEL%d_url.xml&x=1",
+                            random.nextInt(20), random.nextInt(3), random.nextInt(2))
+                            : "/biomodels/static/style.css";
+                    writer.printf("10.0.0.%d - - [%02d/%s/2018:13:55:36 +0000] \"GET %s HTTP/1.1\" 200 2326%n",
+                            random.nextInt(10), 1 + random.nextInt(28), i % 2 == 0 ? "Feb" : "Jan", path);
+                }
+            }
+            files.add(file);
+        }
+        Map<ApacheLogsFileConfigProd.DB, List<File>> dbToFiles = new EnumMap<>(ApacheLogsFileConfigProd.DB.class);
+        dbToFiles.put(ApacheLogsFileConfigProd.DB.BioModels, files);
+        return dbToFiles;
+    }
+
+    private static Map<List<String>, Integer> toMap(DownloadsStore<ApacheLogsFileConfigProd.DB> downloads) {
+        Map<List<String>, Integer> map = new HashMap<>();
+        downloads.forEach((db, accession, period, anonymisedIPAddress, fileName, count) -> map.merge(
+                Arrays.asList(
+                        db.name(), accession, period, anonymisedIPAddress, fileName), count, Integer::sum));
+        return map;
+    }
+
+    /**
+     * @return The downloads retrieved from the log files in dbToFiles, none of which fail to be ingested
+     */
+    private static Map<List<String>, Integer> retrieveData(ApacheLogsFileConfigProd config,
+                                                          Map<ApacheLogsFileConfigProd.DB, List<File>> dbToFiles) {
+        Set<File> failedFiles = new HashSet<>();
+        Map<List<String>, Integer> downloads =
+                toMap(new ApacheLogsFileClient(config).retrieveDataFromApacheLogs(dbToFiles, failedFiles));
+        Assert.assertEquals(Collections.emptySet(), failedFiles);
+        return downloads;
+    }
+
+    @Test
+    public void retrieveDataInParallel() throws IOException {
+        Map<ApacheLogsFileConfigProd.DB, List<File>> dbToFiles = writeLogFiles(3, 3000);
+
+        ApacheLogsFileConfigProd sequentialConfig = new ApacheLogsFileConfigProd();
+        sequentialConfig.setIngestionEngine(ApacheLogsFileConfigProd.IngestionEngine.reader);
+        sequentialConfig.setParallelism(1);
+        Map<List<String>, Integer> expected = retrieveData(sequentialConfig, dbToFiles);
+        Assert.assertTrue(expected.values().stream().mapToInt(Integer::intValue).sum() > 2000);
+
+        ApacheLogsFileConfigProd parallelConfig = new ApacheLogsFileConfigProd();
+        parallelConfig.setParallelism(4);
+        // Each file is split into several byte ranges
+        parallelConfig.setSplitSize(10000);
+        Assert.assertEquals(expected,
+                retrieveData(parallelConfig, dbToFiles));
+    }
+
+    @Test
+    public void refreshIncrementally() throws IOException {
+        Map<ApacheLogsFileConfigProd.DB, List<File>> dbToFiles = writeLogFiles(2, 1000);
+        List<File> files = dbToFiles.get(ApacheLogsFileConfigProd.DB.BioModels);
+        // The last line is still being written
+        String partialLine = "10.0.0.1 - - [01/Jan/2018:13:55:36 +0000] \"GET /biomodels/model/download/MODEL0000000001";
+        Files.write(files.get(0).toPath(), partialLine.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        ApacheLogsFileClient client = new ApacheLogsFileClient(new ApacheLogsFileConfigProd());
+        Map<String, ApacheLogsIngestionState.Checkpoint> checkpoints = new HashMap<>();
+        DownloadsStore<ApacheLogsFileConfigProd.DB> downloads =
+                new ConcurrentDownloadsStore<>(ApacheLogsFileConfigProd.DB.class);
+        Assert.assertEquals(2, client.refresh(dbToFiles, checkpoints, downloads));
+        ApacheLogsIngestionState.Checkpoint checkpoint = checkpoints.get(files.get(0).getAbsolutePath());
+        Assert.assertEquals(files.get(0).length() - partialLine.length(), checkpoint.getOffset());
+        Assert.assertEquals(files.get(0).length(), checkpoint.getSize());
+
+        // Nothing has changed
+        Assert.assertEquals(0, client.refresh(dbToFiles, checkpoints, downloads));
+
+        // The partial line is completed, more lines are appended to the first file and a new file is added
+        Files.write(files.get(0).toPath(), ".2?filename=MODEL0_url.xml&x=1 HTTP/1.1\" 200 2326\n"
+                .getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        Map<ApacheLogsFileConfigProd.DB, List<File>> moreFiles = writeLogFiles(3, 200);
+        Files.write(files.get(0).toPath(), Files.readAllBytes(moreFiles.get(ApacheLogsFileConfigProd.DB.BioModels)
+                .get(0).toPath()), StandardOpenOption.APPEND);
+        dbToFiles.get(ApacheLogsFileConfigProd.DB.BioModels).add(moreFiles.get(ApacheLogsFileConfigProd.DB.BioModels)
+                .get(2));
+        Assert.assertEquals(2, client.refresh(dbToFiles, checkpoints, downloads));
+
+        ApacheLogsFileConfigProd sequentialConfig = new ApacheLogsFileConfigProd();
+        sequentialConfig.setIngestionEngine(ApacheLogsFileConfigProd.IngestionEngine.reader);
+        Assert.assertEquals(retrieveData(sequentialConfig, dbToFiles),
+                toMap(downloads));
+
+        // The ingestion state is persisted and restored
+        Path stateFile = folder.getRoot().toPath().resolve("state").resolve("apache_logs.state");
+        ApacheLogsIngestionState.write(stateFile, checkpoints, downloads);
+        Map<String, ApacheLogsIngestionState.Checkpoint> restoredCheckpoints = new HashMap<>();
+        DownloadsStore<ApacheLogsFileConfigProd.DB> restoredDownloads =
+                new ConcurrentDownloadsStore<>(ApacheLogsFileConfigProd.DB.class);
+        ApacheLogsIngestionState.read(stateFile, restoredCheckpoints, restoredDownloads);
+        Assert.assertEquals(toMap(downloads), toMap(restoredDownloads));
+        Assert.assertEquals(checkpoints.keySet(), restoredCheckpoints.keySet());
+        Assert.assertEquals(0, client.refresh(dbToFiles, restoredCheckpoints, restoredDownloads));
+    }
 
     @Test
-    public void getDataDownloads() {
-        Map<String, Map<String, Multiset<String>>> bioModelsDownloads =
-                apacheFileLogsClient.getDataDownloads(ApacheLogsFileConfigProd.DB.BioModels, "MODEL1402200000");
-        Assert.assertTrue(bioModelsDownloads.size() > 0);
+    public void skipReplacedFiles() throws IOException {
+        Map<ApacheLogsFileConfigProd.DB, List<File>> dbToFiles = writeLogFiles(2, 1000);
+        List<File> files = dbToFiles.get(ApacheLogsFileConfigProd.DB.BioModels);
+        ApacheLogsFileClient client = new ApacheLogsFileClient(new ApacheLogsFileConfigProd());
+        Map<String, ApacheLogsIngestionState.Checkpoint> checkpoints = new HashMap<>();
+        DownloadsStore<ApacheLogsFileConfigProd.DB> downloads =
+                new ConcurrentDownloadsStore<>(ApacheLogsFileConfigProd.DB.class);
+        Assert.assertEquals(2, client.refresh(dbToFiles, checkpoints, downloads));
+        Map<List<String>, Integer> expected = toMap(downloads);
+        ApacheLogsIngestionState.Checkpoint checkpoint = checkpoints.get(files.get(0).getAbsolutePath());
 
+        // The first file is truncated, then written to again: its downloads are not counted twice
+        byte[] content = Files.readAllBytes(files.get(0).toPath());
+        Files.write(files.get(0).toPath(), Arrays.copyOf(content, content.length / 2));
+        Assert.assertEquals(0, client.refresh(dbToFiles, checkpoints, downloads));
+        Assert.assertEquals(expected, toMap(downloads));
+        Assert.assertSame(checkpoint, checkpoints.get(files.get(0).getAbsolutePath()));
+    }
+
+    @Test
+    public void refreshFromLatestCheckpoints() {
+        Map<String, ApacheLogsIngestionState.Checkpoint> checkpoints = new HashMap<>();
+        LocalDate today = LocalDate.of(2019, 1, 2);
+        Assert.assertEquals(LocalDate.of(2019, 1, 1), ApacheLogsFileClient.getRefreshStart(checkpoints, today));
+
+        ApacheLogsIngestionState.Checkpoint checkpoint = new ApacheLogsIngestionState.Checkpoint("", 0, 0, 0);
+        checkpoints.put(new File("/logs/daily/access_2018-12-30.log").getAbsolutePath(), checkpoint);
+        checkpoints.put(new File("/logs/daily/access_2018-12-31.log").getAbsolutePath(), checkpoint);
+        checkpoints.put(new File("/logs/monthly/access_2018-11.log").getAbsolutePath(), checkpoint);
+        checkpoints.put(new File("/logs/monthly/access_2018-12.log").getAbsolutePath(), checkpoint);
+        // The latest log file of each directory may still have been written to since the last refresh
+        Assert.assertEquals(LocalDate.of(2018, 12, 1), ApacheLogsFileClient.getRefreshStart(checkpoints, today));
+
+        checkpoints.put(new File("/logs/monthly/access_2019-01.log").getAbsolutePath(), checkpoint);
+        Assert.assertEquals(LocalDate.of(2018, 12, 31), ApacheLogsFileClient.getRefreshStart(checkpoints, today));
+        checkpoints.put(new File("/logs/daily/access_2019-01-01.log").getAbsolutePath(), checkpoint);
+        Assert.assertEquals(LocalDate.of(2019, 1, 1), ApacheLogsFileClient.getRefreshStart(checkpoints, today));
+    }
+
+    @Test
+    public void skipFailedFiles() throws IOException {
+        Map<ApacheLogsFileConfigProd.DB, List<File>> dbToFiles = writeLogFiles(3, 1000);
+        List<File> files = dbToFiles.get(ApacheLogsFileConfigProd.DB.BioModels);
+        ApacheLogsFileConfigProd sequentialConfig = new ApacheLogsFileConfigProd();
+        sequentialConfig.setIngestionEngine(ApacheLogsFileConfigProd.IngestionEngine.reader);
+        Map<List<String>, Integer> expected = retrieveData(sequentialConfig, dbToFiles);
+        // A download without a file name is ignored
+        Files.write(files.get(1).toPath(), ("10.0.0.1 - - [01/Feb/2018:13:55:36 +0000] "
+                + "\"GET /biomodels/model/download/MODEL0000000001.2?x=1&y=2 HTTP/1.1\" 200 2326\n")
+                .getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        // A log file that cannot be read
+        File failedFile = new File(files.get(0).getParentFile(), "access_2018-04-01.log");
+        Assert.assertTrue(failedFile.mkdir());
+        files.add(failedFile);
+
+        ApacheLogsFileConfigProd parallelConfig = new ApacheLogsFileConfigProd();
+        parallelConfig.setParallelism(4);
+        parallelConfig.setSplitSize(10000);
+        Set<File> failedFiles = new HashSet<>();
+        Assert.assertEquals(expected,
+                toMap(new ApacheLogsFileClient(parallelConfig).retrieveDataFromApacheLogs(dbToFiles, failedFiles)));
+        Assert.assertEquals(Collections.singleton(failedFile), failedFiles);
+
+        // The log file that cannot be read is not checkpointed
+        Map<String, ApacheLogsIngestionState.Checkpoint> checkpoints = new HashMap<>();
+        DownloadsStore<ApacheLogsFileConfigProd.DB> downloads =
+                new ConcurrentDownloadsStore<>(ApacheLogsFileConfigProd.DB.class);
+        Assert.assertEquals(3, new ApacheLogsFileClient(parallelConfig).refresh(dbToFiles, checkpoints, downloads));
+        Assert.assertEquals(expected, toMap(downloads));
+        Assert.assertEquals(3, checkpoints.size());
+        Assert.assertFalse(checkpoints.containsKey(failedFile.getAbsolutePath()));
+    }
+
+    @Test
+    public void selectLogFilesByDate() throws IOException {
+        File dir = folder.newFolder();
+        for (String fileName : new String[]{"access_2016-12-31.log", "access_2017-01-01.log", "access_2017-06.log",
+                "access_2018-02-28_ves-oy-ff.log", "access_2018-03-01.log", "access_2018-13-01.log", "error_2017-06.log",
+                "access_2017-05-01.log.gz"}) {
+            Assert.assertTrue(new File(dir, fileName).createNewFile());
+        }
+        Assert.assertTrue(new File(dir, "access_2017-02-01.log").mkdir());
+
+        List<String> fileNames = new ArrayList<>();
+        for (File file : ApacheLogsFileClient.getLogFiles(dir, LocalDate.of(2017, 1, 1), LocalDate.of(2018, 2, 28))) {
+            fileNames.add(file.getName());
+        }
+        Collections.sort(fileNames);
+        Assert.assertEquals(Arrays.asList("access_2017-01-01.log", "access_2017-06.log",
+                "access_2018-02-28_ves-oy-ff.log"), fileNames);
+
+        Assert.assertEquals(LocalDate.of(2017, 6, 1), ApacheLogsFileClient.getLogFileDate("access_2017-06.log"));
+        Assert.assertNull(ApacheLogsFileClient.getLogFileDate("access_2018-13-01.log"));
+        Assert.assertEquals("2017/06", ApacheLogsFileClient.getLogFileMonth(new File(dir, "access_2017-06.log")));
+        Assert.assertEquals("2018/02",
+                ApacheLogsFileClient.getLogFileMonth(new File(dir, "access_2018-02-28_ves-oy-ff.log")));
+    }
+
+    @Test
+    public void retrieveDataWithoutTimestamp() throws IOException {
+        // The period of a line without a timestamp is the month of the log file, which contains no day
+        File file = new File(folder.newFolder(), "access_2017-06.log");
+        Files.write(file.toPath(), ("10.0.0.1 - - \"GET /biomodels/model/download/MODEL0000000001.2"
+                + "?filename=MODEL0_url.xml&x=1 HTTP/1.1\" 200 2326\n").getBytes(StandardCharsets.UTF_8));
+        Map<ApacheLogsFileConfigProd.DB, List<File>> dbToFiles = new EnumMap<>(ApacheLogsFileConfigProd.DB.class);
+        dbToFiles.put(ApacheLogsFileConfigProd.DB.BioModels, new ArrayList<>(Collections.singletonList(file)));
+        Map<List<String>, Integer> downloads = retrieveData(new ApacheLogsFileConfigProd(), dbToFiles);
+        Assert.assertEquals(1, downloads.size());
+        List<String> download = downloads.keySet().iterator().next();
+        Assert.assertEquals(Arrays.asList("BioModels", "MODEL0000000001", "2017/06"), download.subList(0, 3));
+        Assert.assertEquals("MODEL0_url.xml", download.get(4));
     }
-}
\ No newline at end of file
+}
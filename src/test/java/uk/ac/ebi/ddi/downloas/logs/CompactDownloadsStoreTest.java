@@ -0,0 +1,103 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+public class CompactDownloadsStoreTest {
+
+    @Test
+    public void sameDownloadsAsConcurrentStore() {
+        ConcurrentDownloadsStore<ElasticSearchWsConfigProd.DB> expected =
+                new ConcurrentDownloadsStore<>(ElasticSearchWsConfigProd.DB.class);
+        CompactDownloadsStore<ElasticSearchWsConfigProd.DB> actual =
+                new CompactDownloadsStore<>(ElasticSearchWsConfigProd.DB.class);
+        IntStream.range(0, 50000).parallel().forEach(i -> {
+            for (DownloadsStore<ElasticSearchWsConfigProd.DB> store : new DownloadsStore[] {expected, actual}) {
+                store.add(ElasticSearchWsConfigProd.DB.values()[i % 2], "accession" + (i % 13),
+                        "2018/" + (i % 5), "host" + (i % 17), "file" + (i % 19), 1 + i % 3);
+            }
+        });
+
+        for (ElasticSearchWsConfigProd.DB db : ElasticSearchWsConfigProd.DB.values()) {
+            Assert.assertEquals(expected.get(db), actual.get(db));
+            Assert.assertEquals(expected.isEmpty(db), actual.isEmpty(db));
+        }
+        Assert.assertEquals(expected.get(ElasticSearchWsConfigProd.DB.Pride, "accession1"),
+                actual.get(ElasticSearchWsConfigProd.DB.Pride, "accession1"));
+        Assert.assertNull(actual.get(ElasticSearchWsConfigProd.DB.Pride, "missing"));
+    }
+
+    @Test
+    public void addAll() {
+        CompactDownloadsStore<ElasticSearchWsConfigProd.DB> store =
+                new CompactDownloadsStore<>(ElasticSearchWsConfigProd.DB.class);
+        store.add(ElasticSearchWsConfigProd.DB.ENA, "PRJEB1", "2018/10", "host1", "file1", 2);
+        CompactDownloadsStore<ElasticSearchWsConfigProd.DB> other =
+                new CompactDownloadsStore<>(ElasticSearchWsConfigProd.DB.class);
+        other.add(ElasticSearchWsConfigProd.DB.ENA, "PRJEB1", "2018/10", "host1", "file1", 3);
+
+        store.addAll(other);
+        Assert.assertEquals(5, store.get(ElasticSearchWsConfigProd.DB.ENA, "PRJEB1").get("2018/10")
+                .get("host1").count("file1"));
+    }
+
+    @Test
+    public void removePeriods() {
+        ConcurrentDownloadsStore<ElasticSearchWsConfigProd.DB> expected =
+                new ConcurrentDownloadsStore<>(ElasticSearchWsConfigProd.DB.class);
+        CompactDownloadsStore<ElasticSearchWsConfigProd.DB> actual =
+                new CompactDownloadsStore<>(ElasticSearchWsConfigProd.DB.class);
+        for (int i = 0; i < 5000; i++) {
+            for (DownloadsStore<ElasticSearchWsConfigProd.DB> store : new DownloadsStore[] {expected, actual}) {
+                store.add(ElasticSearchWsConfigProd.DB.Pride, "accession" + (i % 13),
+                        "2018/" + (i % 13 == 0 ? i % 3 : i % 5 + 1), "host" + (i % 17), "file" + (i % 19), 1);
+            }
+        }
+        for (DownloadsStore<ElasticSearchWsConfigProd.DB> store : new DownloadsStore[] {expected, actual}) {
+            store.removePeriods(period -> period.compareTo("2018/3") < 0);
+            // Downloads can still be added after their periods have been removed
+            store.add(ElasticSearchWsConfigProd.DB.Pride, "accession1", "2018/1", "host1", "file1", 1);
+        }
+
+        Assert.assertEquals(expected.get(ElasticSearchWsConfigProd.DB.Pride),
+                actual.get(ElasticSearchWsConfigProd.DB.Pride));
+        // All the downloads of accession0 were in the periods removed
+        Assert.assertNull(actual.get(ElasticSearchWsConfigProd.DB.Pride, "accession0"));
+        Assert.assertNull(expected.get(ElasticSearchWsConfigProd.DB.Pride, "accession0"));
+    }
+
+    @Test
+    public void removePeriodsWhileAdding() throws InterruptedException {
+        int accessions = 200000;
+        for (DownloadsStore<ElasticSearchWsConfigProd.DB> store : new DownloadsStore[] {
+                new ConcurrentDownloadsStore<>(ElasticSearchWsConfigProd.DB.class),
+                new CompactDownloadsStore<>(ElasticSearchWsConfigProd.DB.class)}) {
+            AtomicBoolean adding = new AtomicBoolean(true);
+            Thread remover = new Thread(() -> {
+                while (adding.get()) {
+                    store.removePeriods(period -> period.equals("2018/1"));
+                }
+            });
+            remover.start();
+            // The downloads of each accession in 2018/1 may be removed - emptying it - just before those in 2018/2
+            // are added
+            IntStream.range(0, accessions).parallel().forEach(i -> {
+                store.add(ElasticSearchWsConfigProd.DB.Pride, "accession" + i, "2018/1", "host1", "file1", 1);
+                store.add(ElasticSearchWsConfigProd.DB.Pride, "accession" + i, "2018/2", "host1", "file1", 1);
+            });
+            adding.set(false);
+            remover.join();
+
+            int[] kept = new int[1];
+            store.forEach((db, accession, period, anonymisedIPAddress, fileName, count) -> {
+                if (period.equals("2018/2")) {
+                    kept[0] += count;
+                }
+            });
+            Assert.assertEquals(store.getClass().getSimpleName(), accessions, kept[0]);
+        }
+    }
+}
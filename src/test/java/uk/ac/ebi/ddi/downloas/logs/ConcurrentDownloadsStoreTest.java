@@ -0,0 +1,44 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+
+public class ConcurrentDownloadsStoreTest {
+
+    @Test
+    public void addFromManyThreads() {
+        ConcurrentDownloadsStore<ElasticSearchWsConfigProd.DB> store =
+                new ConcurrentDownloadsStore<>(ElasticSearchWsConfigProd.DB.class);
+        IntStream.range(0, 100000).parallel().forEach(i -> store.add(ElasticSearchWsConfigProd.DB.Pride,
+                "PXD00000" + (i % 3), "2018/10", "host" + (i % 7), "file" + (i % 11), 1));
+
+        Assert.assertEquals(3, store.get(ElasticSearchWsConfigProd.DB.Pride).size());
+        Assert.assertEquals(7, store.get(ElasticSearchWsConfigProd.DB.Pride).get("PXD000000").get("2018/10").size());
+        int total = store.get(ElasticSearchWsConfigProd.DB.Pride).values().stream()
+                .flatMap(periods -> periods.values().stream())
+                .flatMap(hosts -> hosts.values().stream())
+                .mapToInt(fileNames -> fileNames.size())
+                .sum();
+        Assert.assertEquals(100000, total);
+        Assert.assertTrue(store.isEmpty(ElasticSearchWsConfigProd.DB.ENA));
+    }
+
+    @Test
+    public void addAll() {
+        ConcurrentDownloadsStore<ElasticSearchWsConfigProd.DB> store =
+                new ConcurrentDownloadsStore<>(ElasticSearchWsConfigProd.DB.class);
+        store.add(ElasticSearchWsConfigProd.DB.Pride, "PXD000001", "2018/10", "host1", "file1", 1);
+        ConcurrentDownloadsStore<ElasticSearchWsConfigProd.DB> other =
+                new ConcurrentDownloadsStore<>(ElasticSearchWsConfigProd.DB.class);
+        other.add(ElasticSearchWsConfigProd.DB.Pride, "PXD000001", "2018/10", "host1", "file1", 2);
+        other.add(ElasticSearchWsConfigProd.DB.Pride, "PXD000001", "2018/10", "host2", "file1", 1);
+
+        store.addAll(other);
+        Assert.assertEquals(3, store.get(ElasticSearchWsConfigProd.DB.Pride).get("PXD000001").get("2018/10")
+                .get("host1").count("file1"));
+        Assert.assertEquals(1, store.get(ElasticSearchWsConfigProd.DB.Pride).get("PXD000001").get("2018/10")
+                .get("host2").count("file1"));
+    }
+}
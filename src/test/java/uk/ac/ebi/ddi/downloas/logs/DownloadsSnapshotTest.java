@@ -0,0 +1,100 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class DownloadsSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static DownloadsStore<ElasticSearchWsConfigProd.DB> getDownloads() {
+        DownloadsStore<ElasticSearchWsConfigProd.DB> downloads =
+                new ConcurrentDownloadsStore<>(ElasticSearchWsConfigProd.DB.class);
+        downloads.add(ElasticSearchWsConfigProd.DB.Pride, "PXD000001", "2018/09/30", "host1", "file1", 2);
+        downloads.add(ElasticSearchWsConfigProd.DB.Pride, "PXD000001", "2018/10/01", "host1", "file1", 1);
+        downloads.add(ElasticSearchWsConfigProd.DB.Pride, "PXD000002", "2018/10/02", "host2", "file\u00e9", 3);
+        downloads.add(ElasticSearchWsConfigProd.DB.ENA, "PRJEB4848", "2018/10/31", "host1", "ERR975925", 4);
+        downloads.add(ElasticSearchWsConfigProd.DB.ENA, "PRJEB4848", "2018/11/01", "host1", "ERR975925", 5);
+        return downloads;
+    }
+
+    private static Map<List<Object>, Integer> toMap(DownloadsStore<ElasticSearchWsConfigProd.DB> downloads) {
+        Map<List<Object>, Integer> map = new HashMap<>();
+        downloads.forEach((db, accession, period, anonymisedIPAddress, fileName, count) -> map.merge(
+                Arrays.asList(db, accession, period, anonymisedIPAddress, fileName), count, Integer::sum));
+        return map;
+    }
+
+    @Test
+    public void writeAndReadCompleteMonths() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("snapshots").resolve("downloads.snapshot");
+        Set<String> months = new HashSet<>(Arrays.asList("2018/10", "2018/12"));
+        Assert.assertEquals(3, DownloadsSnapshot.write(file, PeriodGranularity.day, getDownloads(), months));
+
+        DownloadsStore<ElasticSearchWsConfigProd.DB> downloads =
+                new CompactDownloadsStore<>(ElasticSearchWsConfigProd.DB.class);
+        Assert.assertEquals(new TreeSet<>(months), DownloadsSnapshot.read(file, ElasticSearchWsConfigProd.DB.class,
+                PeriodGranularity.day, downloads));
+        Map<List<Object>, Integer> expected = toMap(getDownloads());
+        expected.keySet().removeIf(row -> !row.get(2).toString().startsWith("2018/10"));
+        Assert.assertEquals(expected, toMap(downloads));
+        // No temporary files are left behind
+        Assert.assertEquals(1, file.getParent().toFile().list().length);
+    }
+
+    @Test(expected = IOException.class)
+    public void readOtherPeriodGranularity() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("downloads.snapshot");
+        DownloadsSnapshot.write(file, PeriodGranularity.day, getDownloads(), new HashSet<>(Arrays.asList("2018/10")));
+        DownloadsSnapshot.read(file, ElasticSearchWsConfigProd.DB.class, PeriodGranularity.month,
+                new ConcurrentDownloadsStore<>(ElasticSearchWsConfigProd.DB.class));
+    }
+
+    @Test(expected = IOException.class)
+    public void readTruncated() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("downloads.snapshot");
+        DownloadsSnapshot.write(file, PeriodGranularity.day, getDownloads(), new HashSet<>(Arrays.asList("2018/10")));
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+        DownloadsSnapshot.read(file, ElasticSearchWsConfigProd.DB.class, PeriodGranularity.day,
+                new ConcurrentDownloadsStore<>(ElasticSearchWsConfigProd.DB.class));
+    }
+
+    @Test
+    public void getCompleteMonths() {
+        Instant now = Instant.parse("2018-12-15T10:00:00Z");
+        Assert.assertEquals(new TreeSet<>(Arrays.asList("2018/10", "2018/11")), DownloadsSnapshot.getCompleteMonths(
+                Instant.parse("2018-09-02T00:00:00Z"), now, now, ZoneOffset.UTC));
+        Assert.assertEquals(new TreeSet<>(Arrays.asList("2018/09")), DownloadsSnapshot.getCompleteMonths(
+                Instant.parse("2018-09-01T00:00:00Z"), Instant.parse("2018-09-30T23:59:59.999Z"), now,
+                ZoneOffset.UTC));
+        Assert.assertEquals("2018/10", DownloadsSnapshot.getMonth("2018-10-01T12:34:56"));
+        Assert.assertEquals("2018/10", DownloadsSnapshot.getMonth("2018/10"));
+        Assert.assertNull(DownloadsSnapshot.getMonth("2018"));
+    }
+
+    @Test
+    public void addAllExcludingMonths() {
+        DownloadsStore<ElasticSearchWsConfigProd.DB> downloads =
+                new ConcurrentDownloadsStore<>(ElasticSearchWsConfigProd.DB.class);
+        DownloadsSnapshot.addAll(downloads, getDownloads(), new HashSet<>(Arrays.asList("2018/10")));
+        Assert.assertEquals(2, toMap(downloads).size());
+        Assert.assertNull(downloads.get(ElasticSearchWsConfigProd.DB.Pride, "PXD000002"));
+    }
+}
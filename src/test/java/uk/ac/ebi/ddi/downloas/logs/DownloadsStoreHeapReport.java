@@ -0,0 +1,59 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import java.util.Random;
+
+/**
+ * Reports the heap used by each type of DownloadsStore per million synthetic data downloads.
+ * Run with e.g.: java -Xmx4g -cp target/classes:target/test-classes:...
+ * uk.ac.ebi.ddi.downloas.logs.DownloadsStoreHeapReport
+ */
+public class DownloadsStoreHeapReport {
+
+    private static final int HITS = 1000000;
+    private static final int ACCESSIONS = 5000;
+    private static final int ANONYMISED_IP_ADDRESSES = 50000;
+    private static final int FILES_PER_ACCESSION = 20;
+
+    public static void main(String[] args) {
+        for (ElasticSearchWsConfigProd.StoreType storeType : ElasticSearchWsConfigProd.StoreType.values()) {
+            long before = usedHeap();
+            DownloadsStore<ElasticSearchWsConfigProd.DB> store =
+                    storeType == ElasticSearchWsConfigProd.StoreType.compact
+                    ? new CompactDownloadsStore<>(ElasticSearchWsConfigProd.DB.class)
+                    : new ConcurrentDownloadsStore<>(ElasticSearchWsConfigProd.DB.class);
+            populate(store);
+            long after = usedHeap();
+            System.out.println(String.format("%-10s %,d bytes per million hits (%,d bytes per hit)",
+                    storeType, after - before, (after - before) / HITS));
+            if (store.isEmpty(ElasticSearchWsConfigProd.DB.Pride)) {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    /**
+     * Add HITS downloads, with a skewed distribution of accessions and anonymised IP addresses,
+     * timestamped at the resolution of a second within a month
+     */
+    static void populate(DownloadsStore<ElasticSearchWsConfigProd.DB> store) {
+        Random random = new Random(42);
+        for (int i = 0; i < HITS; i++) {
+            int accession = (int) (ACCESSIONS * Math.pow(random.nextDouble(), 3));
+            int anonymisedIPAddress = (int) (ANONYMISED_IP_ADDRESSES * Math.pow(random.nextDouble(), 2));
+            int second = random.nextInt(30 * 24 * 3600);
+            String period = String.format("2018-10-%02dT%02d:%02d:%02d",
+                    1 + second / 86400, second / 3600 % 24, second / 60 % 60, second % 60);
+            store.add(ElasticSearchWsConfigProd.DB.Pride, String.format("PXD%06d", accession), period,
+                    String.format("%032x", anonymisedIPAddress * 2654435761L),
+                    "file_" + accession + "_" + random.nextInt(FILES_PER_ACCESSION) + ".raw", 1);
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,593 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import uk.ac.ebi.ddi.downloas.ena.ENAPortalStub;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in for the ElasticSearch cluster behind Kibana, serving the requests ElasticSearchWsClient makes when
+ * retrieving data download entries - searches of ftplogs-* and asperalogs-* (sliced or not), scroll pages, clearing
+ * of scrolls, the window statistics (size-0 searches with a max aggregation) and the pages of composite aggregations
+ * by (file_name, uhost, date_histogram of @timestamp) - together with an ENAPortalStub under ENAPortalStub.CONTEXT.
+ * The log entries served are synthetic but realistic: they have the fields of the entries in
+ * RecordedSearchHits.SCROLL_PAGE_RESOURCE, and download files of every DB (as well as files of none of them)
+ * with skewed distributions of accessions and anonymised IP addresses - one in REPEAT_ODDS entries being a repeat
+ * of the download of the previous entry, by the same client. There is one entry every
+ * 86400000 / hitsPerDay ms for each protocol, each generated from its time alone - so any time range is served
+ * the same entries whichever way it is partitioned, sliced or paged. Of the query itself, only the range of
+ * timestamps is taken into account. The @timestamp values of whole seconds are written without a fraction, e.g.
+ * 2018-10-01T00:00:00Z, so that timestamps of both forms are served.
+ */
+public class ElasticSearchStandIn implements HttpHandler, Closeable {
+
+    // The ENA run accessions downloaded: ERR{FIRST_ENA_RUN} to ERR{FIRST_ENA_RUN + ENA_RUNS - 1}, of which the
+    // ENAPortalStub returns the first CACHED_ENA_RUNS in bulk retrievals
+    public static final int FIRST_ENA_RUN = 1000000;
+    public static final int ENA_RUNS = 20000;
+    public static final int CACHED_ENA_RUNS = ENA_RUNS * 9 / 10;
+
+    private static final int ACCESSIONS = 5000;
+    private static final int ANONYMISED_IP_ADDRESSES = 50000;
+    private static final int FILES_PER_ACCESSION = 20;
+    // One in REPEAT_ODDS entries repeats the download of the previous entry
+    private static final int REPEAT_ODDS = 4;
+    private static final String[] COUNTRY_CODES = {"GB", "US", "DE", "CN", "JP", "FR", "IN"};
+    private static final String SCROLL_PATH = "/_search/scroll";
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter INDEX_DATE_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy.MM.dd").withZone(ZoneOffset.UTC);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory JSON_FACTORY = MAPPER.getFactory();
+
+    private final long interval;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Scroll> scrolls = new ConcurrentHashMap<>();
+    private final AtomicLong scrollCount = new AtomicLong();
+    private final AtomicLong hitsServed = new AtomicLong();
+
+    /**
+     * The remaining entries of a scroll: those from the entry at time next * interval, every step entries
+     */
+    private static final class Scroll {
+        private final ElasticSearchWsConfigProd.Protocol protocol;
+        private final long last;
+        private final int step;
+        private final int size;
+        private long next;
+
+        Scroll(ElasticSearchWsConfigProd.Protocol protocol, long next, long last, int step, int size) {
+            this.protocol = protocol;
+            this.next = next;
+            this.last = last;
+            this.step = step;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Start serving on localhost
+     *
+     * @param port       0 for any free port
+     * @param hitsPerDay The number of log entries per day for each protocol
+     * @throws IOException
+     */
+    public ElasticSearchStandIn(int port, int hitsPerDay) throws IOException {
+        interval = Math.max(1, TimeUnit.DAYS.toMillis(1) / hitsPerDay);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/", this);
+        server.createContext(ENAPortalStub.CONTEXT, new ENAPortalStub(FIRST_ENA_RUN, CACHED_ENA_RUNS));
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return The number of log entries served so far, by all scrolls and composite aggregation buckets
+     */
+    public long getHitsServed() {
+        return hitsServed.get();
+    }
+
+    /**
+     * @param from epoch ms
+     * @param to   epoch ms, inclusive
+     * @return The number of log entries of each protocol between from and to
+     */
+    public long getHitCount(long from, long to) {
+        return Math.max(0, Math.floorDiv(to, interval) - Math.floorDiv(from - 1, interval));
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            JsonNode body = readBody(exchange);
+            if (path.equals(SCROLL_PATH) && exchange.getRequestMethod().equals("DELETE")) {
+                int freed = 0;
+                for (JsonNode scrollId : body.path("scroll_id")) {
+                    freed += scrolls.remove(scrollId.asText()) != null ? 1 : 0;
+                }
+                send(exchange, 200, "{\"succeeded\":true,\"num_freed\":" + freed + "}");
+            } else if (path.equals(SCROLL_PATH)) {
+                String scrollId = body.path("scroll_id").asText();
+                Scroll scroll = scrolls.get(scrollId);
+                if (scroll == null) {
+                    send(exchange, 404, "{\"error\":{\"type\":\"search_context_missing_exception\",\"reason\":\"No "
+                            + "search context found for id [" + scrollId + "]\"},\"status\":404}");
+                    return;
+                }
+                sendPage(exchange, scrollId, scroll, countHits(scroll));
+            } else if (path.endsWith("/_search")) {
+                search(exchange, path.substring(1, path.indexOf('/', 1)), body);
+            } else {
+                send(exchange, 400, "{\"error\":\"unsupported request: " + path + "\",\"status\":400}");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void search(HttpExchange exchange, String index, JsonNode body) throws IOException {
+        ElasticSearchWsConfigProd.Protocol protocol =
+                ElasticSearchWsConfigProd.Protocol.valueOf(index.substring(0, index.indexOf("logs")));
+        JsonNode range = body.path("query").path("bool").path("must").path(0).path("range")
+                .path(ElasticSearchWsConfigProd.TIMESTAMP_FIELD);
+        long from = getTime(range.path("from"), Long.MIN_VALUE / 2);
+        long to = getTime(range.path("to"), Long.MAX_VALUE / 2);
+        int sliceId = body.path("slice").path("id").asInt(0);
+        int maxSlices = body.path("slice").path("max").asInt(1);
+        long first = Math.floorDiv(from - 1, interval) + 1;
+        first += Math.floorMod(sliceId - first, maxSlices);
+        Scroll scroll = new Scroll(protocol, first, Math.floorDiv(to, interval), maxSlices,
+                body.path("size").asInt(10));
+        if (scroll.size == 0) {
+            String aggregationName = body.path("aggregations").fieldNames().next();
+            JsonNode composite = body.path("aggregations").path(aggregationName).path("composite");
+            if (composite.isMissingNode()) {
+                sendWindowStats(exchange, scroll, aggregationName);
+            } else {
+                sendCompositeBuckets(exchange, scroll, aggregationName, composite);
+            }
+            return;
+        }
+        String scrollId = Long.toString(scrollCount.incrementAndGet(), 36);
+        scrolls.put(scrollId, scroll);
+        sendPage(exchange, scrollId, scroll, countHits(scroll));
+    }
+
+    /**
+     * @return The number of entries remaining in scroll
+     */
+    private static long countHits(Scroll scroll) {
+        return scroll.next > scroll.last ? 0 : (scroll.last - scroll.next) / scroll.step + 1;
+    }
+
+    private void sendWindowStats(HttpExchange exchange, Scroll scroll, String aggregationName) throws IOException {
+        long total = countHits(scroll);
+        long last = scroll.next + (total - 1) * scroll.step;
+        boolean typedKeys = String.valueOf(exchange.getRequestURI().getQuery()).contains("typed_keys=true");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            writeResponseStart(generator, null, total);
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeObjectFieldStart("aggregations");
+            generator.writeObjectFieldStart(typedKeys ? "max#" + aggregationName : aggregationName);
+            if (total > 0) {
+                generator.writeNumberField("value", (double) (last * interval));
+                generator.writeStringField("value_as_string",
+                        TIMESTAMP_FORMATTER.format(Instant.ofEpochMilli(last * interval)));
+            } else {
+                generator.writeNullField("value");
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        send(exchange, 200, out.toByteArray());
+    }
+
+    /**
+     * Send the page of the buckets of a composite aggregation by (file_name, uhost, @timestamp date_histogram) - in
+     * that order - of the entries of scroll following its "after" key. N.B. the entries aggregated are counted
+     * as served
+     */
+    private void sendCompositeBuckets(HttpExchange exchange, Scroll scroll, String aggregationName,
+                                      JsonNode composite) throws IOException {
+        String interval = "";
+        for (JsonNode source : composite.path("sources")) {
+            JsonNode dateHistogram = source.path(ElasticSearchWsConfigProd.TIMESTAMP_FIELD).path("date_histogram");
+            if (!dateHistogram.isMissingNode()) {
+                interval = dateHistogram.path("interval").asText();
+            }
+        }
+        TreeMap<CompositeKey, Integer> buckets = new TreeMap<>();
+        for (long entry = scroll.next; entry <= scroll.last; entry += scroll.step) {
+            LogEntry logEntry = getLogEntry(scroll.protocol, entry);
+            buckets.merge(new CompositeKey(logEntry.filePath, logEntry.uhost,
+                    getBucketStart(logEntry.timestamp, interval)), 1, Integer::sum);
+        }
+        JsonNode after = composite.path("after");
+        SortedMap<CompositeKey, Integer> page = after.isMissingNode() ? buckets
+                : buckets.tailMap(new CompositeKey(after.path(ElasticSearchWsConfigProd.FILE_NAME_FIELD).asText(),
+                after.path(ElasticSearchWsConfigProd.UHOST_FIELD).asText(),
+                after.path(ElasticSearchWsConfigProd.TIMESTAMP_FIELD).asLong()), false);
+        int size = composite.path("size").asInt(10);
+        boolean typedKeys = String.valueOf(exchange.getRequestURI().getQuery()).contains("typed_keys=true");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long docCount = 0;
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            writeResponseStart(generator, null, countHits(scroll));
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeObjectFieldStart("aggregations");
+            generator.writeObjectFieldStart(typedKeys ? "composite#" + aggregationName : aggregationName);
+            CompositeKey last = null;
+            generator.writeArrayFieldStart("buckets");
+            for (Map.Entry<CompositeKey, Integer> bucket : page.entrySet()) {
+                if (size-- == 0) {
+                    break;
+                }
+                generator.writeStartObject();
+                generator.writeFieldName("key");
+                bucket.getKey().write(generator);
+                generator.writeNumberField("doc_count", bucket.getValue());
+                generator.writeEndObject();
+                docCount += bucket.getValue();
+                last = bucket.getKey();
+            }
+            generator.writeEndArray();
+            if (last != null) {
+                generator.writeFieldName("after_key");
+                last.write(generator);
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        hitsServed.addAndGet(docCount);
+        send(exchange, 200, out.toByteArray());
+    }
+
+    /**
+     * @param timestamp
+     * @param interval  The interval of a date_histogram, e.g. 1s, 1d, 1M or 1y
+     * @return The start (epoch ms) of the date_histogram bucket containing timestamp
+     */
+    private static long getBucketStart(Instant timestamp, String interval) {
+        ZonedDateTime dateTime = timestamp.atZone(ZoneOffset.UTC);
+        switch (interval) {
+            case "1s":
+                dateTime = dateTime.truncatedTo(ChronoUnit.SECONDS);
+                break;
+            case "1d":
+                dateTime = dateTime.truncatedTo(ChronoUnit.DAYS);
+                break;
+            case "1M":
+                dateTime = dateTime.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+                break;
+            case "1y":
+                dateTime = dateTime.truncatedTo(ChronoUnit.DAYS).withDayOfYear(1);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported date_histogram interval: " + interval);
+        }
+        return dateTime.toInstant().toEpochMilli();
+    }
+
+    /**
+     * The key of a composite aggregation bucket, ordered as ElasticSearch orders them
+     */
+    private static final class CompositeKey implements Comparable<CompositeKey> {
+        private final String fileName;
+        private final String uhost;
+        private final long timestamp;
+
+        CompositeKey(String fileName, String uhost, long timestamp) {
+            this.fileName = fileName;
+            this.uhost = uhost;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public int compareTo(CompositeKey other) {
+            int result = fileName.compareTo(other.fileName);
+            if (result == 0) {
+                result = uhost.compareTo(other.uhost);
+            }
+            return result != 0 ? result : Long.compare(timestamp, other.timestamp);
+        }
+
+        void write(JsonGenerator generator) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField(ElasticSearchWsConfigProd.FILE_NAME_FIELD, fileName);
+            generator.writeStringField(ElasticSearchWsConfigProd.UHOST_FIELD, uhost);
+            generator.writeNumberField(ElasticSearchWsConfigProd.TIMESTAMP_FIELD, timestamp);
+            generator.writeEndObject();
+        }
+    }
+
+    private void sendPage(HttpExchange exchange, String scrollId, Scroll scroll, long total) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(scroll.size * 700);
+        int hits = 0;
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            writeResponseStart(generator, scrollId, total);
+            synchronized (scroll) {
+                while (hits < scroll.size && scroll.next <= scroll.last) {
+                    writeHit(generator, scroll.protocol, scroll.next);
+                    scroll.next += scroll.step;
+                    hits++;
+                }
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        hitsServed.addAndGet(hits);
+        send(exchange, 200, out.toByteArray());
+    }
+
+    /**
+     * Write the start of a search response, up to the start of its hits array
+     */
+    private static void writeResponseStart(JsonGenerator generator, String scrollId, long total) throws IOException {
+        generator.writeStartObject();
+        if (scrollId != null) {
+            generator.writeStringField("_scroll_id", scrollId);
+        }
+        generator.writeNumberField("took", 1);
+        generator.writeBooleanField("timed_out", false);
+        generator.writeObjectFieldStart("_shards");
+        generator.writeNumberField("total", 1);
+        generator.writeNumberField("successful", 1);
+        generator.writeNumberField("skipped", 0);
+        generator.writeNumberField("failed", 0);
+        generator.writeEndObject();
+        generator.writeObjectFieldStart("hits");
+        generator.writeNumberField("total", total);
+        generator.writeNumberField("max_score", 1.0);
+        generator.writeArrayFieldStart("hits");
+    }
+
+    /**
+     * The fields of a log entry that are aggregated, and the generator of its other fields
+     */
+    private static final class LogEntry {
+        private final SplittableRandom random;
+        private final Instant timestamp;
+        private final String filePath;
+        private final String uhost;
+
+        LogEntry(SplittableRandom random, Instant timestamp, String filePath, String uhost) {
+            this.random = random;
+            this.timestamp = timestamp;
+            this.filePath = filePath;
+            this.uhost = uhost;
+        }
+    }
+
+    /**
+     * @return The log entry of protocol at time entry * interval
+     */
+    private LogEntry getLogEntry(ElasticSearchWsConfigProd.Protocol protocol, long entry) {
+        long download = entry;
+        SplittableRandom random = new SplittableRandom(download * 31 + protocol.ordinal());
+        while (random.nextInt(REPEAT_ODDS) == 0) {
+            random = new SplittableRandom(--download * 31 + protocol.ordinal());
+        }
+        Instant timestamp = Instant.ofEpochMilli(entry * interval);
+        int accession = (int) (ACCESSIONS * Math.pow(random.nextDouble(), 3));
+        int file = random.nextInt(FILES_PER_ACCESSION);
+        String filePath = getFilePath(protocol, random.nextInt(100), accession, file, random);
+        long ipAddress = (long) (ANONYMISED_IP_ADDRESSES * Math.pow(random.nextDouble(), 2));
+        String uhost = String.format("%016x%016x", ipAddress * 2654435761L, ipAddress * 40503L + 1);
+        return new LogEntry(random, timestamp, filePath, uhost);
+    }
+
+    /**
+     * Write the log entry of protocol at time entry * interval
+     */
+    private void writeHit(JsonGenerator generator, ElasticSearchWsConfigProd.Protocol protocol, long entry)
+            throws IOException {
+        LogEntry logEntry = getLogEntry(protocol, entry);
+        SplittableRandom random = logEntry.random;
+        Instant timestamp = logEntry.timestamp;
+        String filePath = logEntry.filePath;
+        String uhost = logEntry.uhost;
+        String formattedTimestamp = DateTimeFormatter.ISO_INSTANT.format(timestamp);
+
+        generator.writeStartObject();
+        generator.writeStringField("_index", protocol + "logs-" + INDEX_DATE_FORMATTER.format(timestamp));
+        generator.writeStringField("_type", "doc");
+        generator.writeStringField("_id", Long.toString(entry, 36) + protocol.ordinal());
+        generator.writeNumberField("_score", 1.0);
+        generator.writeObjectFieldStart("_source");
+        generator.writeStringField("@version", "1");
+        generator.writeStringField("host", protocol + "-logs-" + (1 + random.nextInt(2)) + ".ebi.ac.uk");
+        generator.writeStringField("source", "/var/log/" + protocol + "/xferlog");
+        generator.writeStringField("message", formattedTimestamp + " " + uhost + " 0 " + filePath
+                + " b _ o r anonymous " + protocol + " 0 * c");
+        generator.writeObjectFieldStart("geoip");
+        generator.writeStringField("country_code2", COUNTRY_CODES[random.nextInt(COUNTRY_CODES.length)]);
+        generator.writeObjectFieldStart("location");
+        generator.writeNumberField("lat", random.nextDouble() * 180 - 90);
+        generator.writeNumberField("lon", random.nextDouble() * 360 - 180);
+        generator.writeEndObject();
+        generator.writeEndObject();
+        generator.writeArrayFieldStart("tags");
+        generator.writeString(protocol.toString());
+        generator.writeString("xferlog");
+        generator.writeEndArray();
+        generator.writeNumberField("file_size", 1 + random.nextInt(1 << 30));
+        generator.writeStringField(ElasticSearchWsConfigProd.UHOST_FIELD, uhost);
+        generator.writeStringField(ElasticSearchWsConfigProd.FILE_NAME_FIELD, filePath);
+        generator.writeStringField(ElasticSearchWsConfigProd.TIMESTAMP_FIELD, formattedTimestamp);
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    /**
+     * @param protocol
+     * @param percentile Selects the DB whose file is downloaded
+     * @param accession
+     * @param file
+     * @param random
+     * @return The path of a file downloaded via protocol
+     */
+    private static String getFilePath(ElasticSearchWsConfigProd.Protocol protocol, int percentile, int accession,
+                                      int file, SplittableRandom random) {
+        int enaRun = FIRST_ENA_RUN + random.nextInt(ENA_RUNS);
+        if (protocol == ElasticSearchWsConfigProd.Protocol.aspera) {
+            if (percentile < 50) {
+                return String.format("/era-pub/vol1/fastq/ERR%d/ERR%d/ERR%d_%d.fastq.gz",
+                        enaRun / 10000, enaRun, enaRun, 1 + file % 2);
+            } else if (percentile < 80) {
+                return String.format("/pride/data/archive/20%02d/%02d/PXD%06d/file_%d.raw",
+                        12 + accession % 7, 1 + accession % 12, accession, file);
+            }
+            return String.format("/pub/databases/arrayexpress/data/experiment/MTAB/E-MTAB-%d/E-MTAB-%d.raw.%d.zip",
+                    accession, accession, 1 + file);
+        }
+        if (percentile < 30) {
+            return String.format("/pride/data/archive/20%02d/%02d/PXD%06d/file_%d.raw",
+                    12 + accession % 7, 1 + accession % 12, accession, file);
+        } else if (percentile < 55) {
+            return String.format("/vol1/ena/fastq/ERR%d/ERR%d/ERR%d_%d.fastq.gz",
+                    enaRun / 10000, enaRun, enaRun, 1 + file % 2);
+        } else if (percentile < 65) {
+            return String.format("/pub/databases/arrayexpress/data/experiment/MTAB/E-MTAB-%d/E-MTAB-%d.raw.%d.zip",
+                    accession, accession, 1 + file);
+        } else if (percentile < 75) {
+            return String.format("/pub/databases/microarray/data/atlas/experiments/E-GEOD-%d/"
+                    + "E-GEOD-%d.condensed-sdrf.tsv", accession, accession);
+        } else if (percentile < 80) {
+            return String.format("/pub/databases/metabolights/studies/public/MTBLS%d/m_%d.tsv", accession, file);
+        } else if (percentile < 85) {
+            return String.format("/pub/databases/eva/PRJEB%d/file_%d.vcf.gz", accession, file);
+        }
+        return "/pub/databases/uniprot/current_release/knowledgebase/complete/uniprot_sprot.fasta.gz";
+    }
+
+    private static long getTime(JsonNode value, long defaultValue) {
+        if (value.isNumber()) {
+            return value.asLong();
+        }
+        return value.isTextual() ? Instant.parse(value.asText()).toEpochMilli() : defaultValue;
+    }
+
+    private static JsonNode readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.size() > 0 ? MAPPER.readTree(out.toByteArray()) : MAPPER.createObjectNode();
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        send(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * An ElasticSearchStandIn running in a child JVM - so that neither the memory it allocates nor the CPU time it
+     * takes is attributed to the ElasticSearchWsClient under measurement
+     */
+    public static final class Forked implements Closeable {
+        private final Process process;
+        private final int port;
+
+        /**
+         * @param hitsPerDay The number of log entries per day for each protocol
+         * @throws IOException If the child JVM could not be started
+         */
+        public Forked(int hitsPerDay) throws IOException {
+            process = new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin" + File.separator
+                    + "java", "-cp", System.getProperty("java.class.path"), ElasticSearchStandIn.class.getName(),
+                    "0", Integer.toString(hitsPerDay))
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            String line = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))
+                    .readLine();
+            if (line == null) {
+                process.destroyForcibly();
+                throw new IOException("ElasticSearchStandIn exited before listening");
+            }
+            port = Integer.parseInt(line.trim());
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public void close() {
+            process.destroyForcibly();
+        }
+    }
+
+    /**
+     * Serve until killed, printing the port served on to stdout
+     *
+     * @param args port (0 for any free port) and hits per day for each protocol
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        ElasticSearchStandIn standIn = new ElasticSearchStandIn(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+        System.out.println(standIn.getPort());
+        System.out.flush();
+    }
+}
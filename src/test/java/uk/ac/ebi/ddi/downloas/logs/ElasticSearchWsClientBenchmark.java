@@ -0,0 +1,87 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import uk.ac.ebi.ddi.downloas.ena.ENAPortalStub;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput (hits/s) of ElasticSearchWsClient.initialiseData() - and, via the GC profiler
+ * (gc.alloc.rate.norm), the bytes it allocates per hit - retrieving a day of data download entries of both protocols
+ * from an ElasticSearchStandIn, run in a child JVM so that its own allocations are not measured.
+ * N.B. The periods are of PeriodGranularity.year, so that the same day is retrieved afresh by every invocation
+ * (rather than found up to date in the IngestionLedger). Run with:
+ * mvn -Pbenchmark test -Dbenchmark.include=ElasticSearchWsClientBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ElasticSearchWsClientBenchmark {
+
+    private static final int HITS_PER_DAY = 50000;
+    private static final int HITS = HITS_PER_DAY * 2;
+    private static final Date FROM = Date.from(Instant.parse("2018-10-01T00:00:00Z"));
+    private static final Date TO = Date.from(Instant.parse("2018-10-01T23:59:59.999Z"));
+
+    @Param({"sourceMap", "streaming"})
+    private ElasticSearchWsConfigProd.HitDecoding hitDecoding;
+
+    @Param({"0", "2"})
+    private int prefetchPages;
+
+    private ElasticSearchStandIn.Forked standIn;
+    private ElasticSearchWsClient client;
+
+    @Setup
+    public void setUp() throws IOException {
+        standIn = new ElasticSearchStandIn.Forked(HITS_PER_DAY);
+        ElasticSearchWsConfigProd config =
+                new ElasticSearchWsConfigProd(standIn.getPort(), "localhost", "user", "password");
+        config.setPeriodGranularity(PeriodGranularity.year);
+        config.setHitDecoding(hitDecoding);
+        config.setPrefetchPages(prefetchPages);
+        client = new ElasticSearchWsClient(config, ENAPortalStub.newENAWsClient(standIn.getPort()));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        standIn.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(HITS)
+    public void initialiseData() {
+        client.initialiseData(FROM, TO);
+        if (!client.getFailedJobs().isEmpty()) {
+            throw new IllegalStateException("Failed to retrieve " + client.getFailedJobs());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ElasticSearchWsClientBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class).build()).run();
+    }
+}
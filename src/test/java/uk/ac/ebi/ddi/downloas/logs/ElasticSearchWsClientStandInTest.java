@@ -0,0 +1,132 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import org.junit.Assert;
+import org.junit.Test;
+import uk.ac.ebi.ddi.downloas.ena.ENAPortalStub;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+public class ElasticSearchWsClientStandInTest {
+
+    private static final int HITS_PER_DAY = 2000;
+
+    @Test
+    public void ingestFromStandIn() throws IOException {
+        try (ElasticSearchStandIn standIn = new ElasticSearchStandIn(0, HITS_PER_DAY)) {
+            ElasticSearchWsConfigProd config =
+                    new ElasticSearchWsConfigProd(standIn.getPort(), "localhost", "user", "password");
+            config.setScrollSlices(2);
+            config.setAsyncEnaResolution(true);
+            try (ElasticSearchWsClient client =
+                         new ElasticSearchWsClient(config, ENAPortalStub.newENAWsClient(standIn.getPort()))) {
+                Date from = Date.from(Instant.parse("2017-03-30T00:00:00Z"));
+                Date to = Date.from(Instant.parse("2017-04-01T23:59:59.999Z"));
+                client.initialiseData(from, to);
+
+                long hits = standIn.getHitCount(from.getTime(), to.getTime())
+                        * ElasticSearchWsConfigProd.Protocol.values().length;
+                Assert.assertEquals(hits, standIn.getHitsServed());
+                Assert.assertEquals(hits, client.getScrollJobs().stream().mapToLong(ScrollJob::getHitCount).sum());
+                Assert.assertTrue(client.getFailedJobs().isEmpty());
+                IngestionLedger.Entry entry = client.getIngestionLedger()
+                        .get(ElasticSearchWsConfigProd.Protocol.aspera, "2017/04");
+                Assert.assertEquals(standIn.getHitCount(Instant.parse("2017-04-01T00:00:00Z").toEpochMilli(),
+                        to.getTime()), entry.getDocCount());
+                Assert.assertFalse(client.getDownloadsData(ElasticSearchWsConfigProd.DB.Pride).isEmpty());
+                // ENA run accessions are resolved - whether cached or not - to their project accessions
+                Assert.assertFalse(client.getDownloadsData(ElasticSearchWsConfigProd.DB.ENA).isEmpty());
+                Assert.assertTrue(client.getDownloadsData(ElasticSearchWsConfigProd.DB.ENA).keySet().stream()
+                        .allMatch(accession -> accession.startsWith("PRJEB")));
+
+                // The windows ingested are up to date
+                client.initialiseData(from, to);
+                Assert.assertEquals(hits, standIn.getHitsServed());
+            }
+        }
+    }
+
+    @Test
+    public void ingestMonthOutsideUTC() throws IOException {
+        // The months - and the partitions of their windows - are in UTC, whatever the default time zone
+        TimeZone defaultZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        try (ElasticSearchStandIn standIn = new ElasticSearchStandIn(0, HITS_PER_DAY / 10)) {
+            ElasticSearchWsConfigProd config =
+                    new ElasticSearchWsConfigProd(standIn.getPort(), "localhost", "user", "password");
+            try (ElasticSearchWsClient client =
+                         new ElasticSearchWsClient(config, ENAPortalStub.newENAWsClient(standIn.getPort()))) {
+                Date from = Date.from(Instant.parse("2016-07-01T00:00:00Z"));
+                Date to = Date.from(Instant.parse("2016-07-31T23:59:59.999Z"));
+                client.initialiseData(from, to);
+
+                long hits = standIn.getHitCount(from.getTime(), to.getTime());
+                Assert.assertEquals(hits * ElasticSearchWsConfigProd.Protocol.values().length,
+                        standIn.getHitsServed());
+                Assert.assertEquals(hits, client.getIngestionLedger()
+                        .get(ElasticSearchWsConfigProd.Protocol.aspera, "2016/07").getDocCount());
+
+                // The month ingested is up to date
+                client.initialiseData(from, to);
+                Assert.assertEquals(hits * ElasticSearchWsConfigProd.Protocol.values().length,
+                        standIn.getHitsServed());
+            }
+        } finally {
+            TimeZone.setDefault(defaultZone);
+        }
+    }
+
+    @Test
+    public void retrieveFromCompositeAggregations() throws IOException {
+        try (ElasticSearchStandIn standIn = new ElasticSearchStandIn(0, HITS_PER_DAY)) {
+            Date from = Date.from(Instant.parse("2015-03-01T00:00:00Z"));
+            Date to = Date.from(Instant.parse("2015-03-06T23:59:59.999Z"));
+            // The buckets of each second are retrieved in several pages
+            Assert.assertTrue(standIn.getHitCount(from.getTime(), to.getTime())
+                    > ElasticSearchWsConfigProd.DEFAULT_QUERY_BATCH_SIZE);
+            for (PeriodGranularity periodGranularity : new PeriodGranularity[]{
+                    PeriodGranularity.second, PeriodGranularity.day}) {
+                Map<List<String>, Integer> scrolled = retrieveData(standIn, periodGranularity,
+                        ElasticSearchWsConfigProd.RetrievalEngine.scroll, from, to);
+                Map<List<String>, Integer> aggregated = retrieveData(standIn, periodGranularity,
+                        ElasticSearchWsConfigProd.RetrievalEngine.compositeAggregation, from, to);
+                Assert.assertFalse(scrolled.isEmpty());
+                Assert.assertEquals(periodGranularity.name(), scrolled, aggregated);
+                if (periodGranularity == PeriodGranularity.day) {
+                    // Some buckets are of several downloads
+                    Assert.assertTrue(aggregated.values().stream().anyMatch(count -> count > 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The downloads retrieved between from and to by an ElasticSearchWsClient configured with
+     * periodGranularity and retrievalEngine, with ENA project accessions resolved asynchronously
+     */
+    private static Map<List<String>, Integer> retrieveData(ElasticSearchStandIn standIn,
+                                                           PeriodGranularity periodGranularity,
+                                                           ElasticSearchWsConfigProd.RetrievalEngine retrievalEngine,
+                                                           Date from, Date to) throws IOException {
+        ElasticSearchWsConfigProd config =
+                new ElasticSearchWsConfigProd(standIn.getPort(), "localhost", "user", "password");
+        config.setPeriodGranularity(periodGranularity);
+        config.setRetrievalEngine(retrievalEngine);
+        config.setAsyncEnaResolution(true);
+        try (ElasticSearchWsClient client =
+                     new ElasticSearchWsClient(config, ENAPortalStub.newENAWsClient(standIn.getPort()))) {
+            DownloadsStore<ElasticSearchWsConfigProd.DB> downloads = client.retrieveData(from, to);
+            Assert.assertTrue(client.getFailedJobs().isEmpty());
+            Map<List<String>, Integer> map = new HashMap<>();
+            downloads.forEach((db, accession, period, anonymisedIPAddress, fileName, count) -> map.merge(
+                    Arrays.asList(db.name(), accession, period, anonymisedIPAddress, fileName), count, Integer::sum));
+            return map;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import uk.ac.ebi.ddi.downloas.ena.ENAPortalStub;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports the throughput (hits/s), the bytes allocated per hit and the peak heap of a single
+ * ElasticSearchWsClient.initialiseData() call - i.e. of the production ingest path, windowed by month - retrieving
+ * days of data download entries of both protocols from an ElasticSearchStandIn, run in a child JVM so that its own
+ * allocations are not measured. Downloads are aggregated by PeriodGranularity.month. The bytes allocated and the
+ * peak heap are derived from the heap occupancy before and after each garbage collection, so they are approximate.
+ * Run with e.g.:
+ * java -Xmx4g -cp target/classes:target/test-classes:...
+ * uk.ac.ebi.ddi.downloas.logs.ElasticSearchWsClientThroughputReport [days [hitsPerDay [storeType [hitDecoding]]]]
+ * or: mvn -Pbenchmark test
+ */
+public class ElasticSearchWsClientThroughputReport {
+
+    private static final int DEFAULT_DAYS = 7;
+    private static final int DEFAULT_HITS_PER_DAY = 100000;
+    private static final Instant FROM = Instant.parse("2018-10-01T00:00:00Z");
+
+    public static void main(String[] args) throws IOException {
+        int days = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DAYS;
+        int hitsPerDay = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_HITS_PER_DAY;
+        try (ElasticSearchStandIn.Forked standIn = new ElasticSearchStandIn.Forked(hitsPerDay)) {
+            ElasticSearchWsConfigProd config =
+                    new ElasticSearchWsConfigProd(standIn.getPort(), "localhost", "user", "password");
+            config.setPeriodGranularity(PeriodGranularity.month);
+            if (args.length > 2) {
+                config.setDownloadsStore(ElasticSearchWsConfigProd.StoreType.valueOf(args[2]));
+            }
+            if (args.length > 3) {
+                config.setHitDecoding(ElasticSearchWsConfigProd.HitDecoding.valueOf(args[3]));
+            }
+            try (ElasticSearchWsClient client =
+                         new ElasticSearchWsClient(config, ENAPortalStub.newENAWsClient(standIn.getPort()))) {
+                HeapMonitor heapMonitor = new HeapMonitor();
+                long startTime = System.nanoTime();
+                client.initialiseData(Date.from(FROM), Date.from(FROM.plus(days, ChronoUnit.DAYS).minusMillis(1)));
+                long elapsed = System.nanoTime() - startTime;
+                heapMonitor.stop();
+
+                long hits = client.getScrollJobs().stream().mapToLong(ScrollJob::getHitCount).sum();
+                System.out.println(String.format("Store: %s, hit decoding: %s, scroll slices: %d, "
+                                + "prefetch pages: %d, processing threads: %d", config.getDownloadsStore(),
+                        config.getHitDecoding(), config.getScrollSlices(), config.getPrefetchPages(),
+                        config.getProcessingThreads()));
+                System.out.println(String.format("%,d hits in %,d ms: %,.0f hits/s (%d failed jobs)", hits,
+                        elapsed / 1000000, hits * 1e9 / elapsed, client.getFailedJobs().size()));
+                System.out.println(String.format("~%,d bytes allocated per hit, peak heap ~%,d MB",
+                        heapMonitor.getAllocatedBytes() / Math.max(1, hits), heapMonitor.getPeakHeap() >> 20));
+            }
+        }
+    }
+
+    /**
+     * Tracks the heap occupancy before and after each garbage collection
+     */
+    private static final class HeapMonitor implements NotificationListener {
+        private final Set<String> heapPools = new HashSet<>();
+        private final long startHeap;
+        private final AtomicLong collected = new AtomicLong();
+        private final AtomicLong peakHeap = new AtomicLong();
+        private long endHeap;
+
+        HeapMonitor() {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    heapPools.add(pool.getName());
+                }
+            }
+            System.gc();
+            startHeap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                ((NotificationEmitter) collector).addNotificationListener(this, null, null);
+            }
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            long before = getHeapUsed(info.getGcInfo().getMemoryUsageBeforeGc());
+            long after = getHeapUsed(info.getGcInfo().getMemoryUsageAfterGc());
+            collected.addAndGet(Math.max(0, before - after));
+            peakHeap.accumulateAndGet(before, Math::max);
+        }
+
+        private long getHeapUsed(Map<String, MemoryUsage> poolToUsage) {
+            long used = 0;
+            for (Map.Entry<String, MemoryUsage> entry : poolToUsage.entrySet()) {
+                if (heapPools.contains(entry.getKey())) {
+                    used += entry.getValue().getUsed();
+                }
+            }
+            return used;
+        }
+
+        void stop() {
+            endHeap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            peakHeap.accumulateAndGet(endHeap, Math::max);
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                try {
+                    ((NotificationEmitter) collector).removeNotificationListener(this);
+                } catch (ListenerNotFoundException e) {
+                    // Not listened to
+                }
+            }
+        }
+
+        long getAllocatedBytes() {
+            return collected.get() + endHeap - startHeap;
+        }
+
+        long getPeakHeap() {
+            return peakHeap.get();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+public class ElasticSearchWsConfigProdTest {
+
+    @Test
+    public void getLiteralPrefix() {
+        Assert.assertEquals("/pride/data/archive/",
+                ElasticSearchWsConfigProd.getLiteralPrefix(Pattern.compile("/pride/data/archive/\\d{4}/\\d{2}")));
+        Assert.assertEquals("/pub/databases/", ElasticSearchWsConfigProd.getLiteralPrefix(
+                Pattern.compile(ElasticSearchWsConfigProd.EXPRESSION_ATLAS_FTP_ROOT + "experiments/")));
+        Assert.assertEquals("E-", ElasticSearchWsConfigProd.getLiteralPrefix(Pattern.compile("E\\-[A-Z]{4}")));
+        Assert.assertEquals("/er", ElasticSearchWsConfigProd.getLiteralPrefix(Pattern.compile("/era?-pub")));
+        Assert.assertEquals("", ElasticSearchWsConfigProd.getLiteralPrefix(Pattern.compile("/ena/|/era-pub")));
+    }
+
+    @Test
+    public void getLiteralAlternatives() {
+        Assert.assertEquals(Arrays.asList("/pub/databases/arrayexpress/data/atlas/experiments/E-",
+                "/pub/databases/arrayexpress/data/atlas/rnaseq/E-",
+                "/pub/databases/microarray/data/atlas/experiments/E-",
+                "/pub/databases/microarray/data/atlas/rnaseq/E-"),
+                ElasticSearchWsConfigProd.getLiteralAlternatives(Pattern.compile(
+                        ElasticSearchWsConfigProd.EXPRESSION_ATLAS_FTP_ROOT + "(experiments/|rnaseq/)E\\-[A-Z]{4}")));
+        Assert.assertEquals(Arrays.asList("/eva/esv", "/eva/rs", "/eva/ss", "/eva/PRJEB"),
+                ElasticSearchWsConfigProd.getLiteralAlternatives(
+                        Pattern.compile("/eva/(esv\\d+|[rs]s\\d+|PRJEB\\d+)")));
+        Assert.assertEquals(Arrays.asList("/ena/", "/era-pub"),
+                ElasticSearchWsConfigProd.getLiteralAlternatives(Pattern.compile("/ena/|/era-pub")));
+        Assert.assertEquals(Arrays.asList("/er"),
+                ElasticSearchWsConfigProd.getLiteralAlternatives(Pattern.compile("/era?-pub")));
+        Assert.assertEquals(Arrays.asList("/a", ""),
+                ElasticSearchWsConfigProd.getLiteralAlternatives(Pattern.compile("/a|\\w+")));
+        Assert.assertEquals(Collections.singletonList(""),
+                ElasticSearchWsConfigProd.getLiteralAlternatives(Pattern.compile(".*/ena/")));
+    }
+
+    @Test
+    public void getFileNameWildcards() {
+        List<String> ftpWildcards =
+                ElasticSearchWsConfigProd.getFileNameWildcards(ElasticSearchWsConfigProd.Protocol.ftp);
+        Assert.assertTrue(ftpWildcards.toString(),
+                ftpWildcards.contains("/pub/databases/microarray/data/atlas/experiments/E-*"));
+        Assert.assertTrue(ftpWildcards.contains("*/pride/data/archive/*"));
+        Assert.assertTrue(ftpWildcards.contains("*/eva/PRJEB*"));
+        Assert.assertFalse(ftpWildcards.contains("*/pub/databases/*"));
+        Assert.assertTrue(ElasticSearchWsConfigProd.getFileNameWildcards(ElasticSearchWsConfigProd.Protocol.aspera)
+                .contains("*/era-pub*"));
+    }
+
+    @Test
+    public void getFileNameWildcardsMatchClassifiedFilePaths() throws IOException {
+        for (ElasticSearchWsConfigProd.Protocol protocol : ElasticSearchWsConfigProd.Protocol.values()) {
+            List<Pattern> wildcards = toRegexes(ElasticSearchWsConfigProd.getFileNameWildcards(protocol));
+            for (String filePath : LegacyPathClassifier.getFilePaths()) {
+                if (LegacyPathClassifier.classify(protocol, filePath) != null) {
+                    Assert.assertTrue(protocol + " " + filePath, matchesAny(wildcards, filePath));
+                }
+            }
+            Assert.assertFalse(matchesAny(wildcards, "/pub/databases/other/x"));
+            Assert.assertFalse(matchesAny(wildcards, "/pub/databases/uniprot/current_release/uniprot_sprot.fasta.gz"));
+        }
+    }
+
+    private static boolean matchesAny(List<Pattern> regexes, String filePath) {
+        return regexes.stream().anyMatch(regex -> regex.matcher(filePath).matches());
+    }
+
+    /**
+     * @param wildcards
+     * @return The regexes equivalent to wildcards, as interpreted by ElasticSearch wildcard queries
+     */
+    private static List<Pattern> toRegexes(List<String> wildcards) {
+        Pattern[] regexes = new Pattern[wildcards.size()];
+        for (int i = 0; i < regexes.length; i++) {
+            StringBuilder regex = new StringBuilder();
+            String wildcard = wildcards.get(i);
+            for (int j = 0; j < wildcard.length(); j++) {
+                char c = wildcard.charAt(j);
+                if (c == '*') {
+                    regex.append(".*");
+                } else if (c == '?') {
+                    regex.append('.');
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c == '\\' ? wildcard.charAt(++j) : c)));
+                }
+            }
+            regexes[i] = Pattern.compile(regex.toString());
+        }
+        return Arrays.asList(regexes);
+    }
+}
@@ -0,0 +1,87 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the per-line cost of anonymising the client IP address of Apache access log entries via
+ * IPAddressAnonymiser - with and without memoisation - with that of the split() and getMd5() calls it replaced.
+ * Run with:
+ * mvn test-compile exec:java -Dexec.mainClass=uk.ac.ebi.ddi.downloas.logs.IPAddressAnonymiserBenchmark
+ * -Dexec.classpathScope=test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IPAddressAnonymiserBenchmark {
+
+    private static final int LINE_COUNT = 100000;
+
+    // The number of distinct IP addresses among the lines
+    @Param({"1000", "50000"})
+    private int distinctCount;
+
+    private List<String> lines;
+    private IPAddressAnonymiser anonymiser;
+    private IPAddressAnonymiser uncachedAnonymiser;
+
+    @Setup
+    public void setUp() {
+        lines = new ArrayList<>(LINE_COUNT);
+        for (String ipAddress : IPAddressAnonymiserTest.generateIPAddresses(LINE_COUNT, distinctCount, 42)) {
+            lines.add(ipAddress + " - - [10/Oct/2018:13:55:36 +0000] \"GET /biomodels/model/download/"
+                    + "MODEL1402200000.2?filename=MODEL1402200000_url.xml&x=1 HTTP/1.1\" 200 2326");
+        }
+        anonymiser = new IPAddressAnonymiser(ApacheLogsFileConfigProd.ANONYMISED_IP_ADDRESS_CACHE_SIZE);
+        uncachedAnonymiser = new IPAddressAnonymiser(0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINE_COUNT)
+    public void legacy(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(IPAddressAnonymiserTest.legacyMd5(line.split("\\s+")[0]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINE_COUNT)
+    public void anonymiserWithoutCache(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(uncachedAnonymiser.anonymise(ApacheLogsFileClient.getIPAddress(line)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINE_COUNT)
+    public void anonymiser(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(anonymiser.anonymise(ApacheLogsFileClient.getIPAddress(line)));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(IPAddressAnonymiserBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,89 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+public class IPAddressAnonymiserTest {
+
+    /**
+     * The implementation of ApacheLogsFileClient.getMd5() replaced by IPAddressAnonymiser
+     */
+    static String legacyMd5(String input) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] messageDigest = md.digest(input.getBytes());
+            BigInteger no = new BigInteger(1, messageDigest);
+            String hashtext = no.toString(16);
+            while (hashtext.length() < 32) {
+                hashtext = "0" + hashtext;
+            }
+            return hashtext;
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return count IPv4 addresses, drawn from distinctCount distinct ones
+     */
+    static List<String> generateIPAddresses(int count, int distinctCount, long seed) {
+        Random random = new Random(seed);
+        List<String> ipAddresses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int n = random.nextInt(distinctCount);
+            ipAddresses.add(String.format("%d.%d.%d.%d", 10 + n % 200, n / 200 % 256, n / 51200 % 256, n % 7));
+        }
+        return ipAddresses;
+    }
+
+    @Test
+    public void matchLegacyMd5() {
+        IPAddressAnonymiser anonymiser = new IPAddressAnonymiser(100);
+        List<String> inputs = generateIPAddresses(5000, 1000, 42);
+        inputs.add("");
+        inputs.add("2001:0db8:85a3:0000:0000:8a2e:0370:7334");
+        inputs.add("h\u00f4te.example.org");
+        StringBuilder longInput = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longInput.append(i);
+        }
+        inputs.add(longInput.toString());
+        int leadingZeros = 0;
+        for (String input : inputs) {
+            String expected = legacyMd5(input);
+            Assert.assertEquals(input, expected, IPAddressAnonymiser.md5Hex(input));
+            Assert.assertEquals(input, expected, anonymiser.anonymise(input));
+            Assert.assertEquals(input, expected, ApacheLogsFileClient.getMd5(input));
+            if (expected.charAt(0) == '0') {
+                leadingZeros++;
+            }
+        }
+        // Hashes with leading zeros are padded alike
+        Assert.assertTrue(leadingZeros > 0);
+    }
+
+    @Test
+    public void anonymiseConcurrently() {
+        IPAddressAnonymiser anonymiser = new IPAddressAnonymiser(50);
+        List<String> ipAddresses = generateIPAddresses(20000, 200, 7);
+        Assert.assertTrue(IntStream.range(0, ipAddresses.size()).parallel()
+                .allMatch(i -> anonymiser.anonymise(ipAddresses.get(i)).equals(legacyMd5(ipAddresses.get(i)))));
+    }
+
+    @Test
+    public void getIPAddress() {
+        for (String line : new String[]{"10.0.0.1 - - [10/Oct/2018:13:55:36 +0000] \"GET /\"", "10.0.0.1\t-",
+            "10.0.0.1", "", " 10.0.0.1 -", "\r\n"}) {
+            Assert.assertEquals(line, line.split("\\s+").length == 0 ? "" : line.split("\\s+")[0],
+                    ApacheLogsFileClient.getIPAddress(line));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * The classification of file paths as done by ElasticSearchWsClient before PathClassifier was introduced: the regexes
+ * of each DB are tried in turn. Used as the reference in PathClassifierTest and PathClassifierBenchmark.
+ */
+public final class LegacyPathClassifier {
+
+    static final String FILE_PATHS_RESOURCE = "/download_file_paths.txt";
+
+    private LegacyPathClassifier() {
+    }
+
+    static PathClassifier.Result classify(ElasticSearchWsConfigProd.Protocol protocol, String filePath) {
+        for (ElasticSearchWsConfigProd.DB db : ElasticSearchWsConfigProd.DB.values()) {
+            Map<ElasticSearchWsConfigProd.RegexType, Pattern> typeToRegex =
+                    ElasticSearchWsConfigProd.PROTOCOL_2_DB_2_REGEX.get(protocol).get(db);
+            if (typeToRegex.keySet().isEmpty()) {
+                continue;
+            }
+            String resource = null;
+            if (typeToRegex.get(ElasticSearchWsConfigProd.RegexType.positive).matcher(filePath).find()) {
+                if (typeToRegex.get(ElasticSearchWsConfigProd.RegexType.negative) != null) {
+                    if (!typeToRegex.get(ElasticSearchWsConfigProd.RegexType.negative).matcher(filePath).find()) {
+                        resource = db.toString();
+                    }
+                } else {
+                    resource = db.toString();
+                }
+            }
+            if (resource != null) {
+                Matcher matcher = typeToRegex.get(ElasticSearchWsConfigProd.RegexType.accessionSpecial)
+                        .matcher(filePath);
+                String[] arr = filePath.split("/");
+                String fileName = arr[arr.length - 1];
+                if (matcher.find()) {
+                    String accession = matcher.group(0).replaceAll("^/|[_/]+$", "");
+                    return new PathClassifier.Result(db, accession, fileName);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The corpus of file paths retrieved from ftp and aspera logs, used in tests and benchmarks
+     */
+    static List<String> getFilePaths() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                LegacyPathClassifier.class.getResourceAsStream(FILE_PATHS_RESOURCE), StandardCharsets.UTF_8))) {
+            return reader.lines().filter(line -> !line.isEmpty()).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.lookup.SourceLookup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the per-hit cost - in time and, via the GC profiler (gc.alloc.rate.norm), in bytes allocated - of reading
+ * uhost, file_name and @timestamp from a page of recorded log entries via LogEntryDecoder with that of the
+ * SearchHit.getSourceAsMap() calls it replaced. Run with:
+ * mvn test-compile exec:java -Dexec.mainClass=uk.ac.ebi.ddi.downloas.logs.LogEntryDecoderBenchmark
+ * -Dexec.classpathScope=test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogEntryDecoderBenchmark {
+
+    private static final int HIT_COUNT = ElasticSearchWsConfigProd.DEFAULT_QUERY_BATCH_SIZE;
+
+    private SearchHit[] hits;
+
+    @Setup
+    public void setUp() throws IOException {
+        hits = RecordedSearchHits.getPage(HIT_COUNT);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(HIT_COUNT)
+    public void sourceMap(Blackhole blackhole) {
+        for (SearchHit hit : hits) {
+            // N.B. not hit.getSourceAsMap(), which caches the map in hit after the first invocation
+            Map<String, Object> k2v = SourceLookup.sourceAsMap(hit.getSourceRef());
+            blackhole.consume(k2v.get(ElasticSearchWsConfigProd.UHOST_FIELD).toString());
+            blackhole.consume(k2v.get(ElasticSearchWsConfigProd.FILE_NAME_FIELD).toString());
+            blackhole.consume(k2v.get(ElasticSearchWsConfigProd.TIMESTAMP_FIELD).toString());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(HIT_COUNT)
+    public void streaming(Blackhole blackhole) throws IOException {
+        for (SearchHit hit : hits) {
+            LogEntryDecoder.decode(hit.getSourceRef(), (anonymisedIPAddress, filePath, timestamp) -> {
+                blackhole.consume(anonymisedIPAddress);
+                blackhole.consume(filePath);
+                blackhole.consume(timestamp);
+            });
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LogEntryDecoderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,66 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.smile.SmileXContent;
+import org.elasticsearch.search.SearchHit;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class LogEntryDecoderTest {
+
+    private static List<String> decode(BytesArray source) throws IOException {
+        List<String> fields = new ArrayList<>();
+        if (!LogEntryDecoder.decode(source, (anonymisedIPAddress, filePath, timestamp) ->
+                fields.addAll(Arrays.asList(anonymisedIPAddress, filePath, timestamp)))) {
+            return null;
+        }
+        return fields;
+    }
+
+    private static BytesArray toBytes(String json) {
+        return new BytesArray(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void decodeRecordedHits() throws IOException {
+        for (SearchHit hit : RecordedSearchHits.getPage(20)) {
+            Map<String, Object> k2v = hit.getSourceAsMap();
+            List<String> expected = Arrays.asList(k2v.get(ElasticSearchWsConfigProd.UHOST_FIELD).toString(),
+                    k2v.get(ElasticSearchWsConfigProd.FILE_NAME_FIELD).toString(),
+                    k2v.get(ElasticSearchWsConfigProd.TIMESTAMP_FIELD).toString());
+            Assert.assertEquals(expected, decode((BytesArray) hit.getSourceRef()));
+        }
+    }
+
+    @Test
+    public void decodeNestedAndEscapedFields() throws IOException {
+        Assert.assertEquals(Arrays.asList("a1", "/pride/data/archive/2018/10/PXD010123/F\u00e91.mgf",
+                "2018-10-01T00:00:00.000Z"), decode(toBytes("{\"geoip\": {\"uhost\": \"nested\", \"x\": [1, {}]}, "
+                + "\"uhost\": \"a1\", \"file_name\": \"/pride/data/archive/2018/10/PXD010123/F\\u00e91.mgf\", "
+                + "\"@timestamp\": \"2018-10-01T00:00:00.000Z\", \"message\": \"not parsed {\"}")));
+    }
+
+    @Test
+    public void cannotDecode() throws IOException {
+        // Missing or null field
+        Assert.assertNull(decode(toBytes("{\"uhost\": \"a1\", \"file_name\": \"/robots.txt\"}")));
+        Assert.assertNull(decode(toBytes(
+                "{\"uhost\": null, \"file_name\": \"/robots.txt\", \"@timestamp\": \"2018-10-01T00:00:00Z\"}")));
+        // Not JSON
+        XContentBuilder builder = SmileXContent.contentBuilder().startObject()
+                .field(ElasticSearchWsConfigProd.UHOST_FIELD, "a1")
+                .field(ElasticSearchWsConfigProd.FILE_NAME_FIELD, "/robots.txt")
+                .field(ElasticSearchWsConfigProd.TIMESTAMP_FIELD, "2018-10-01T00:00:00Z").endObject();
+        Assert.assertNull(decode(new BytesArray(BytesReference.bytes(builder).toBytesRef())));
+        Assert.assertNull(decode(new BytesArray(new byte[0])));
+    }
+}
@@ -0,0 +1,154 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import org.junit.Assert;
+import org.junit.Test;
+import uk.ac.ebi.ddi.downloas.ena.ENAAccessionResolver;
+import uk.ac.ebi.ddi.downloas.ena.ENAWsClient;
+import uk.ac.ebi.ddi.downloas.ena.ENAWsConfigProd;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.IntStream;
+
+public class ParkedENADownloadsTest {
+
+    /**
+     * Resolves ERRnnnnnn to PRJEBnnnnnn for even n, and to no project accession for odd n, without querying ENA
+     */
+    private static class StubENAWsClient extends ENAWsClient {
+        private final List<Collection<String>> batches = new ArrayList<>();
+
+        StubENAWsClient() {
+            super(new ENAWsConfigProd());
+        }
+
+        @Override
+        public String getProjectAccessionOrDefault(String enaAccession, String defaultValue) {
+            return defaultValue;
+        }
+
+        @Override
+        public synchronized Map<String, String> getProjectAccessions(Collection<String> enaAccessions) {
+            batches.add(new ArrayList<>(enaAccessions));
+            Map<String, String> enaAccessionToProject = new HashMap<>();
+            for (String enaAccession : enaAccessions) {
+                if (Integer.parseInt(enaAccession.substring(3)) % 2 == 0) {
+                    enaAccessionToProject.put(enaAccession, enaAccession.replace("ERR", "PRJEB"));
+                }
+            }
+            return enaAccessionToProject;
+        }
+    }
+
+    @Test
+    public void parkAndCredit() {
+        StubENAWsClient enaWsClient = new StubENAWsClient();
+        DownloadsStore<ElasticSearchWsConfigProd.DB> downloads =
+                new ConcurrentDownloadsStore<>(ElasticSearchWsConfigProd.DB.class);
+        try (ENAAccessionResolver resolver = new ENAAccessionResolver(enaWsClient)) {
+            ParkedENADownloads parked = new ParkedENADownloads(resolver, downloads);
+            IntStream.range(0, 10000).parallel().forEach(i -> parked.park(
+                    String.format("ERR%06d", i % 250), "2018/10", "host" + (i % 3), "file.fastq.gz", 1));
+            Assert.assertEquals(250, parked.size());
+            parked.credit();
+        }
+
+        // Each accession is looked up once, in batches no larger than MAX_LOOKUP_BATCH_SIZE
+        Assert.assertEquals(250, enaWsClient.batches.stream().mapToInt(Collection::size).sum());
+        Assert.assertTrue(enaWsClient.batches.stream()
+                .allMatch(batch -> batch.size() <= ENAWsConfigProd.MAX_LOOKUP_BATCH_SIZE));
+        Assert.assertEquals(125, downloads.get(ElasticSearchWsConfigProd.DB.ENA).size());
+        Assert.assertNull(downloads.get(ElasticSearchWsConfigProd.DB.ENA, "PRJEB000001"));
+        int total = downloads.get(ElasticSearchWsConfigProd.DB.ENA).values().stream()
+                .flatMap(periods -> periods.values().stream())
+                .flatMap(hosts -> hosts.values().stream())
+                .mapToInt(fileNames -> fileNames.size())
+                .sum();
+        Assert.assertEquals(5000, total);
+    }
+
+    /**
+     * Never answers lookups - until released
+     */
+    private static class BlockedENAWsClient extends StubENAWsClient {
+        private final CountDownLatch lookupStarted = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        public Map<String, String> getProjectAccessions(Collection<String> enaAccessions) {
+            lookupStarted.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.getProjectAccessions(enaAccessions);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void creditFailsOnceResolverIsClosed() throws InterruptedException {
+        BlockedENAWsClient enaWsClient = new BlockedENAWsClient();
+        DownloadsStore<ElasticSearchWsConfigProd.DB> downloads =
+                new ConcurrentDownloadsStore<>(ElasticSearchWsConfigProd.DB.class);
+        ENAAccessionResolver resolver = new ENAAccessionResolver(enaWsClient);
+        ParkedENADownloads parked = new ParkedENADownloads(resolver, downloads);
+        parked.park("ERR000002", "2018/10", "host", "file.fastq.gz", 1);
+        enaWsClient.lookupStarted.await();
+        resolver.close();
+        // N.B. Accessions parked once the resolver is closed are not left waiting either
+        parked.park("ERR000004", "2018/10", "host", "file.fastq.gz", 1);
+        try {
+            parked.credit();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(downloads.isEmpty(ElasticSearchWsConfigProd.DB.ENA));
+        } finally {
+            enaWsClient.released.countDown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void creditWaitsForAtMostMaxWait() {
+        BlockedENAWsClient enaWsClient = new BlockedENAWsClient();
+        DownloadsStore<ElasticSearchWsConfigProd.DB> downloads =
+                new ConcurrentDownloadsStore<>(ElasticSearchWsConfigProd.DB.class);
+        try (ENAAccessionResolver resolver = new ENAAccessionResolver(enaWsClient)) {
+            ParkedENADownloads parked = new ParkedENADownloads(resolver, downloads, 500);
+            parked.park("ERR000002", "2018/10", "host", "file.fastq.gz", 1);
+            try {
+                parked.credit();
+                Assert.fail();
+            } catch (IllegalStateException e) {
+                Assert.assertTrue(downloads.isEmpty(ElasticSearchWsConfigProd.DB.ENA));
+            }
+        } finally {
+            enaWsClient.released.countDown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void creditFailsOnLookupError() {
+        StubENAWsClient enaWsClient = new StubENAWsClient() {
+            @Override
+            public synchronized Map<String, String> getProjectAccessions(Collection<String> enaAccessions) {
+                throw new NoClassDefFoundError("org/example/Missing");
+            }
+        };
+        try (ENAAccessionResolver resolver = new ENAAccessionResolver(enaWsClient)) {
+            ParkedENADownloads parked = new ParkedENADownloads(resolver,
+                    new ConcurrentDownloadsStore<>(ElasticSearchWsConfigProd.DB.class));
+            parked.park("ERR000002", "2018/10", "host", "file.fastq.gz", 1);
+            try {
+                parked.credit();
+                Assert.fail();
+            } catch (IllegalStateException e) {
+                Assert.assertTrue(e.getCause() instanceof NoClassDefFoundError);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the classification of the file paths in LegacyPathClassifier.FILE_PATHS_RESOURCE by PathClassifier with
+ * that by the regex loop it replaced. Run with:
+ * mvn test-compile exec:java -Dexec.mainClass=uk.ac.ebi.ddi.downloas.logs.PathClassifierBenchmark
+ * -Dexec.classpathScope=test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathClassifierBenchmark {
+
+    @Param({"ftp", "aspera"})
+    private ElasticSearchWsConfigProd.Protocol protocol;
+
+    private List<String> filePaths;
+    private PathClassifier classifier;
+
+    @Setup
+    public void setUp() throws IOException {
+        filePaths = LegacyPathClassifier.getFilePaths();
+        classifier = new PathClassifier(protocol);
+    }
+
+    @Benchmark
+    public void legacyLoop(Blackhole blackhole) {
+        for (String filePath : filePaths) {
+            blackhole.consume(LegacyPathClassifier.classify(protocol, filePath));
+        }
+    }
+
+    @Benchmark
+    public void pathClassifier(Blackhole blackhole) {
+        for (String filePath : filePaths) {
+            blackhole.consume(classifier.classify(filePath));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PathClassifierBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,40 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class PathClassifierTest {
+
+    @Test
+    public void classifyAsLegacyLoop() throws IOException {
+        for (ElasticSearchWsConfigProd.Protocol protocol : ElasticSearchWsConfigProd.Protocol.values()) {
+            PathClassifier classifier = new PathClassifier(protocol);
+            for (String filePath : LegacyPathClassifier.getFilePaths()) {
+                Assert.assertEquals(protocol + " " + filePath,
+                        String.valueOf(LegacyPathClassifier.classify(protocol, filePath)),
+                        String.valueOf(classifier.classify(filePath)));
+            }
+        }
+    }
+
+    @Test
+    public void classify() {
+        PathClassifier classifier = new PathClassifier(ElasticSearchWsConfigProd.Protocol.ftp);
+        PathClassifier.Result result = classifier.classify("/pride/data/archive/2018/10/PXD010123/F001257.mgf");
+        Assert.assertEquals(ElasticSearchWsConfigProd.DB.Pride, result.getDb());
+        Assert.assertEquals("PXD010123", result.getAccession());
+        Assert.assertEquals("F001257.mgf", result.getFileName());
+        Assert.assertNull(classifier.classify("/pub/databases/eva/ClinVar/2018/ClinVar_variant.tsv"));
+        Assert.assertNull(classifier.classify("/pub/databases/uniprot/current_release/uniprot_sprot.fasta.gz"));
+        Assert.assertEquals(0L, classifier.getCandidates("/pub/software/unix/clustalw/clustalw-2.1.tar.gz"));
+    }
+
+    @Test
+    public void getFileName() {
+        Assert.assertEquals("F001257.mgf", PathClassifier.getFileName("/PXD010123/F001257.mgf"));
+        Assert.assertEquals("ERR1234567", PathClassifier.getFileName("/pub/databases/ena/ERR1234567/"));
+        Assert.assertEquals("robots.txt", PathClassifier.getFileName("robots.txt"));
+    }
+}
@@ -0,0 +1,56 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Instant;
+
+public class PeriodGranularityTest {
+
+    private static final String TIMESTAMP = "2018-10-01T12:34:56.789Z";
+    private static final String APACHE_LOG_LINE = "10.0.0.1 - - [01/Oct/2018:12:34:56 +0000] "
+            + "\"GET /biomodels/download/MODEL1402200000.2?filename=MODEL1402200000.xml& HTTP/1.1\" 200 1024";
+
+    @Test
+    public void getPeriodFromTimestamp() {
+        Assert.assertEquals("2018-10-01T12:34:56", PeriodGranularity.second.getPeriod(TIMESTAMP));
+        Assert.assertEquals("2018-10-01T12:34:56", PeriodGranularity.second.getPeriod("2018-10-01T12:34:56Z"));
+        Assert.assertEquals("2018/10/01", PeriodGranularity.day.getPeriod(TIMESTAMP));
+        Assert.assertEquals("2018/10", PeriodGranularity.month.getPeriod(TIMESTAMP));
+        Assert.assertEquals("2018", PeriodGranularity.year.getPeriod(TIMESTAMP));
+        Assert.assertTrue(PeriodGranularity.day.getPeriod(TIMESTAMP)
+                .matches(ElasticSearchWsConfigProd.YEAR_MONTH_DATE_REGEX));
+        Assert.assertTrue(PeriodGranularity.month.getPeriod(TIMESTAMP)
+                .matches(ElasticSearchWsConfigProd.YEAR_MONTH_REGEX));
+    }
+
+    @Test
+    public void getPeriodFromEpochMillis() {
+        long epochMillis = Instant.parse(TIMESTAMP).toEpochMilli();
+        for (PeriodGranularity granularity : PeriodGranularity.values()) {
+            Assert.assertEquals(granularity.getPeriod(TIMESTAMP), granularity.getPeriod(epochMillis));
+        }
+    }
+
+    @Test
+    public void apacheLogsProduceSamePeriods() {
+        for (PeriodGranularity granularity : PeriodGranularity.values()) {
+            Assert.assertEquals(granularity.getPeriod(TIMESTAMP),
+                    ApacheLogsFileClient.getPeriod(APACHE_LOG_LINE, "2018/10", granularity));
+        }
+        // Timestamps are converted to UTC, as @timestamp values are
+        String offsetLine = APACHE_LOG_LINE.replace("[01/Oct/2018:12:34:56 +0000]", "[01/Oct/2018:00:34:56 +0100]");
+        Assert.assertEquals("2018-09-30T23:34:56",
+                ApacheLogsFileClient.getPeriod(offsetLine, "2018/10", PeriodGranularity.second));
+        Assert.assertEquals("2018/09", ApacheLogsFileClient.getPeriod(offsetLine, "2018/10", PeriodGranularity.month));
+        Assert.assertEquals("2018/10/01", ApacheLogsFileClient.getPeriod(
+                APACHE_LOG_LINE.replace("+0000", "-0530").replace("12:34:56", "18:29:59"), "2018/10",
+                PeriodGranularity.day));
+        Assert.assertEquals("2018/10/02", ApacheLogsFileClient.getPeriod(
+                APACHE_LOG_LINE.replace("+0000", "-0530").replace("12:34:56", "18:30:00"), "2018/10",
+                PeriodGranularity.day));
+        // Without a timestamp in the log entry, the period is retrieved from the log file name
+        Assert.assertEquals("2018/10", ApacheLogsFileClient.getPeriod("no timestamp", "2018/10",
+                PeriodGranularity.month));
+    }
+}
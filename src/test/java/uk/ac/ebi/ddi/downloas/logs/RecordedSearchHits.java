@@ -0,0 +1,61 @@
+package uk.ac.ebi.ddi.downloas.logs;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.search.SearchHit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The log entries of a scroll page recorded from the ftplogs-* indices, as SearchHits - replicated, with distinct
+ * uhosts, into pages of any size
+ */
+final class RecordedSearchHits {
+
+    static final String SCROLL_PAGE_RESOURCE = "/elasticsearch/ftplogs_scroll_page.json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private RecordedSearchHits() {
+    }
+
+    /**
+     * @return The _source of each hit of the scroll page in SCROLL_PAGE_RESOURCE
+     * @throws IOException
+     */
+    static List<ObjectNode> getSources() throws IOException {
+        List<ObjectNode> sources = new ArrayList<>();
+        try (InputStream in = RecordedSearchHits.class.getResourceAsStream(SCROLL_PAGE_RESOURCE)) {
+            for (JsonNode hit : MAPPER.readTree(in).path("hits").path("hits")) {
+                sources.add((ObjectNode) hit.get("_source"));
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * @param hitCount
+     * @return hitCount SearchHits, cycling through the recorded ones - each with a distinct uhost
+     * @throws IOException
+     */
+    static SearchHit[] getPage(int hitCount) throws IOException {
+        List<ObjectNode> sources = getSources();
+        SearchHit[] hits = new SearchHit[hitCount];
+        for (int i = 0; i < hitCount; i++) {
+            ObjectNode source = sources.get(i % sources.size()).deepCopy();
+            String uhost = source.get(ElasticSearchWsConfigProd.UHOST_FIELD).asText();
+            source.put(ElasticSearchWsConfigProd.UHOST_FIELD,
+                    uhost.substring(0, uhost.length() - 8) + String.format("%08x", i));
+            hits[i] = new SearchHit(i, Integer.toString(i), new Text("doc"), Collections.emptyMap())
+                    .sourceRef(new BytesArray(MAPPER.writeValueAsBytes(source)));
+        }
+        return hits;
+    }
+}
@@ -6,8 +6,11 @@ import org.junit.Test;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
 
 public class DateUtilsTest {
 
@@ -21,4 +24,27 @@ public class DateUtilsTest {
         List<Tuple<Date, Date>> result = DateUtils.partition(fromDate, toDate, 30);
         Assert.assertEquals(2, result.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void partitionInUTC() {
+        TimeZone defaultZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        try {
+            Date fromDate = Date.from(Instant.parse("2026-07-01T00:00:00Z"));
+            Date toDate = Date.from(Instant.parse("2026-07-31T23:59:59.999Z"));
+
+            List<Tuple<Date, Date>> result = DateUtils.partition(fromDate, toDate, 30, ZoneOffset.UTC);
+            Assert.assertEquals(1, result.size());
+            Assert.assertEquals(fromDate, result.get(0).v1());
+            Assert.assertEquals(toDate, result.get(0).v2());
+
+            result = DateUtils.partition(fromDate, toDate, 10, ZoneOffset.UTC);
+            Assert.assertEquals(3, result.size());
+            Assert.assertEquals(Date.from(Instant.parse("2026-07-11T23:59:59.999Z")), result.get(0).v2());
+            Assert.assertEquals(Date.from(Instant.parse("2026-07-12T00:00:00Z")), result.get(1).v1());
+            Assert.assertEquals(toDate, result.get(2).v2());
+        } finally {
+            TimeZone.setDefault(defaultZone);
+        }
+    }
+}